@@ -15,11 +15,24 @@
  */
 package org.dataconservancy.cos.osf.client.config;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
 
 /**
  * Abstract base class for client configurations that use JSON.  This class provides a Jackson {@code ObjectMapper} to
  * concrete subclasses for reading JSON configurations.
+ * <p>
+ * The configuration resource is read and parsed the first time the configuration is requested.  The parsed JSON is
+ * retained, and every caller receives its own configuration object mapped from it, so a caller modifying its
+ * configuration does not affect other callers.  If the
+ * configuration resource is a {@code file:} resource and a {@link #setReloadIntervalMillis(long) reload interval} has
+ * been set, the file is checked for modification at most once per interval, and re-parsed if it has changed.
+ * </p>
  */
 public abstract class AbstractJacksonConfigurationService extends BaseConfigurationService {
 
@@ -34,6 +47,22 @@ public abstract class AbstractJacksonConfigurationService extends BaseConfigurat
 
     final ObjectMapper mapper;
 
+    /**
+     * Guards the parsing of the configuration resource, so that concurrent callers parse it at most once.
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * The most recently parsed configuration resource, {@code null} until the configuration is first requested.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * How often a {@code file:} configuration resource is checked for modification, in milliseconds.  Values less than
+     * one disable reloading.
+     */
+    private volatile long reloadIntervalMillis = 0;
+
     /**
      * A new configuration service using the supplied {@code configurationResource} and a default instance of a
      * Jackson {@code ObjectMapper}.
@@ -87,5 +116,146 @@ public abstract class AbstractJacksonConfigurationService extends BaseConfigurat
         }
     }
 
+    /**
+     * How often a {@code file:} configuration resource is checked for modification, in milliseconds.  Zero, the
+     * default, means the configuration is never reloaded.
+     *
+     * @return the reload interval in milliseconds
+     */
+    public long getReloadIntervalMillis() {
+        return reloadIntervalMillis;
+    }
+
+    /**
+     * Sets how often a {@code file:} configuration resource is checked for modification.  If the file has been
+     * modified, it is re-parsed and subsequent callers receive the new configuration.  Values less than one disable
+     * reloading.  Has no effect on classpath or {@code http} resources, which are never reloaded.
+     *
+     * @param reloadIntervalMillis the reload interval in milliseconds
+     */
+    public void setReloadIntervalMillis(long reloadIntervalMillis) {
+        this.reloadIntervalMillis = reloadIntervalMillis;
+    }
+
+    /**
+     * Answers the configuration parsed from the configuration resource by {@code configurer}.  The resource is parsed
+     * on the first invocation, and re-parsed when it is a modified {@code file:} resource and reloading is enabled.
+     * Otherwise the configuration is mapped from the previously parsed JSON.  Each invocation answers a new
+     * configuration object, which the caller may modify.
+     *
+     * @param configurationClass the class encapsulating the configuration
+     * @param configurer maps the JSON configuration to an instance of {@code configurationClass}
+     * @param <T> the type of the configuration
+     * @return the configuration
+     * @throws RuntimeException if the configuration resource cannot be resolved or read on the first invocation
+     */
+    <T> T getConfiguration(Class<T> configurationClass, JacksonConfigurer<T> configurer) {
+        Snapshot current = snapshot;
+        if (current == null || (reloadIntervalMillis > 0 && current.isCheckDue(System.currentTimeMillis()))) {
+            current = load(current, configurationClass, configurer);
+        }
+        return configurer.configure(current.tree.deepCopy(), mapper, configurationClass);
+    }
+
+    private <T> Snapshot load(Snapshot stale, Class<T> configurationClass, JacksonConfigurer<T> configurer) {
+        synchronized (loadLock) {
+            Snapshot latest = snapshot;
+            if (latest != stale) {
+                // another thread loaded or checked the configuration while we were waiting
+                return latest;
+            }
+
+            long now = System.currentTimeMillis();
+            File file = getConfigurationFile();
+            long lastModified = (file != null) ? file.lastModified() : 0;
+
+            if (latest != null && lastModified == latest.lastModified) {
+                snapshot = new Snapshot(latest.tree, lastModified, file, now + reloadIntervalMillis);
+                return snapshot;
+            }
+
+            try {
+                JsonNode tree = parse(configurationClass, configurer);
+                if (latest != null) {
+                    LOG.debug("Reloaded modified configuration resource {}", configurationResource);
+                }
+                snapshot = new Snapshot(tree, lastModified, file, now + reloadIntervalMillis);
+            } catch (RuntimeException e) {
+                if (latest == null) {
+                    throw e;
+                }
+                // the file may be in the middle of being written; keep the last good configuration and try later
+                LOG.warn("Unable to reload configuration resource {}, retaining the previous configuration: {}",
+                        configurationResource, e.getMessage());
+                snapshot = new Snapshot(latest.tree, latest.lastModified, file, now + reloadIntervalMillis);
+            }
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Parses the configuration resource, insuring that {@code configurer} can map it.
+     *
+     * @return the parsed JSON
+     */
+    private <T> JsonNode parse(Class<T> configurationClass, JacksonConfigurer<T> configurer) {
+        URL configUrl = getConfigurationResource(configurationResource);
+
+        try {
+            JsonNode config = mapper.readTree(IOUtils.toString(configUrl, "UTF-8"));
+            configurer.configure(config.deepCopy(), mapper, configurationClass);
+            return config;
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    String.format(ERR_READING_RESOURCE, configurationResource, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Answers the file underlying a {@code file:} configuration resource, or {@code null} if the resource is not a
+     * {@code file:} resource.
+     *
+     * @return the configuration file, may be {@code null}
+     */
+    private File getConfigurationFile() {
+        if (!configurationResource.startsWith("file:")) {
+            return null;
+        }
+
+        try {
+            return new File(getConfigurationResource(configurationResource).toURI());
+        } catch (Exception e) {
+            LOG.debug("Unable to resolve {} to a file, it will not be reloaded: {}",
+                    configurationResource, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * An immutable pairing of a parsed configuration resource with the state of the resource it was parsed from.
+     * The JSON is never modified once parsed.
+     */
+    private static class Snapshot {
+
+        private final JsonNode tree;
+
+        private final long lastModified;
+
+        private final File file;
+
+        private final long nextCheck;
+
+        private Snapshot(JsonNode tree, long lastModified, File file, long nextCheck) {
+            this.tree = tree;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.nextCheck = nextCheck;
+        }
+
+        private boolean isCheckDue(long now) {
+            return file != null && now >= nextCheck;
+        }
+    }
 
 }
@@ -15,12 +15,7 @@
  */
 package org.dataconservancy.cos.osf.client.config;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.io.IOUtils;
-
-import java.io.IOException;
-import java.net.URL;
 
 /**
  * A configuration service implementation that reads JSON-formatted Waterbutler client configuration from the classpath
@@ -61,20 +56,16 @@ public class JacksonWbConfigurationService extends AbstractJacksonConfigurationS
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The configuration is parsed once, on the first invocation, and the same instance is returned thereafter (unless
+     * the resource is reloaded).  Callers must not modify the returned configuration.
+     * </p>
      *
      * @return {@inheritDoc}
      * @throws RuntimeException if the configuration resource cannot be found on the classpath, or if there is trouble
      *                          reading the resource.
      */
     public WbClientConfiguration getConfiguration() {
-        URL configUrl = getConfigurationResource(configurationResource);
-
-        try {
-            JsonNode config = mapper.readTree(IOUtils.toString(configUrl, "UTF-8"));
-            return new DefaultWbJacksonConfigurer<WbClientConfiguration>().configure(config, mapper, WbClientConfiguration.class);
-        } catch (IOException e) {
-            throw new RuntimeException(
-                    String.format(ERR_READING_RESOURCE, configurationResource, e.getMessage()), e);
-        }
+        return getConfiguration(WbClientConfiguration.class, new DefaultWbJacksonConfigurer<>());
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.model.User;
+import org.dataconservancy.cos.osf.client.support.BatchingLoader;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.UrlToIdTransform;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers nodes, registrations and users by identifier, batching lookups made at around the same time into a single
+ * {@code filter[id]=a,b,c} list request.  Crawlers which look up the parent, root or contributors of many resources
+ * make one request per batch rather than one request per identifier:
+ * <pre>
+ *     BatchedLookups lookups = new BatchedLookups(osfService);
+ *     List&lt;CompletableFuture&lt;Node&gt;&gt; parents = nodes.stream()
+ *             .map(n -&gt; lookups.node(n.getParent()))
+ *             .collect(Collectors.toList());
+ *     // ... after the crawl
+ *     LOG.info("Node lookups: {}", lookups.getNodeLoader());
+ * </pre>
+ * <p>
+ * Identifiers may be supplied as OSF API urls, e.g. the value of {@code NodeBase.getParent()}.  Identifiers that the
+ * list endpoint does not answer (e.g. resources that are not visible to the list endpoint) are looked up individually,
+ * so each lookup answers what the corresponding {@code OsfService} by-id method would answer: {@code null} if the
+ * resource does not exist.  Resources are deserialized using the {@link #DEFAULT_PROFILE default profile}, which
+ * follows none of their relationships, unless another profile is supplied.  The three loaders send their requests on
+ * one bounded pool of threads.  Instances are safe for use by multiple threads, and should be {@link #shutdown() shut
+ * down} when no longer needed.
+ * </p>
+ */
+public class BatchedLookups {
+
+    /**
+     * Default maximum number of identifiers in a batch, which is also the largest page size answered by the OSF
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    /**
+     * Default time to wait for more lookups after the first lookup of a batch, in milliseconds
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    /**
+     * Default profile used to deserialize looked up resources, which follows no relationships
+     */
+    public static final ResolutionProfile DEFAULT_PROFILE = ResolutionProfile.none();
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    /**
+     * Sends the batches and fallback lookups of every loader
+     */
+    private final ExecutorService executor;
+
+    private final BatchingLoader<Node> nodes;
+
+    private final BatchingLoader<Registration> registrations;
+
+    private final BatchingLoader<User> users;
+
+    /**
+     * Constructs lookups which batch up to {@link #DEFAULT_MAX_BATCH_SIZE} identifiers made within
+     * {@link #DEFAULT_WINDOW_MILLIS} milliseconds of each other.
+     *
+     * @param osfService the service used to perform lookups
+     */
+    public BatchedLookups(OsfService osfService) {
+        this(osfService, DEFAULT_MAX_BATCH_SIZE, DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs lookups which batch up to {@code maxBatchSize} identifiers made within {@code window} of each other.
+     *
+     * @param osfService the service used to perform lookups
+     * @param maxBatchSize the maximum number of identifiers in a single list request, at most
+     *                     {@link #DEFAULT_MAX_BATCH_SIZE}
+     * @param window how long to wait for more lookups after the first lookup of a batch
+     * @param unit the unit of {@code window}
+     */
+    public BatchedLookups(OsfService osfService, int maxBatchSize, long window, TimeUnit unit) {
+        this(osfService, maxBatchSize, window, unit, DEFAULT_PROFILE);
+    }
+
+    /**
+     * Constructs lookups which batch up to {@code maxBatchSize} identifiers made within {@code window} of each other,
+     * and deserialize the looked up resources using {@code profile}.
+     *
+     * @param osfService the service used to perform lookups
+     * @param maxBatchSize the maximum number of identifiers in a single list request, at most
+     *                     {@link #DEFAULT_MAX_BATCH_SIZE}
+     * @param window how long to wait for more lookups after the first lookup of a batch
+     * @param unit the unit of {@code window}
+     * @param profile the relationships to resolve for each looked up resource
+     */
+    public BatchedLookups(OsfService osfService, int maxBatchSize, long window, TimeUnit unit,
+                          ResolutionProfile profile) {
+        if (osfService == null || profile == null) {
+            throw new IllegalArgumentException("OsfService and ResolutionProfile must not be null.");
+        }
+        if (maxBatchSize < 1 || maxBatchSize > DEFAULT_MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Maximum batch size must be between 1 and " + DEFAULT_MAX_BATCH_SIZE);
+        }
+
+        this.executor = Executors.newFixedThreadPool(BatchingLoader.DEFAULT_CONCURRENCY,
+                new DaemonThreadFactory("osf-batch"));
+        this.nodes = new BatchingLoader<>(
+                ids -> Calls.execute(profile.attach(osfService.nodeList(filterById(ids)))), Node::getId,
+                id -> Calls.execute(profile.attach(osfService.node(id))), maxBatchSize, window, unit, executor);
+        this.registrations = new BatchingLoader<>(
+                ids -> Calls.execute(profile.attach(osfService.registrationList(filterById(ids)))),
+                Registration::getId, id -> Calls.execute(profile.attach(osfService.registration(id))), maxBatchSize,
+                window, unit, executor);
+        this.users = new BatchingLoader<>(
+                ids -> Calls.execute(profile.attach(osfService.userList(filterById(ids)))), User::getId,
+                id -> Calls.execute(profile.attach(osfService.user(id))), maxBatchSize, window, unit, executor);
+    }
+
+    /**
+     * Looks up a node, as part of a batch.
+     *
+     * @param id the node identifier or url
+     * @return the node, or {@code null} if it does not exist
+     */
+    public CompletableFuture<Node> node(String id) {
+        return nodes.load(idOf(id));
+    }
+
+    /**
+     * Looks up a registration, as part of a batch.
+     *
+     * @param id the registration identifier or url
+     * @return the registration, or {@code null} if it does not exist
+     */
+    public CompletableFuture<Registration> registration(String id) {
+        return registrations.load(idOf(id));
+    }
+
+    /**
+     * Looks up a user, as part of a batch.
+     *
+     * @param id the user identifier or url
+     * @return the user, or {@code null} if it does not exist
+     */
+    public CompletableFuture<User> user(String id) {
+        return users.load(idOf(id));
+    }
+
+    /**
+     * Sends every batch that is waiting for its window to elapse.
+     */
+    public void flush() {
+        nodes.flush();
+        registrations.flush();
+        users.flush();
+    }
+
+    /**
+     * Stops the threads used to send batches.
+     */
+    public void shutdown() {
+        nodes.shutdown();
+        registrations.shutdown();
+        users.shutdown();
+        executor.shutdownNow();
+    }
+
+    /**
+     * The loader used to look up nodes, which carries the batch size and latency metrics for node lookups.
+     *
+     * @return the node loader
+     */
+    public BatchingLoader<Node> getNodeLoader() {
+        return nodes;
+    }
+
+    /**
+     * The loader used to look up registrations, which carries the batch size and latency metrics for registration
+     * lookups.
+     *
+     * @return the registration loader
+     */
+    public BatchingLoader<Registration> getRegistrationLoader() {
+        return registrations;
+    }
+
+    /**
+     * The loader used to look up users, which carries the batch size and latency metrics for user lookups.
+     *
+     * @return the user loader
+     */
+    public BatchingLoader<User> getUserLoader() {
+        return users;
+    }
+
+    private static String idOf(String idOrUrl) {
+        if (idOrUrl == null) {
+            throw new IllegalArgumentException("Identifier must not be null.");
+        }
+        return URL_TO_ID.apply(idOrUrl);
+    }
+
+    static Map<String, String> filterById(List<String> ids) {
+        Map<String, String> params = new HashMap<>();
+        params.put("filter[id]", String.join(",", ids));
+        params.put("page[size]", String.valueOf(ids.size()));
+        return params;
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import retrofit.Call;
+import retrofit.Response;
+
+import java.io.IOException;
+
+/**
+ * Executes {@code OsfService} calls, answering the response body as the by-id and list methods of the service are
+ * used throughout this package: a {@code 404} answers {@code null}, and any other unsuccessful response fails.
+ */
+final class Calls {
+
+    private Calls() {
+        // static methods only
+    }
+
+    /**
+     * Executes the supplied call.
+     *
+     * @param call the call
+     * @param <T> the type of the response body
+     * @return the response body, or {@code null} if the resource does not exist
+     * @throws RuntimeException if the call fails, or its response is unsuccessful
+     */
+    static <T> T execute(Call<T> call) {
+        try {
+            return body(call.execute());
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Answers the body of the supplied response.
+     *
+     * @param response the response
+     * @param <T> the type of the response body
+     * @return the response body, or {@code null} if the response is a {@code 404}
+     * @throws IOException if the response is unsuccessful
+     */
+    static <T> T body(Response<T> response) throws IOException {
+        if (response.isSuccess() || response.code() == 404) {
+            return response.body();
+        }
+        throw new IOException("Request failed: " + response.code() + " " + response.message());
+    }
+
+}
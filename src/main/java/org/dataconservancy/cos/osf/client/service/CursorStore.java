@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.jasminb.jsonapi.ResourceList;
+import retrofit.Call;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the positions of named {@link ListCursor}s in a local directory, one small JSON file per cursor, so that long
+ * enumerations of a list endpoint survive a restart of the JVM:
+ * <pre>
+ *     CursorStore cursors = new CursorStore(Paths.get("/var/lib/harvester/cursors"));
+ *     Map&lt;String, String&gt; params = OsfFilter.nodes().eq("public", true).toQueryMap();
+ *     try (ListCursor&lt;Node&gt; nodes = cursors.open("public-nodes", params, osfService::paginatedNodeList,
+ *             osfService::paginatedNodeList)) {
+ *         while (nodes.hasNext()) {
+ *             harvest(nodes.next());
+ *         }
+ *     }
+ * </pre>
+ * <p>
+ * A position records the url of the page being read (or none, for the first page), the query parameters the cursor
+ * was opened with, and the number of resources of the page already read.  Each position is written to a temporary
+ * file, which is flushed to disk and then moved over the previous position, so a crash leaves either the old or the
+ * new position, never a partial one.  Any number of cursors, with different names, may be open at once; a name may
+ * only be opened by one cursor at a time.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class CursorStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private static final String SUFFIX = ".cursor";
+
+    private final Path directory;
+
+    private final Set<String> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a store keeping cursor positions in {@code directory}, which is created if it does not exist.
+     *
+     * @param directory the directory holding the cursor files
+     */
+    public CursorStore(Path directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Cursor directory must not be null.");
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create cursor directory " + directory + ": " + e.getMessage(), e);
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the named cursor over the pages of a list endpoint, resuming from its saved position if it has one.
+     *
+     * @param name the name of the cursor, made of letters, digits, '.', '_' and '-'
+     * @param params the query parameters of the first page, e.g. filters; must equal the parameters the cursor was
+     *               saved with, if it has a saved position
+     * @param first answers the call for the first page, e.g. {@code osfService::paginatedNodeList}
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param <T> the type of the resources
+     * @return the cursor, which must be closed
+     * @throws IllegalStateException if the cursor is already open, or was saved with different query parameters
+     */
+    public <T> ListCursor<T> open(String name, Map<String, String> params,
+                                  Function<Map<String, String>, Call<ResourceList<T>>> first,
+                                  Function<String, Call<ResourceList<T>>> next) {
+        checkName(name);
+        if (first == null || next == null) {
+            throw new IllegalArgumentException("First page and next page functions must not be null.");
+        }
+        Map<String, String> query = params == null ? new TreeMap<>() : new TreeMap<>(params);
+        if (!open.add(name)) {
+            throw new IllegalStateException("Cursor " + name + " is already open.");
+        }
+
+        try {
+            Position position = get(name);
+            if (position == null) {
+                position = new Position(name, query, null, 0, 0, false);
+            } else if (!position.params.equals(query)) {
+                throw new IllegalStateException("Cursor " + name + " was saved with parameters " + position.params +
+                        ", not " + query + "; reset it to start a new enumeration.");
+            }
+            return new ListCursor<>(this, position, first, next);
+        } catch (RuntimeException e) {
+            open.remove(name);
+            throw e;
+        }
+    }
+
+    /**
+     * Answers the saved position of the named cursor.
+     *
+     * @param name the name of the cursor
+     * @return the position, or {@code null} if the cursor has no saved position
+     */
+    public Position get(String name) {
+        checkName(name);
+        Path file = file(name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            JsonNode json = MAPPER.readTree(file.toFile());
+            Map<String, String> params = new TreeMap<>();
+            json.path("params").fields().forEachRemaining(param -> params.put(param.getKey(),
+                    param.getValue().asText()));
+            return new Position(name, params, json.path("pageUrl").isTextual() ? json.path("pageUrl").asText() : null,
+                    json.path("offset").asInt(), json.path("count").asLong(), json.path("complete").asBoolean());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read cursor " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The names of the cursors with saved positions.
+     *
+     * @return the names, in order
+     */
+    public Set<String> getNames() {
+        Set<String> names = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            files.forEach(file -> {
+                String fileName = file.getFileName().toString();
+                names.add(fileName.substring(0, fileName.length() - SUFFIX.length()));
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to list cursors in " + directory + ": " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Discards the saved position of the named cursor, so that it is next opened at the first page.
+     *
+     * @param name the name of the cursor
+     * @throws IllegalStateException if the cursor is open
+     */
+    public void reset(String name) {
+        checkName(name);
+        if (open.contains(name)) {
+            throw new IllegalStateException("Cursor " + name + " is open.");
+        }
+        try {
+            Files.deleteIfExists(file(name));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to reset cursor " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Atomically replaces the saved position of a cursor.
+     */
+    void save(Position position) {
+        ObjectNode json = MAPPER.createObjectNode();
+        json.put("name", position.name);
+        ObjectNode params = json.putObject("params");
+        position.params.forEach(params::put);
+        json.put("pageUrl", position.pageUrl);
+        json.put("offset", position.offset);
+        json.put("count", position.count);
+        json.put("complete", position.complete);
+        json.put("saved", System.currentTimeMillis());
+
+        Path file = file(position.name);
+        Path temp = directory.resolve(position.name + SUFFIX + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(MAPPER.writeValueAsBytes(json));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to save cursor " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Releases the name of a closed cursor.
+     */
+    void release(String name) {
+        open.remove(name);
+    }
+
+    private Path file(String name) {
+        return directory.resolve(name + SUFFIX);
+    }
+
+    private static void checkName(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Cursor name must be made of letters, digits, '.', '_' and '-': " +
+                    name);
+        }
+    }
+
+    /**
+     * The saved position of a cursor
+     */
+    public static class Position {
+
+        private final String name;
+
+        private final Map<String, String> params;
+
+        private final String pageUrl;
+
+        private final int offset;
+
+        private final long count;
+
+        private final boolean complete;
+
+        Position(String name, Map<String, String> params, String pageUrl, int offset, long count, boolean complete) {
+            this.name = name;
+            this.params = Collections.unmodifiableMap(new TreeMap<>(params));
+            this.pageUrl = pageUrl;
+            this.offset = offset;
+            this.count = count;
+            this.complete = complete;
+        }
+
+        /**
+         * The name of the cursor.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The query parameters the cursor was opened with.
+         *
+         * @return the query parameters
+         */
+        public Map<String, String> getParams() {
+            return params;
+        }
+
+        /**
+         * The url of the page being read.
+         *
+         * @return the url, or {@code null} if the first page is being read
+         */
+        public String getPageUrl() {
+            return pageUrl;
+        }
+
+        /**
+         * The number of resources of the page being read that have already been read.
+         *
+         * @return the offset in the page
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * The number of resources read since the cursor was first opened.
+         *
+         * @return the number of resources
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Whether every resource has been read.
+         *
+         * @return {@code true} if the enumeration is complete
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": page=" + (pageUrl == null ? "first" : pageUrl) + ", offset=" + offset + ", count=" +
+                    count + (complete ? ", complete" : "");
+        }
+    }
+
+}
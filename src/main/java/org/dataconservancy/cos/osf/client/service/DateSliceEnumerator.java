@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.JodaSupport;
+import org.dataconservancy.cos.osf.client.support.PaginatingRelationshipResolver;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit.Call;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Enumerates a list endpoint by splitting a date range into slices, bounded by {@code filter[date_created]} or
+ * {@code filter[date_modified]}, and enumerating the slices concurrently.  Each slice is small enough to be read in a
+ * few shallow pages, so deep page numbers are never requested, and a resource created or modified in one slice does
+ * not shift the pages of another:
+ * <pre>
+ *     DateSliceEnumerator&lt;Registration&gt; enumerator =
+ *             DateSliceEnumerator.registrations(osfService, DateSliceEnumerator.Field.DATE_CREATED, 8);
+ *     enumerator.enumerate(from, to, params, (slice, registrations) -&gt; {
+ *         index(registrations);
+ *         checkpoint(slice.getFrom(), slice.getTo());
+ *     });
+ *     enumerator.shutdown();
+ * </pre>
+ * <p>
+ * Slice widths adapt to the density of the collection: the first page of each slice reports the number of pages in
+ * the slice, and a slice with more than twice the target number of resources is split in half rather than paged
+ * through.  The width of the slices that follow is scaled by the ratio of the target to the number of resources found
+ * in the last completed slice.  Slices are half-open, {@code [from, to)}, so each resource falls in exactly one slice.
+ * </p>
+ * <p>
+ * Completed slices are supplied, with their resources, on the calling thread as they complete, which may be out of
+ * date order.  An interrupted enumeration may be restarted by enumerating the parts of the range that were not
+ * supplied.  Instances are safe for use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the resources
+ */
+public class DateSliceEnumerator<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DateSliceEnumerator.class);
+
+    /**
+     * Default number of slices enumerated concurrently
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Default number of resources per page
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Default number of resources aimed for in each slice
+     */
+    public static final int DEFAULT_TARGET_SLICE_SIZE = 500;
+
+    /**
+     * Slices are not split below this width, in milliseconds
+     */
+    private static final long MIN_WIDTH_MILLIS = 1000;
+
+    /**
+     * The date attribute used to bound the slices
+     */
+    public enum Field {
+
+        DATE_CREATED("date_created"),
+
+        DATE_MODIFIED("date_modified");
+
+        private final String attribute;
+
+        Field(String attribute) {
+            this.attribute = attribute;
+        }
+
+        /**
+         * The name of the attribute, as used in {@code filter} query parameters.
+         *
+         * @return the attribute name
+         */
+        public String getAttribute() {
+            return attribute;
+        }
+    }
+
+    private final Function<Map<String, String>, Call<ResourceList<T>>> firstPage;
+
+    private final Function<String, Call<ResourceList<T>>> nextPage;
+
+    private final Field field;
+
+    private final int concurrency;
+
+    private final int pageSize;
+
+    private final int targetSliceSize;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong sliceCount = new AtomicLong();
+
+    private final AtomicLong splitCount = new AtomicLong();
+
+    /**
+     * Constructs an enumerator using {@link #DEFAULT_PAGE_SIZE} and {@link #DEFAULT_TARGET_SLICE_SIZE}.
+     *
+     * @param firstPage answers the call for the first page matching the supplied query parameters, e.g.
+     *                  {@code osfService::paginatedNodeList}
+     * @param nextPage answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param field the date attribute bounding the slices
+     * @param concurrency the maximum number of slices enumerated concurrently
+     */
+    public DateSliceEnumerator(Function<Map<String, String>, Call<ResourceList<T>>> firstPage,
+                               Function<String, Call<ResourceList<T>>> nextPage, Field field, int concurrency) {
+        this(firstPage, nextPage, field, concurrency, DEFAULT_PAGE_SIZE, DEFAULT_TARGET_SLICE_SIZE);
+    }
+
+    /**
+     * Constructs an enumerator.
+     *
+     * @param firstPage answers the call for the first page matching the supplied query parameters
+     * @param nextPage answers the call for the page at the supplied url
+     * @param field the date attribute bounding the slices
+     * @param concurrency the maximum number of slices enumerated concurrently
+     * @param pageSize the number of resources requested per page
+     * @param targetSliceSize the number of resources aimed for in each slice
+     */
+    public DateSliceEnumerator(Function<Map<String, String>, Call<ResourceList<T>>> firstPage,
+                               Function<String, Call<ResourceList<T>>> nextPage, Field field, int concurrency,
+                               int pageSize, int targetSliceSize) {
+        if (firstPage == null || nextPage == null || field == null) {
+            throw new IllegalArgumentException("Page functions and field must not be null.");
+        }
+        if (concurrency < 1 || pageSize < 1 || targetSliceSize < 1) {
+            throw new IllegalArgumentException("Concurrency, page size and target slice size must be positive.");
+        }
+        this.firstPage = firstPage;
+        this.nextPage = nextPage;
+        this.field = field;
+        this.concurrency = concurrency;
+        this.pageSize = pageSize;
+        this.targetSliceSize = targetSliceSize;
+        this.executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-slice"));
+    }
+
+    /**
+     * Constructs an enumerator over the nodes endpoint.
+     *
+     * @param osfService the service used to retrieve nodes
+     * @param field the date attribute bounding the slices
+     * @param concurrency the maximum number of slices enumerated concurrently
+     * @return the enumerator
+     */
+    public static DateSliceEnumerator<Node> nodes(OsfService osfService, Field field, int concurrency) {
+        if (osfService == null) {
+            throw new IllegalArgumentException("OsfService must not be null.");
+        }
+        return new DateSliceEnumerator<>(osfService::paginatedNodeList, osfService::paginatedNodeList, field,
+                concurrency);
+    }
+
+    /**
+     * Constructs an enumerator over the registrations endpoint.
+     *
+     * @param osfService the service used to retrieve registrations
+     * @param field the date attribute bounding the slices
+     * @param concurrency the maximum number of slices enumerated concurrently
+     * @return the enumerator
+     */
+    public static DateSliceEnumerator<Registration> registrations(OsfService osfService, Field field,
+                                                                  int concurrency) {
+        if (osfService == null) {
+            throw new IllegalArgumentException("OsfService must not be null.");
+        }
+        return new DateSliceEnumerator<>(osfService::paginatedRegistrationList,
+                osfService::paginatedRegistrationList, field, concurrency);
+    }
+
+    /**
+     * Enumerates the resources whose date falls in {@code [from, to)}, supplying each completed slice and its
+     * resources to {@code consumer} on the calling thread.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param params additional query parameters sent with every request, e.g. other filters; may be {@code null}
+     * @param consumer accepts each completed slice and its resources
+     */
+    public void enumerate(DateTime from, DateTime to, Map<String, String> params,
+                          BiConsumer<Slice, List<T>> consumer) {
+        if (from == null || to == null || consumer == null) {
+            throw new IllegalArgumentException("Range and consumer must not be null.");
+        }
+        Map<String, String> query = params == null ? new HashMap<>() : new HashMap<>(params);
+
+        Deque<Slice> pending = new ArrayDeque<>();
+        CompletionService<Result<T>> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Result<T>>> inFlight = new ArrayList<>();
+
+        long cursor = from.getMillis();
+        long end = to.getMillis();
+        long width = Math.max(MIN_WIDTH_MILLIS, (end - cursor) / concurrency);
+
+        while (cursor < end || !pending.isEmpty() || !inFlight.isEmpty()) {
+            while (inFlight.size() < concurrency && (cursor < end || !pending.isEmpty())) {
+                Slice slice;
+                if (pending.isEmpty()) {
+                    slice = new Slice(cursor, Math.min(end, cursor + width));
+                    cursor = slice.to;
+                } else {
+                    slice = pending.pop();
+                }
+                inFlight.add(completion.submit(() -> enumerate(slice, query)));
+            }
+
+            Future<Result<T>> done = take(completion, inFlight);
+            inFlight.remove(done);
+            Result<T> result = await(done, inFlight);
+
+            if (result.resources == null) {
+                splitCount.incrementAndGet();
+                Slice first = new Slice(result.slice.from, result.slice.from + result.slice.width() / 2);
+                pending.push(new Slice(first.to, result.slice.to));
+                pending.push(first);
+                width = Math.min(width, first.width());
+                continue;
+            }
+
+            sliceCount.incrementAndGet();
+            long scaled = result.slice.width() * targetSliceSize / Math.max(1, result.resources.size());
+            width = Math.max(MIN_WIDTH_MILLIS, Math.min(width * 4, Math.max(width / 4, scaled)));
+            LOG.debug("Enumerated {} resources in slice {}; next slices are {} ms wide", result.resources.size(),
+                    result.slice, width);
+            consumer.accept(result.slice, result.resources);
+        }
+    }
+
+    /**
+     * The number of slices enumerated, not counting slices that were split.
+     *
+     * @return the number of slices
+     */
+    public long getSliceCount() {
+        return sliceCount.get();
+    }
+
+    /**
+     * The number of slices that were split because they held too many resources.
+     *
+     * @return the number of splits
+     */
+    public long getSplitCount() {
+        return splitCount.get();
+    }
+
+    /**
+     * Stops the threads used to enumerate slices concurrently.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Retrieves every page of the slice, or answers a result without resources if the slice should be split.
+     */
+    private Result<T> enumerate(Slice slice, Map<String, String> params) {
+        Map<String, String> query = new HashMap<>(params);
+        query.put("filter[" + field.attribute + "][gte]", JodaSupport.DATE_TIME_FORMATTER.print(slice.from));
+        query.put("filter[" + field.attribute + "][lt]", JodaSupport.DATE_TIME_FORMATTER.print(slice.to));
+        query.put("page[size]", String.valueOf(pageSize));
+
+        ResourceList<T> page = Calls.execute(firstPage.apply(query));
+        int pages = PaginatingRelationshipResolver.pageNumber(page == null ? null : page.getLast());
+        if ((long) pages * pageSize > 2L * targetSliceSize && slice.width() >= 2 * MIN_WIDTH_MILLIS) {
+            return new Result<>(slice, null);
+        }
+
+        List<T> resources = new ArrayList<>();
+        while (page != null) {
+            resources.addAll(page);
+            page = page.getNext() == null ? null : Calls.execute(nextPage.apply(page.getNext()));
+        }
+        return new Result<>(slice, resources);
+    }
+
+    private static <R> Future<R> take(CompletionService<R> completion, List<? extends Future<?>> inFlight) {
+        try {
+            return completion.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            inFlight.forEach(future -> future.cancel(true));
+            throw new RuntimeException("Interrupted while enumerating slices.", e);
+        }
+    }
+
+    private static <R> R await(Future<R> future, List<? extends Future<?>> inFlight) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            inFlight.forEach(f -> f.cancel(true));
+            throw new RuntimeException("Interrupted while enumerating slices.", e);
+        } catch (ExecutionException e) {
+            inFlight.forEach(f -> f.cancel(true));
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * A half-open range of dates, {@code [from, to)}
+     */
+    public static class Slice {
+
+        private final long from;
+
+        private final long to;
+
+        private Slice(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * The start of the slice, inclusive.
+         *
+         * @return the start of the slice
+         */
+        public DateTime getFrom() {
+            return new DateTime(from, DateTimeZone.UTC);
+        }
+
+        /**
+         * The end of the slice, exclusive.
+         *
+         * @return the end of the slice
+         */
+        public DateTime getTo() {
+            return new DateTime(to, DateTimeZone.UTC);
+        }
+
+        private long width() {
+            return to - from;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getFrom() + ", " + getTo() + ")";
+        }
+    }
+
+    /**
+     * The resources of a slice, or {@code null} resources if the slice should be split
+     */
+    private static class Result<T> {
+
+        private final Slice slice;
+
+        private final List<T> resources;
+
+        private Result(Slice slice, List<T> resources) {
+            this.slice = slice;
+            this.resources = resources;
+        }
+    }
+
+}
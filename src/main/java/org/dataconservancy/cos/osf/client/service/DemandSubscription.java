@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscription which retrieves items in chunks (e.g. a page of resources), retrieving the next chunk only when the
+ * subscriber has requested more items than remain of the previous one.  At most one chunk is held at a time, however
+ * slowly the subscriber requests items.
+ * <p>
+ * Chunks are retrieved, and signals delivered, on an executor (by default a shared pool of at most {@link
+ * #DEFAULT_THREADS} daemon threads), so that neither {@link #request(long)} nor {@code subscribe} blocks the caller.  A
+ * drain loop guarded by a work-in-progress counter keeps signals serial, and allows a subscriber to request more items
+ * from within {@code onSubscribe} and {@code onNext}; the counter is held while {@code onSubscribe} runs, so no other
+ * signal is delivered until it returns.
+ * </p>
+ *
+ * @param <T> the type of the items
+ */
+abstract class DemandSubscription<T> implements Flow.Subscription {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DemandSubscription.class);
+
+    /**
+     * Maximum number of threads of the shared pool used by subscriptions which are not supplied an executor
+     */
+    static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Retrieves chunks and delivers signals for subscriptions which are not supplied an executor; idle threads exit
+     */
+    static final Executor DEFAULT_EXECUTOR = newExecutor();
+
+    private final Flow.Subscriber<? super T> subscriber;
+
+    private final Executor executor;
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * Items of the current chunk not yet delivered; only accessed by the drain loop
+     */
+    private final Deque<T> buffer = new ArrayDeque<>();
+
+    private volatile boolean cancelled;
+
+    private volatile Throwable invalidRequest;
+
+    private boolean done;
+
+    DemandSubscription(Flow.Subscriber<? super T> subscriber) {
+        this(subscriber, DEFAULT_EXECUTOR);
+    }
+
+    DemandSubscription(Flow.Subscriber<? super T> subscriber, Executor executor) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must not be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        this.subscriber = subscriber;
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the next chunk of items.  Invoked by one thread at a time, only when every item of the previous chunk
+     * has been delivered and more are requested.
+     *
+     * @param demand the number of items requested and not yet delivered, at least one
+     * @return the next items, possibly empty, or {@code null} if there are no more items
+     */
+    abstract List<T> fetch(long demand);
+
+    /**
+     * Invoked once when the subscription is cancelled, e.g. to cancel a request in flight.
+     */
+    void onCancel() {
+        // nothing in flight by default
+    }
+
+    /**
+     * Delivers {@code onSubscribe} to the subscriber.  Items requested from within {@code onSubscribe} are delivered
+     * only after it returns.
+     */
+    void start() {
+        wip.getAndIncrement();
+        subscriber.onSubscribe(this);
+        if (wip.decrementAndGet() != 0) {
+            // requested during onSubscribe
+            executor.execute(this::drain);
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            invalidRequest = new IllegalArgumentException("Requested " + n + " items; requests must be positive.");
+        } else {
+            requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        }
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            onCancel();
+        }
+    }
+
+    /**
+     * Whether the subscription has been cancelled.
+     *
+     * @return {@code true} if cancelled
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        do {
+            while (!cancelled && !done) {
+                if (invalidRequest != null) {
+                    terminate(invalidRequest);
+                    break;
+                }
+                long demand = requested.get();
+                if (demand == 0) {
+                    break;
+                }
+
+                if (buffer.isEmpty()) {
+                    List<T> chunk;
+                    try {
+                        chunk = fetch(demand);
+                    } catch (RuntimeException e) {
+                        terminate(e);
+                        break;
+                    }
+                    if (chunk == null) {
+                        terminate(null);
+                        break;
+                    }
+                    buffer.addAll(chunk);
+                    continue;
+                }
+
+                long emitted = 0;
+                while (emitted < demand && !buffer.isEmpty() && !cancelled) {
+                    subscriber.onNext(buffer.poll());
+                    emitted++;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+            }
+            if (cancelled) {
+                buffer.clear();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void terminate(Throwable failure) {
+        done = true;
+        buffer.clear();
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (failure == null) {
+            subscriber.onComplete();
+        } else {
+            LOG.debug("Publisher failed: {}", failure.getMessage());
+            subscriber.onError(failure);
+        }
+    }
+
+    private static Executor newExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("osf-publisher"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
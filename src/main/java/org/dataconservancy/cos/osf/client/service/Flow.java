@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+/**
+ * The interfaces of a reactive stream with backpressure, used by {@link PagePublisher} and
+ * {@link MultiGet#publishNodes(java.util.Collection)}.  They have the same names, methods and contracts as
+ * {@code java.util.concurrent.Flow} of Java 9 and the Reactive Streams specification
+ * ({@code org.reactivestreams}), which this library cannot depend on while it targets Java 8.  A publisher may be
+ * connected to either with a trivial adapter which forwards each method.
+ * <p>
+ * A {@link Subscriber} receives {@link Subscriber#onNext(Object) items} only as fast as it {@link
+ * Subscription#request(long) requests} them, and the publishers of this package retrieve pages only as fast as items
+ * are requested.
+ * </p>
+ */
+public final class Flow {
+
+    private Flow() {
+        // interfaces only
+    }
+
+    /**
+     * A producer of items, received by subscribers as they are requested.
+     *
+     * @param <T> the type of the items
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        /**
+         * Adds the subscriber, which receives {@link Subscriber#onSubscribe(Subscription)} followed, as items are
+         * requested, by items and a terminal signal.
+         *
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items.  Signals are delivered one at a time, never concurrently.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Invoked before any other signal; no items are received until they are requested from the subscription.
+         *
+         * @param subscription the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with each requested item.
+         *
+         * @param item the item
+         */
+        void onNext(T item);
+
+        /**
+         * Invoked when the publisher fails; no further signals are received.
+         *
+         * @param throwable the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked when every item has been received; no further signals are received.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher and a subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds {@code n} to the number of items the subscriber is ready to receive.
+         *
+         * @param n the number of additional items, which must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items, which may not happen immediately.
+         */
+        void cancel();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A compact, immutable batch of resource identifiers.  The identifiers are held as one array of bytes and one array
+ * of offsets rather than as {@code String} objects: a five character OSF GUID occupies nine bytes rather than the
+ * fifty or so bytes of a {@code String}.  Identifiers are only decoded to {@code String}s when requested.
+ * <p>
+ * Identifiers are expected to be ASCII, as OSF GUIDs are; other identifiers are held as UTF-8.
+ * </p>
+ */
+public final class IdBatch {
+
+    private final byte[] bytes;
+
+    /**
+     * The offset of each identifier in {@code bytes}, followed by the length of {@code bytes}
+     */
+    private final int[] offsets;
+
+    private IdBatch(byte[] bytes, int[] offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * The number of identifiers in the batch.
+     *
+     * @return the number of identifiers
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Answers the identifier at the supplied index.
+     *
+     * @param index the index of the identifier
+     * @return the identifier
+     * @throws IndexOutOfBoundsException if the index is not less than {@link #size()}
+     */
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for a batch of " + size());
+        }
+        return new String(bytes, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Supplies each identifier, in order, to {@code consumer}.
+     *
+     * @param consumer accepts each identifier
+     */
+    public void forEach(Consumer<String> consumer) {
+        for (int i = 0; i < size(); i++) {
+            consumer.accept(get(i));
+        }
+    }
+
+    /**
+     * Answers a read-only view of the batch as a list, decoding identifiers as they are accessed.
+     *
+     * @return the identifiers
+     */
+    public List<String> asList() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return IdBatch.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return IdBatch.this.size();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return asList().toString();
+    }
+
+    /**
+     * Accumulates identifiers into a batch
+     */
+    static class Builder {
+
+        private byte[] bytes;
+
+        private int[] offsets;
+
+        private int size;
+
+        Builder(int expectedSize) {
+            this.bytes = new byte[Math.max(16, expectedSize * 5)];
+            this.offsets = new int[Math.max(1, expectedSize) + 1];
+        }
+
+        Builder add(String id) {
+            byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+            int offset = offsets[size];
+            if (offset + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, offset + encoded.length));
+            }
+            if (size + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+            offsets[++size] = offset + encoded.length;
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        IdBatch build() {
+            return new IdBatch(Arrays.copyOf(bytes, offsets[size]), Arrays.copyOf(offsets, size + 1));
+        }
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.squareup.okhttp.ResponseBody;
+import org.dataconservancy.cos.osf.client.model.NodeId;
+import org.dataconservancy.cos.osf.client.model.RegistrationId;
+import org.dataconservancy.cos.osf.client.model.UserId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates the identifiers of every resource of a list endpoint, without deserializing the resources.  Each page is
+ * requested with the maximum page size and a sparse fieldset of a single small attribute, retrieved as a raw response
+ * body through {@link OsfService#stream(String)}, and read with a streaming JSON parser which keeps only
+ * {@code data[].id} and {@code links.next}.  No {@code ResourceConverter}, model objects or relationship resolution
+ * are involved, and the identifiers of each page are supplied as a compact {@link IdBatch}:
+ * <pre>
+ *     IdEnumerator enumerator = new IdEnumerator(osfService);
+ *     long count = enumerator.registrationIds(null, batch -&gt; batch.forEach(ids::add));
+ * </pre>
+ * <p>
+ * Heap use is bounded by a single page of identifiers, regardless of the size of the collection.  Pages are
+ * retrieved one at a time; a large collection may be divided among several enumerators using filters, e.g.
+ * {@code filter[date_created]} ranges.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class IdEnumerator {
+
+    /**
+     * The largest page size accepted by the OSF list endpoints
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Opens the response body of the page at the supplied url
+     */
+    @FunctionalInterface
+    interface PageSource {
+        InputStream open(String url) throws IOException;
+    }
+
+    private final PageSource pages;
+
+    private final AtomicLong pageCount = new AtomicLong();
+
+    /**
+     * Constructs an enumerator which retrieves pages using {@link OsfService#stream(String)}.
+     *
+     * @param osfService the service used to retrieve pages
+     */
+    public IdEnumerator(OsfService osfService) {
+        this(open(osfService));
+    }
+
+    /**
+     * Constructs an enumerator which retrieves pages from the supplied source.
+     *
+     * @param pages opens the response body of a page url
+     */
+    IdEnumerator(PageSource pages) {
+        if (pages == null) {
+            throw new IllegalArgumentException("Page source must not be null.");
+        }
+        this.pages = pages;
+    }
+
+    /**
+     * Enumerates the identifiers of the nodes endpoint.
+     *
+     * @param params additional query parameters, e.g. filters; may be {@code null}
+     * @param consumer accepts the identifiers of each page
+     * @return the number of identifiers enumerated
+     */
+    public long nodeIds(Map<String, String> params, Consumer<IdBatch> consumer) {
+        return enumerate("nodes/", SparseFieldset.of(NodeId.class, "date_modified").toQueryMap(query(params)),
+                consumer);
+    }
+
+    /**
+     * Enumerates the identifiers of the registrations endpoint.
+     *
+     * @param params additional query parameters, e.g. filters; may be {@code null}
+     * @param consumer accepts the identifiers of each page
+     * @return the number of identifiers enumerated
+     */
+    public long registrationIds(Map<String, String> params, Consumer<IdBatch> consumer) {
+        return enumerate("registrations/",
+                SparseFieldset.of(RegistrationId.class, "date_modified").toQueryMap(query(params)), consumer);
+    }
+
+    /**
+     * Enumerates the identifiers of the users endpoint.
+     *
+     * @param params additional query parameters, e.g. filters; may be {@code null}
+     * @param consumer accepts the identifiers of each page
+     * @return the number of identifiers enumerated
+     */
+    public long userIds(Map<String, String> params, Consumer<IdBatch> consumer) {
+        return enumerate("users/", SparseFieldset.of(UserId.class, "family_name").toQueryMap(query(params)),
+                consumer);
+    }
+
+    /**
+     * Enumerates the identifiers of the resources at {@code path}, following {@code links.next} until the last
+     * page.  The supplied parameters are sent as they are, so they should include a sparse fieldset.
+     *
+     * @param path the path of the list endpoint, relative to the OSF API base url, e.g. "{@code nodes/}"
+     * @param params the query parameters of the first page
+     * @param consumer accepts the identifiers of each page
+     * @return the number of identifiers enumerated
+     */
+    public long enumerate(String path, Map<String, String> params, Consumer<IdBatch> consumer) {
+        if (path == null || consumer == null) {
+            throw new IllegalArgumentException("Path and consumer must not be null.");
+        }
+        Map<String, String> query = query(params);
+        query.putIfAbsent("page[size]", String.valueOf(MAX_PAGE_SIZE));
+
+        long count = 0;
+        String url = url(path, query);
+        while (url != null) {
+            IdBatch.Builder batch = new IdBatch.Builder(MAX_PAGE_SIZE);
+            try (InputStream in = pages.open(url)) {
+                url = in == null ? null : parse(in, batch);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to retrieve " + url + ": " + e.getMessage(), e);
+            }
+            pageCount.incrementAndGet();
+            if (batch.size() > 0) {
+                count += batch.size();
+                consumer.accept(batch.build());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The number of pages retrieved.
+     *
+     * @return the number of pages
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Adds the identifier of every resource in the {@code data} array of the document to {@code batch}, skipping
+     * everything else.
+     *
+     * @return the {@code links.next} url of the document, or {@code null}
+     */
+    static String parse(InputStream in, IdBatch.Builder batch) throws IOException {
+        String next = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON-API document.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String id = resourceId(parser);
+                        if (id != null) {
+                            batch.add(id);
+                        }
+                    }
+                } else if ("links".equals(field) && value == JsonToken.START_OBJECT) {
+                    next = next(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Reads the resource object at the parser, answering its {@code id}.
+     */
+    private static String resourceId(JsonParser parser) throws IOException {
+        String id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field) && value == JsonToken.VALUE_STRING) {
+                id = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Reads the links object at the parser, answering its {@code next} url.
+     */
+    private static String next(JsonParser parser) throws IOException {
+        String next = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("next".equals(field) && value == JsonToken.VALUE_STRING) {
+                next = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return next;
+    }
+
+    private static Map<String, String> query(Map<String, String> params) {
+        return params == null ? new TreeMap<>() : new TreeMap<>(params);
+    }
+
+    private static String url(String path, Map<String, String> query) {
+        StringBuilder url = new StringBuilder(path);
+        char separator = path.indexOf('?') < 0 ? '?' : '&';
+        try {
+            for (Map.Entry<String, String> param : query.entrySet()) {
+                url.append(separator).append(URLEncoder.encode(param.getKey(), "UTF-8"))
+                        .append('=').append(URLEncoder.encode(param.getValue(), "UTF-8"));
+                separator = '&';
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return url.toString();
+    }
+
+    private static PageSource open(OsfService osfService) {
+        if (osfService == null) {
+            throw new IllegalArgumentException("OsfService must not be null.");
+        }
+        return url -> {
+            ResponseBody body = Calls.body(osfService.stream(url).execute());
+            return body == null ? null : body.byteStream();
+        };
+    }
+
+}
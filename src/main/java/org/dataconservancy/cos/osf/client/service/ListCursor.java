@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import retrofit.Call;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Iterates over the resources of every page of a list endpoint, keeping its position in a {@link CursorStore} so that
+ * an enumeration interrupted by a restart resumes where it stopped rather than at the first page.  Cursors are opened
+ * using {@link CursorStore#open(String, Map, Function, Function)}.
+ * <p>
+ * The position is saved when a page has been read, when {@link #checkpoint()} is invoked, and when the cursor is
+ * closed.  Resources read after the last save are read again when the cursor is resumed, so a resource is read at
+ * least once; callers needing finer grained progress should {@link #checkpoint()} after processing each resource, or
+ * each batch of resources.  When resumed, the page being read is retrieved again, and the resources already read are
+ * skipped by position; if the page changed in the meantime, resources may be skipped or read twice.
+ * </p>
+ * <p>
+ * A resource returned by {@link #next()} counts as processed once {@link #hasNext()} or {@link #checkpoint()} is next
+ * invoked.  Closing the cursor saves the position of the processed resources only, so a resource whose processing
+ * failed (e.g. by throwing out of a {@code try}-with-resources block) is read again when the cursor is resumed.
+ * </p>
+ * <p>
+ * Instances are not safe for use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the resources
+ */
+public class ListCursor<T> implements Iterator<T>, AutoCloseable {
+
+    private final CursorStore store;
+
+    private final String name;
+
+    private final Map<String, String> params;
+
+    private final Function<Map<String, String>, Call<ResourceList<T>>> first;
+
+    private final Function<String, Call<ResourceList<T>>> next;
+
+    private String pageUrl;
+
+    private int offset;
+
+    private long count;
+
+    private boolean complete;
+
+    private boolean closed;
+
+    /**
+     * Whether the resource last returned by {@code next()} may not have been processed yet
+     */
+    private boolean pending;
+
+    private ResourceList<T> page;
+
+    ListCursor(CursorStore store, CursorStore.Position position,
+               Function<Map<String, String>, Call<ResourceList<T>>> first,
+               Function<String, Call<ResourceList<T>>> next) {
+        this.store = store;
+        this.name = position.getName();
+        this.params = position.getParams();
+        this.pageUrl = position.getPageUrl();
+        this.offset = position.getOffset();
+        this.count = position.getCount();
+        this.complete = position.isComplete();
+        this.first = first;
+        this.next = next;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            throw new IllegalStateException("Cursor " + name + " is closed.");
+        }
+        pending = false;
+        while (!complete) {
+            if (page == null) {
+                page = Calls.execute(pageUrl == null ? first.apply(params) : next.apply(pageUrl));
+                if (page == null) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (offset < page.size()) {
+                return true;
+            }
+            if (page.getNext() == null) {
+                complete = true;
+            } else {
+                pageUrl = page.getNext();
+                offset = 0;
+                page = null;
+            }
+            checkpoint();
+        }
+        return false;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        count++;
+        pending = true;
+        return page.get(offset++);
+    }
+
+    /**
+     * Saves the position of the cursor: the resources read so far will not be read again when the cursor is resumed.
+     */
+    public void checkpoint() {
+        pending = false;
+        store.save(position());
+    }
+
+    /**
+     * Saves the position of the processed resources, and releases the name of the cursor.  The resource last returned
+     * by {@link #next()} is read again when the cursor is resumed, unless {@link #hasNext()} or {@link #checkpoint()}
+     * has been invoked since.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // the resource last returned is on the current page, as next() never advances past the page it reads
+            store.save(pending ?
+                    new CursorStore.Position(name, params, pageUrl, offset - 1, count - 1, complete) : position());
+        } finally {
+            store.release(name);
+        }
+    }
+
+    /**
+     * The name of the cursor.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of resources read since the cursor was first opened, including resources read before it was
+     * resumed.
+     *
+     * @return the number of resources
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Whether every resource has been read.  A complete cursor reads nothing more until it is reset.
+     *
+     * @return {@code true} if the enumeration is complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * The current position of the cursor, which may not have been saved yet.
+     *
+     * @return the position
+     */
+    public CursorStore.Position position() {
+        return new CursorStore.Position(name, params, pageUrl, offset, count, complete);
+    }
+
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.model.User;
+import org.dataconservancy.cos.osf.client.support.BatchingLoader;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.UrlToIdTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieves many nodes, registrations or users by identifier in one operation.  The identifiers are sent in
+ * {@code filter[id]=a,b,c} list requests of up to {@link #DEFAULT_BATCH_SIZE} identifiers each, by a
+ * {@link BatchingLoader} for each type of resource, and the batches are sent concurrently, up to a bounded number at
+ * a time:
+ * <pre>
+ *     MultiGet multiGet = new MultiGet(osfService);
+ *     MultiGet.Result&lt;Node&gt; result = multiGet.nodes(ids);
+ *     result.getResources().forEach((id, node) -&gt; ...);
+ *     result.getErrors().forEach((id, e) -&gt; LOG.warn("Unable to retrieve node {}: {}", id, e.getMessage()));
+ *     multiGet.shutdown();
+ * </pre>
+ * <p>
+ * Identifiers that a list request does not answer (e.g. resources that are not visible to the list endpoint), and the
+ * identifiers of a list request that fails, are retrieved individually using the {@code OsfService} by-id method, so
+ * each identifier is answered as the by-id method would answer it.  A failure is reported against the identifiers it
+ * affects, in {@link Result#getErrors()}, rather than failing the whole operation; identifiers of resources that do
+ * not exist are reported in {@link Result#getMissing()}.  Identifiers may be supplied as OSF API urls, and are
+ * answered by identifier.  Resources are deserialized using the {@link #DEFAULT_PROFILE default profile}, which
+ * follows none of their relationships, unless another profile is supplied.  Operations made concurrently by several
+ * threads may share list requests.  Instances are safe for use by multiple threads, and should be
+ * {@link #shutdown() shut down} when no longer needed.
+ * </p>
+ * <p>
+ * The {@code publish} methods answer the same results as a {@link Flow.Publisher}, one {@link Result} for each batch,
+ * retrieving batches only as the subscriber requests results.  At most {@code concurrency} batches are retrieved for
+ * a request, so a slow subscriber holds back retrieval rather than accumulating resources.
+ * </p>
+ */
+public class MultiGet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiGet.class);
+
+    /**
+     * Default number of requests sent concurrently
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Default number of identifiers in a list request, which is also the largest page size answered by the OSF
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default profile used to deserialize retrieved resources, which follows no relationships
+     */
+    public static final ResolutionProfile DEFAULT_PROFILE = ResolutionProfile.none();
+
+    /**
+     * Time the loaders wait for more lookups before sending a partial batch.  Every operation flushes its lookups once
+     * it has made them all, so the window only applies if an operation is interrupted.
+     */
+    private static final long WINDOW_SECONDS = 1;
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    private final int batchSize;
+
+    private final int concurrency;
+
+    private final ExecutorService executor;
+
+    /**
+     * Every loader created by this multi-get, shut down with it
+     */
+    private final List<BatchingLoader<?>> loaders = new CopyOnWriteArrayList<>();
+
+    private final BatchingLoader<Node> nodes;
+
+    private final BatchingLoader<Registration> registrations;
+
+    private final BatchingLoader<User> users;
+
+    /**
+     * Constructs a multi-get sending up to {@link #DEFAULT_CONCURRENCY} requests concurrently.
+     *
+     * @param osfService the service used to retrieve resources
+     */
+    public MultiGet(OsfService osfService) {
+        this(osfService, DEFAULT_CONCURRENCY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a multi-get sending up to {@code concurrency} requests concurrently.
+     *
+     * @param osfService the service used to retrieve resources
+     * @param concurrency the maximum number of concurrent requests
+     * @param batchSize the number of identifiers in a list request, at most {@link #DEFAULT_BATCH_SIZE}
+     */
+    public MultiGet(OsfService osfService, int concurrency, int batchSize) {
+        this(osfService, concurrency, batchSize, DEFAULT_PROFILE);
+    }
+
+    /**
+     * Constructs a multi-get sending up to {@code concurrency} requests concurrently, which deserializes the retrieved
+     * resources using {@code profile}.
+     *
+     * @param osfService the service used to retrieve resources
+     * @param concurrency the maximum number of concurrent requests
+     * @param batchSize the number of identifiers in a list request, at most {@link #DEFAULT_BATCH_SIZE}
+     * @param profile the relationships to resolve for each retrieved resource, applied to list and by-id requests
+     */
+    public MultiGet(OsfService osfService, int concurrency, int batchSize, ResolutionProfile profile) {
+        if (osfService == null || profile == null) {
+            throw new IllegalArgumentException("OsfService and ResolutionProfile must not be null.");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        if (batchSize < 1 || batchSize > DEFAULT_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + DEFAULT_BATCH_SIZE);
+        }
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-multiget"));
+        this.nodes = loader(
+                batch -> Calls.execute(profile.attach(osfService.nodeList(BatchedLookups.filterById(batch)))),
+                id -> Calls.execute(profile.attach(osfService.node(id))), Node::getId);
+        this.registrations = loader(
+                batch -> Calls.execute(profile.attach(osfService.registrationList(BatchedLookups.filterById(batch)))),
+                id -> Calls.execute(profile.attach(osfService.registration(id))), Registration::getId);
+        this.users = loader(
+                batch -> Calls.execute(profile.attach(osfService.userList(BatchedLookups.filterById(batch)))),
+                id -> Calls.execute(profile.attach(osfService.user(id))), User::getId);
+    }
+
+    /**
+     * Retrieves the nodes with the supplied identifiers.
+     *
+     * @param ids node identifiers or urls
+     * @return the nodes, missing identifiers and errors
+     */
+    public Result<Node> nodes(Collection<String> ids) {
+        return get(ids, nodes);
+    }
+
+    /**
+     * Retrieves the registrations with the supplied identifiers.
+     *
+     * @param ids registration identifiers or urls
+     * @return the registrations, missing identifiers and errors
+     */
+    public Result<Registration> registrations(Collection<String> ids) {
+        return get(ids, registrations);
+    }
+
+    /**
+     * Retrieves the users with the supplied identifiers.
+     *
+     * @param ids user identifiers or urls
+     * @return the users, missing identifiers and errors
+     */
+    public Result<User> users(Collection<String> ids) {
+        return get(ids, users);
+    }
+
+    /**
+     * Answers a publisher of the nodes with the supplied identifiers, retrieved as they are requested.
+     *
+     * @param ids node identifiers or urls
+     * @return the publisher of one result for each batch of identifiers
+     */
+    public Flow.Publisher<Result<Node>> publishNodes(Collection<String> ids) {
+        return publish(ids, nodes);
+    }
+
+    /**
+     * Answers a publisher of the registrations with the supplied identifiers, retrieved as they are requested.
+     *
+     * @param ids registration identifiers or urls
+     * @return the publisher of one result for each batch of identifiers
+     */
+    public Flow.Publisher<Result<Registration>> publishRegistrations(Collection<String> ids) {
+        return publish(ids, registrations);
+    }
+
+    /**
+     * Answers a publisher of the users with the supplied identifiers, retrieved as they are requested.
+     *
+     * @param ids user identifiers or urls
+     * @return the publisher of one result for each batch of identifiers
+     */
+    public Flow.Publisher<Result<User>> publishUsers(Collection<String> ids) {
+        return publish(ids, users);
+    }
+
+    /**
+     * The number of requests sent, list and by-id.
+     *
+     * @return the number of requests
+     */
+    public long getRequestCount() {
+        return loaders.stream().mapToLong(loader -> loader.getBatchCount() + loader.getFallbackCount()).sum();
+    }
+
+    /**
+     * Stops the threads used to send requests.
+     */
+    public void shutdown() {
+        loaders.forEach(BatchingLoader::shutdown);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers a loader sending list requests of up to {@code batchSize} identifiers on this multi-get's threads.  The
+     * identifiers of a list request that fails are retrieved individually, as are identifiers it does not answer.
+     *
+     * @param batchLookup answers the resources with the supplied identifiers that are visible to the list endpoint
+     * @param singleLookup answers the resource with the supplied identifier, or {@code null} if it does not exist
+     * @param identifier answers the identifier of a resource
+     * @param <T> the type of the resources
+     * @return the loader
+     */
+    <T> BatchingLoader<T> loader(Function<List<String>, List<T>> batchLookup, Function<String, T> singleLookup,
+                                 Function<T, String> identifier) {
+        Function<List<String>, List<T>> orIndividually = batch -> {
+            try {
+                return batchLookup.apply(batch);
+            } catch (RuntimeException e) {
+                LOG.debug("List request for {} identifiers failed, retrieving them individually: {}", batch.size(),
+                        e.getMessage());
+                return Collections.emptyList();
+            }
+        };
+        BatchingLoader<T> loader = new BatchingLoader<>(orIndividually, identifier, singleLookup, batchSize,
+                WINDOW_SECONDS, TimeUnit.SECONDS, executor);
+        loaders.add(loader);
+        return loader;
+    }
+
+    /**
+     * Retrieves the resources with the supplied identifiers: first in batches, then individually for the identifiers
+     * the batches did not answer.
+     *
+     * @param ids the identifiers or urls
+     * @param loader the loader of the resources
+     * @param <T> the type of the resources
+     * @return the result
+     */
+    <T> Result<T> get(Collection<String> ids, BatchingLoader<T> loader) {
+        if (ids == null) {
+            throw new IllegalArgumentException("Identifiers must not be null.");
+        }
+        return retrieve(unique(ids), loader);
+    }
+
+    /**
+     * Answers a publisher of one result for each batch of identifiers.  Each subscriber's request for {@code n}
+     * results retrieves the next {@code min(n, concurrency)} batches, as {@link #get(Collection, BatchingLoader)}
+     * would.
+     *
+     * @param ids the identifiers or urls
+     * @param loader the loader of the resources
+     * @param <T> the type of the resources
+     * @return the publisher
+     */
+    <T> Flow.Publisher<Result<T>> publish(Collection<String> ids, BatchingLoader<T> loader) {
+        if (ids == null) {
+            throw new IllegalArgumentException("Identifiers must not be null.");
+        }
+        List<String> unique = unique(ids);
+
+        return subscriber -> new DemandSubscription<Result<T>>(subscriber) {
+
+            private int offset;
+
+            @Override
+            List<Result<T>> fetch(long demand) {
+                if (offset >= unique.size()) {
+                    return null;
+                }
+                int end = (int) Math.min(unique.size(), offset + Math.min(demand, concurrency) * batchSize);
+                List<String> chunk = unique.subList(offset, end);
+                offset = end;
+
+                Result<T> combined = retrieve(chunk, loader);
+                List<Result<T>> results = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i += batchSize) {
+                    results.add(combined.slice(chunk.subList(i, Math.min(chunk.size(), i + batchSize))));
+                }
+                return results;
+            }
+        }.start();
+    }
+
+    private static <T> Result<T> retrieve(List<String> unique, BatchingLoader<T> loader) {
+        Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        unique.forEach(id -> futures.put(id, loader.load(id)));
+        loader.flush();
+
+        Result<T> result = new Result<>();
+        for (Map.Entry<String, CompletableFuture<T>> future : futures.entrySet()) {
+            try {
+                T resource = future.getValue().get();
+                if (resource == null) {
+                    result.missing.add(future.getKey());
+                } else {
+                    result.resources.put(future.getKey(), resource);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while retrieving resources.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                result.errors.put(future.getKey(), cause instanceof RuntimeException ? (RuntimeException) cause :
+                        new RuntimeException(cause.getMessage(), cause));
+            }
+        }
+        return result;
+    }
+
+    private static List<String> unique(Collection<String> ids) {
+        return new ArrayList<>(ids.stream().map(URL_TO_ID::apply)
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+    }
+
+    /**
+     * The outcome of a multi-get: the resources retrieved, the identifiers of resources that do not exist, and the
+     * identifiers that could not be retrieved
+     *
+     * @param <T> the type of the resources
+     */
+    public static class Result<T> {
+
+        private final Map<String, T> resources = new LinkedHashMap<>();
+
+        private final Set<String> missing = new LinkedHashSet<>();
+
+        private final Map<String, RuntimeException> errors = new LinkedHashMap<>();
+
+        private Result() {
+        }
+
+        /**
+         * Answers the part of this result for the supplied identifiers.
+         */
+        private Result<T> slice(List<String> ids) {
+            Result<T> slice = new Result<>();
+            ids.forEach(id -> {
+                if (resources.containsKey(id)) {
+                    slice.resources.put(id, resources.get(id));
+                }
+                if (missing.contains(id)) {
+                    slice.missing.add(id);
+                }
+                if (errors.containsKey(id)) {
+                    slice.errors.put(id, errors.get(id));
+                }
+            });
+            return slice;
+        }
+
+        /**
+         * The resources retrieved, keyed by identifier, in the order the identifiers were supplied.
+         *
+         * @return the resources
+         */
+        public Map<String, T> getResources() {
+            return Collections.unmodifiableMap(resources);
+        }
+
+        /**
+         * Answers the retrieved resource with the supplied identifier.
+         *
+         * @param id the identifier or url
+         * @return the resource, or {@code null} if it was not retrieved
+         */
+        public T get(String id) {
+            return resources.get(URL_TO_ID.apply(id));
+        }
+
+        /**
+         * The identifiers of resources that do not exist, or are not visible.
+         *
+         * @return the missing identifiers
+         */
+        public Set<String> getMissing() {
+            return Collections.unmodifiableSet(missing);
+        }
+
+        /**
+         * The identifiers that could not be retrieved, with the cause of each failure.
+         *
+         * @return the errors, keyed by identifier
+         */
+        public Map<String, RuntimeException> getErrors() {
+            return Collections.unmodifiableMap(errors);
+        }
+
+        /**
+         * Whether every identifier was answered, with a resource or as missing.
+         *
+         * @return {@code true} if there were no errors
+         */
+        public boolean isComplete() {
+            return errors.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Result{resources=" + resources.size() + ", missing=" + missing.size() + ", errors=" +
+                    errors.size() + "}";
+        }
+    }
+
+}
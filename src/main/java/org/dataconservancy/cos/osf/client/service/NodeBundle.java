@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Comment;
+import org.dataconservancy.cos.osf.client.model.Contributor;
+import org.dataconservancy.cos.osf.client.model.Event;
+import org.dataconservancy.cos.osf.client.model.File;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Wiki;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node together with everything the archival workflow needs from it: its files, contributors, wikis, comments and
+ * logs.  Answered by {@link NodeBundleFetcher}, which retrieves the parts concurrently.  The node itself is retrieved
+ * without its relationships; they are supplied by the bundle instead.  Instances are immutable.
+ */
+public class NodeBundle {
+
+    /**
+     * Name of the node part of a bundle, as used by {@link #getTimings()}
+     */
+    public static final String NODE = "node";
+
+    /**
+     * Name of the files part of a bundle
+     */
+    public static final String FILES = "files";
+
+    /**
+     * Name of the contributors part of a bundle
+     */
+    public static final String CONTRIBUTORS = "contributors";
+
+    /**
+     * Name of the wikis part of a bundle
+     */
+    public static final String WIKIS = "wikis";
+
+    /**
+     * Name of the comments part of a bundle
+     */
+    public static final String COMMENTS = "comments";
+
+    /**
+     * Name of the logs part of a bundle
+     */
+    public static final String LOGS = "logs";
+
+    private final Node node;
+
+    private final List<File> files;
+
+    private final List<Contributor> contributors;
+
+    private final List<Wiki> wikis;
+
+    private final List<Comment> comments;
+
+    private final List<Event> logs;
+
+    private final Map<String, Long> timings;
+
+    private final long elapsedMillis;
+
+    NodeBundle(Node node, List<File> files, List<Contributor> contributors, List<Wiki> wikis, List<Comment> comments,
+               List<Event> logs, Map<String, Long> timings, long elapsedMillis) {
+        this.node = node;
+        this.files = unmodifiable(files);
+        this.contributors = unmodifiable(contributors);
+        this.wikis = unmodifiable(wikis);
+        this.comments = unmodifiable(comments);
+        this.logs = unmodifiable(logs);
+        this.timings = Collections.unmodifiableMap(timings);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * The node, without its relationships.
+     *
+     * @return the node
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    /**
+     * The files of the node.
+     *
+     * @return the files, empty if there are none
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * The contributors of the node.
+     *
+     * @return the contributors, empty if there are none
+     */
+    public List<Contributor> getContributors() {
+        return contributors;
+    }
+
+    /**
+     * The wikis of the node.
+     *
+     * @return the wikis, empty if there are none
+     */
+    public List<Wiki> getWikis() {
+        return wikis;
+    }
+
+    /**
+     * Every page of the comments on the node.
+     *
+     * @return the comments, empty if there are none
+     */
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    /**
+     * Every page of the logs of the node.
+     *
+     * @return the logs, empty if there are none
+     */
+    public List<Event> getLogs() {
+        return logs;
+    }
+
+    /**
+     * The time taken to retrieve each part of the bundle.
+     *
+     * @return milliseconds per part, keyed by part name, e.g. {@link #FILES}
+     */
+    public Map<String, Long> getTimings() {
+        return timings;
+    }
+
+    /**
+     * The time taken to retrieve the whole bundle.
+     *
+     * @return the elapsed time, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeBundle{" +
+                "node=" + (node == null ? null : node.getId()) +
+                ", files=" + files.size() +
+                ", contributors=" + contributors.size() +
+                ", wikis=" + wikis.size() +
+                ", comments=" + comments.size() +
+                ", logs=" + logs.size() +
+                ", elapsedMillis=" + elapsedMillis +
+                ", timings=" + timings +
+                '}';
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.model.Comment;
+import org.dataconservancy.cos.osf.client.model.Contributor;
+import org.dataconservancy.cos.osf.client.model.Event;
+import org.dataconservancy.cos.osf.client.model.File;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Wiki;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit.Call;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Retrieves a {@link NodeBundle}: a node with its files, contributors, wikis, comments and logs.  The parts are
+ * retrieved concurrently, under a single deadline:
+ * <pre>
+ *     NodeBundleFetcher fetcher = new NodeBundleFetcher(osfService);
+ *     NodeBundle bundle = fetcher.fetch("v8x57", 30, TimeUnit.SECONDS);
+ *     LOG.debug("Retrieved {} in {} ms: {}", bundle.getNode().getId(), bundle.getElapsedMillis(), bundle.getTimings());
+ * </pre>
+ * <p>
+ * If any part fails, or the deadline passes, the requests of the outstanding parts are cancelled and a
+ * {@code RuntimeException} is thrown; no partial bundle is answered.  Cancelling a request stops its HTTP exchange and
+ * any further pages, but relationships already being retrieved by the JSON-API converter for that request complete in
+ * the background.
+ * </p>
+ * <p>
+ * Every part other than the node is retrieved page by page from its relationship url, so the node document is
+ * requested once per bundle.  No relationships of the retrieved resources are resolved, except the files within each
+ * storage provider of the node.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class NodeBundleFetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeBundleFetcher.class);
+
+    /**
+     * The number of parts in a bundle, and so the number of threads needed to retrieve one bundle at a time
+     */
+    static final int PARTS = 6;
+
+    private final OsfService osfService;
+
+    private final ExecutorService executor;
+
+    /**
+     * Retrieves a part of a bundle.
+     *
+     * @param <T> the type of the part
+     */
+    @FunctionalInterface
+    interface Part<T> {
+
+        /**
+         * @param scope the scope which must execute the part's calls, so that they can be cancelled
+         * @return the part
+         * @throws IOException if a call fails
+         */
+        T fetch(Scope scope) throws IOException;
+
+    }
+
+    /**
+     * Constructs a fetcher with its own threads, enough to retrieve one bundle at a time without queuing.
+     *
+     * @param osfService the service used to retrieve the bundle
+     */
+    public NodeBundleFetcher(OsfService osfService) {
+        this(osfService, newExecutor());
+    }
+
+    /**
+     * Constructs a fetcher which retrieves the parts of each bundle using the supplied executor.
+     *
+     * @param osfService the service used to retrieve the bundle
+     * @param executor the executor, which should have at least as many threads as a bundle has parts
+     */
+    public NodeBundleFetcher(OsfService osfService, ExecutorService executor) {
+        if (osfService == null || executor == null) {
+            throw new IllegalArgumentException("OsfService and ExecutorService must not be null.");
+        }
+        this.osfService = osfService;
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the bundle of the node with the supplied identifier.
+     *
+     * @param nodeId the node identifier
+     * @param timeout the deadline for the whole bundle, measured from now
+     * @param unit the unit of {@code timeout}
+     * @return the bundle
+     * @throws RuntimeException if any part fails, or the deadline passes
+     */
+    @SuppressWarnings("unchecked")
+    public NodeBundle fetch(String nodeId, long timeout, TimeUnit unit) {
+        if (nodeId == null) {
+            throw new IllegalArgumentException("Node identifier must not be null.");
+        }
+
+        Map<String, Part<?>> parts = new LinkedHashMap<>();
+        parts.put(NodeBundle.NODE, scope -> scope.execute(
+                ResolutionProfile.none().attach(osfService.node(nodeId))));
+        parts.put(NodeBundle.FILES, scope -> allPages(scope, relationshipUrl(nodeId, NodeBundle.FILES),
+                osfService::paginatedFiles, ResolutionProfile.none().include(NodeBundle.FILES)));
+        parts.put(NodeBundle.CONTRIBUTORS, scope -> allPages(scope, relationshipUrl(nodeId, NodeBundle.CONTRIBUTORS),
+                osfService::paginatedContributors, ResolutionProfile.none()));
+        parts.put(NodeBundle.WIKIS, scope -> allPages(scope, relationshipUrl(nodeId, NodeBundle.WIKIS),
+                osfService::paginatedWikis, ResolutionProfile.none()));
+        parts.put(NodeBundle.COMMENTS, scope -> allPages(scope, relationshipUrl(nodeId, NodeBundle.COMMENTS),
+                osfService::getComments, ResolutionProfile.none()));
+        parts.put(NodeBundle.LOGS, scope -> allPages(scope, relationshipUrl(nodeId, NodeBundle.LOGS),
+                osfService::getLogs, ResolutionProfile.none()));
+
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        Map<String, Object> results = fetchAll(parts, timeout, unit, timings);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Node node = (Node) results.get(NodeBundle.NODE);
+        if (node == null) {
+            throw new RuntimeException("Node " + nodeId + " does not exist.");
+        }
+
+        Map<String, Long> orderedTimings = new LinkedHashMap<>();
+        parts.keySet().forEach(part -> orderedTimings.put(part, timings.get(part)));
+        return new NodeBundle(node, (List<File>) results.get(NodeBundle.FILES),
+                (List<Contributor>) results.get(NodeBundle.CONTRIBUTORS), (List<Wiki>) results.get(NodeBundle.WIKIS),
+                (List<Comment>) results.get(NodeBundle.COMMENTS), (List<Event>) results.get(NodeBundle.LOGS),
+                orderedTimings, elapsed);
+    }
+
+    /**
+     * Stops the threads used to retrieve bundles.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Retrieves the supplied parts concurrently, within a single cancellation scope.
+     *
+     * @param parts the parts, keyed by name
+     * @param timeout the deadline for every part, measured from now
+     * @param unit the unit of {@code timeout}
+     * @param timings receives the time taken by each part that completes, in milliseconds
+     * @return the parts, keyed by name
+     * @throws RuntimeException if any part fails, or the deadline passes
+     */
+    Map<String, Object> fetchAll(Map<String, Part<?>> parts, long timeout, TimeUnit unit, Map<String, Long> timings) {
+        Scope scope = new Scope();
+        Map<String, Object> results = new ConcurrentHashMap<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(parts.size());
+        List<Future<?>> futures = new ArrayList<>();
+
+        parts.forEach((name, part) -> futures.add(executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                Object result = part.fetch(scope);
+                timings.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (result != null) {
+                    results.put(name, result);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(new RuntimeException("Unable to retrieve " + name + ": " +
+                        e.getMessage(), e));
+            }
+        })));
+
+        try {
+            done.get(timeout, unit);
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while retrieving " + parts.keySet(), e);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timed out after " + unit.toMillis(timeout) + " ms; completed parts: " +
+                    timings.keySet(), e);
+        } finally {
+            if (!done.isDone() || done.isCompletedExceptionally()) {
+                LOG.debug("Cancelling outstanding parts of {}", parts.keySet());
+                scope.cancel();
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+    }
+
+    /**
+     * Answers the url of the named relationship of a node, relative to the base url of the OSF API.
+     */
+    private static String relationshipUrl(String nodeId, String relationship) {
+        return "nodes/" + nodeId + "/" + relationship + "/";
+    }
+
+    /**
+     * Retrieves every page of a paginated list, resolving the relationships of its resources selected by
+     * {@code profile}.
+     */
+    private static <T> List<T> allPages(Scope scope, String url, Function<String, Call<ResourceList<T>>> call,
+                                        ResolutionProfile profile)
+            throws IOException {
+        List<T> result = new ArrayList<>();
+        ResourceList<T> page = scope.execute(profile.attach(call.apply(url)));
+        while (page != null) {
+            result.addAll(page);
+            page = page.getNext() == null ? null : scope.execute(profile.attach(call.apply(page.getNext())));
+        }
+        return result;
+    }
+
+    private static ExecutorService newExecutor() {
+        return Executors.newFixedThreadPool(PARTS, new DaemonThreadFactory("osf-bundle"));
+    }
+
+    /**
+     * Executes calls so that they can be cancelled together.  Once cancelled, calls in flight are cancelled, and
+     * further calls fail immediately.
+     */
+    static class Scope {
+
+        private final List<Call<?>> calls = new CopyOnWriteArrayList<>();
+
+        private volatile boolean cancelled;
+
+        /**
+         * Executes a call, unless the scope has been cancelled.
+         *
+         * @param call the call
+         * @param <T> the type of the response body
+         * @return the response body, or {@code null} if the resource does not exist
+         * @throws IOException if the call fails, or the scope has been cancelled
+         */
+        <T> T execute(Call<T> call) throws IOException {
+            calls.add(call);
+            try {
+                if (cancelled) {
+                    throw new IOException("Canceled");
+                }
+                return Calls.body(call.execute());
+            } finally {
+                calls.remove(call);
+            }
+        }
+
+        /**
+         * Cancels the calls in flight, and every later call.
+         */
+        void cancel() {
+            cancelled = true;
+            calls.forEach(Call::cancel);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+}
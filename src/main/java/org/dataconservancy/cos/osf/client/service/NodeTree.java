@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A project and its components, indexed by node identifier.  Answered by {@link TreeFetcher}.  The nodes are held in
+ * a flat map rather than linked through {@code Node.children}, so any node, its parent, its children and its depth
+ * may be looked up directly.  Instances are not modified after they are answered by {@code TreeFetcher}.
+ */
+public class NodeTree {
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+    private final Map<String, String> parents = new HashMap<>();
+
+    private final Map<String, List<Node>> children = new HashMap<>();
+
+    private final Map<String, Integer> depths = new HashMap<>();
+
+    private final List<List<Node>> levels = new ArrayList<>();
+
+    NodeTree(Node root) {
+        if (root == null || root.getId() == null) {
+            throw new IllegalArgumentException("Root node and its identifier must not be null.");
+        }
+        nodes.put(root.getId(), root);
+        depths.put(root.getId(), 0);
+        levels.add(Collections.singletonList(root));
+    }
+
+    /**
+     * Adds a node to the tree.
+     *
+     * @param node the node
+     * @param parentId the identifier of its parent, which must already be in the tree
+     * @param depth the depth of the node, one greater than the depth of its parent
+     * @return false if the node was already in the tree
+     */
+    boolean add(Node node, String parentId, int depth) {
+        if (nodes.containsKey(node.getId())) {
+            return false;
+        }
+        nodes.put(node.getId(), node);
+        parents.put(node.getId(), parentId);
+        depths.put(node.getId(), depth);
+        children.computeIfAbsent(parentId, id -> new ArrayList<>()).add(node);
+        while (levels.size() <= depth) {
+            levels.add(new ArrayList<>());
+        }
+        levels.get(depth).add(node);
+        return true;
+    }
+
+    /**
+     * The node at the top of the tree.
+     *
+     * @return the root node
+     */
+    public Node getRoot() {
+        return levels.get(0).get(0);
+    }
+
+    /**
+     * Answers the node with the supplied identifier.
+     *
+     * @param id the node identifier
+     * @return the node, or {@code null} if it is not in the tree
+     */
+    public Node get(String id) {
+        return nodes.get(id);
+    }
+
+    /**
+     * Answers the parent of the node with the supplied identifier.
+     *
+     * @param id the node identifier
+     * @return the parent, or {@code null} if the node is the root or is not in the tree
+     */
+    public Node getParent(String id) {
+        String parentId = parents.get(id);
+        return parentId == null ? null : nodes.get(parentId);
+    }
+
+    /**
+     * Answers the children of the node with the supplied identifier.
+     *
+     * @param id the node identifier
+     * @return the children, empty if the node has no children or is not in the tree
+     */
+    public List<Node> getChildren(String id) {
+        return Collections.unmodifiableList(children.getOrDefault(id, Collections.emptyList()));
+    }
+
+    /**
+     * Answers the depth of the node with the supplied identifier; the root is at depth 0.
+     *
+     * @param id the node identifier
+     * @return the depth, or -1 if the node is not in the tree
+     */
+    public int getDepth(String id) {
+        return depths.getOrDefault(id, -1);
+    }
+
+    /**
+     * Answers the nodes at the supplied depth.
+     *
+     * @param depth the depth; the root is at depth 0
+     * @return the nodes, empty if the tree is not that deep
+     */
+    public List<Node> getLevel(int depth) {
+        if (depth < 0 || depth >= levels.size()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(levels.get(depth));
+    }
+
+    /**
+     * The number of levels in the tree; a tree containing only the root has one level.
+     *
+     * @return the number of levels
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Every node in the tree, level by level, starting with the root.
+     *
+     * @return the nodes
+     */
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+    }
+
+    /**
+     * The number of nodes in the tree.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public String toString() {
+        return "NodeTree{root=" + getRoot().getId() + ", nodes=" + nodes.size() + ", levels=" + levels.size() + '}';
+    }
+
+}
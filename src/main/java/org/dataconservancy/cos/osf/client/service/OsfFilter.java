@@ -0,0 +1,445 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Category;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.NodeBase;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.model.User;
+import org.dataconservancy.cos.osf.client.support.JodaSupport;
+import org.dataconservancy.cos.osf.client.support.UrlToIdTransform;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Builds OSF {@code filter[...]} query parameters for the nodes, registrations and users endpoints, so that resources
+ * are selected by the OSF rather than retrieved and discarded by the client:
+ * <pre>
+ *     OsfFilter&lt;Node&gt; filter = OsfFilter.nodes()
+ *             .eq("category", "project")
+ *             .eq("public", true)
+ *             .gte("date_modified", since)
+ *             .contains("title", "climate");
+ *     ResourceList&lt;Node&gt; page = osfService.paginatedNodeList(filter.toQueryMap()).execute().body();
+ * </pre>
+ * <p>
+ * Each field is checked against the fields of the endpoint: unknown fields, and operators that do not apply to the
+ * field (e.g. {@code gte} on {@code title}), are rejected with an {@code IllegalArgumentException}.  Fields of the
+ * model that the OSF cannot filter on (e.g. the {@code withdrawn} flag of registrations), and a second condition on
+ * the same parameter, cannot be sent to the OSF; they are logged as a warning and evaluated on the client by
+ * {@link #toPredicate()}, which should be applied to the retrieved resources.  {@link #getClientConditions()} lists
+ * them.  Text conditions match case-insensitively anywhere in the value, as the OSF does.  Instances are immutable.
+ * </p>
+ *
+ * @param <T> the model class of the endpoint
+ */
+public final class OsfFilter<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OsfFilter.class);
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    private static final Map<String, Field> NODE_FIELDS = nodeFields();
+
+    private static final Map<String, Field> REGISTRATION_FIELDS = registrationFields();
+
+    private static final Map<String, Field> USER_FIELDS = userFields();
+
+    /**
+     * The kinds of field, which determine the operators that apply
+     */
+    private enum Kind {
+        TEXT, CHOICE, BOOLEAN, DATE, ID, TAG
+    }
+
+    private final String type;
+
+    private final Map<String, Field> fields;
+
+    private final List<Condition> conditions;
+
+    private OsfFilter(String type, Map<String, Field> fields, List<Condition> conditions) {
+        this.type = type;
+        this.fields = fields;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Answers an empty filter for the nodes endpoint.
+     *
+     * @return the filter
+     */
+    public static OsfFilter<Node> nodes() {
+        return new OsfFilter<>("nodes", NODE_FIELDS, Collections.emptyList());
+    }
+
+    /**
+     * Answers an empty filter for the registrations endpoint.
+     *
+     * @return the filter
+     */
+    public static OsfFilter<Registration> registrations() {
+        return new OsfFilter<>("registrations", REGISTRATION_FIELDS, Collections.emptyList());
+    }
+
+    /**
+     * Answers an empty filter for the users endpoint.
+     *
+     * @return the filter
+     */
+    public static OsfFilter<User> users() {
+        return new OsfFilter<>("users", USER_FIELDS, Collections.emptyList());
+    }
+
+    /**
+     * Selects resources whose text field contains {@code text}, ignoring case.
+     *
+     * @param field a text field, e.g. {@code title}
+     * @param text the text to find
+     * @return the new filter
+     */
+    public OsfFilter<T> contains(String field, String text) {
+        Field f = field(field, "contains", Kind.TEXT);
+        String lower = text.toLowerCase();
+        return with(f, "filter[" + field + "]", text, field + " contains '" + text + "'",
+                value -> value != null && value.toString().toLowerCase().contains(lower));
+    }
+
+    /**
+     * Selects resources whose field equals {@code value}: the category, an identifier or a tag, or the exact text.
+     *
+     * @param field a text, category, identifier or tag field, e.g. {@code category}
+     * @param value the value
+     * @return the new filter
+     */
+    public OsfFilter<T> eq(String field, String value) {
+        Field f = field(field, "eq", Kind.TEXT, Kind.CHOICE, Kind.ID, Kind.TAG);
+        if (value == null) {
+            throw new IllegalArgumentException("Value of " + field + " must not be null.");
+        }
+        switch (f.kind) {
+            case ID:
+                return in(field, Collections.singletonList(value));
+            case TAG:
+                return with(f, "filter[" + field + "]", value, field + " includes '" + value + "'",
+                        tags -> tags instanceof Collection && ((Collection<?>) tags).contains(value));
+            case CHOICE:
+                if (Category.forValue(value) == null) {
+                    throw new IllegalArgumentException("Unknown " + field + " '" + value + "'");
+                }
+                return with(f, "filter[" + field + "]", value, field + " = '" + value + "'",
+                        choice -> choice != null && value.equals(choice instanceof Category ?
+                                ((Category) choice).value() : choice.toString()));
+            default:
+                return with(f, "filter[" + field + "][eq]", value, field + " = '" + value + "'", value::equals);
+        }
+    }
+
+    /**
+     * Selects resources whose boolean field has the supplied value.
+     *
+     * @param field a boolean field, e.g. {@code public}
+     * @param value the value
+     * @return the new filter
+     */
+    public OsfFilter<T> eq(String field, boolean value) {
+        Field f = field(field, "eq", Kind.BOOLEAN);
+        return with(f, "filter[" + field + "]", String.valueOf(value), field + " = " + value,
+                flag -> flag != null && (Boolean) flag == value);
+    }
+
+    /**
+     * Selects resources whose identifier field is one of {@code ids}.
+     *
+     * @param field an identifier field, e.g. {@code id} or {@code parent}
+     * @param ids the identifiers or urls
+     * @return the new filter
+     */
+    public OsfFilter<T> in(String field, Collection<String> ids) {
+        Field f = field(field, "in", Kind.ID);
+        if (ids == null || ids.isEmpty()) {
+            throw new IllegalArgumentException("At least one identifier must be supplied.");
+        }
+        List<String> values = ids.stream().map(URL_TO_ID::apply).collect(Collectors.toList());
+        return with(f, "filter[" + field + "]", String.join(",", values), field + " in " + values,
+                id -> id != null && values.contains(URL_TO_ID.apply(id)));
+    }
+
+    /**
+     * Selects resources whose date field is after {@code date}.
+     *
+     * @param field a date field, e.g. {@code date_modified}
+     * @param date the date, exclusive
+     * @return the new filter
+     */
+    public OsfFilter<T> gt(String field, DateTime date) {
+        return compare(field, "gt", date, comparison -> comparison > 0);
+    }
+
+    /**
+     * Selects resources whose date field is {@code date} or after it.
+     *
+     * @param field a date field, e.g. {@code date_modified}
+     * @param date the date, inclusive
+     * @return the new filter
+     */
+    public OsfFilter<T> gte(String field, DateTime date) {
+        return compare(field, "gte", date, comparison -> comparison >= 0);
+    }
+
+    /**
+     * Selects resources whose date field is before {@code date}.
+     *
+     * @param field a date field, e.g. {@code date_modified}
+     * @param date the date, exclusive
+     * @return the new filter
+     */
+    public OsfFilter<T> lt(String field, DateTime date) {
+        return compare(field, "lt", date, comparison -> comparison < 0);
+    }
+
+    /**
+     * Selects resources whose date field is {@code date} or before it.
+     *
+     * @param field a date field, e.g. {@code date_modified}
+     * @param date the date, inclusive
+     * @return the new filter
+     */
+    public OsfFilter<T> lte(String field, DateTime date) {
+        return compare(field, "lte", date, comparison -> comparison <= 0);
+    }
+
+    /**
+     * Selects resources matching an arbitrary predicate, which is always evaluated on the client.
+     *
+     * @param description describes the predicate, for {@link #getClientConditions()}
+     * @param predicate the predicate
+     * @return the new filter
+     */
+    @SuppressWarnings("unchecked")
+    public OsfFilter<T> where(String description, Predicate<? super T> predicate) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("Predicate must not be null.");
+        }
+        List<Condition> result = new ArrayList<>(conditions);
+        result.add(new Condition(null, null, description, resource -> predicate.test((T) resource)));
+        return new OsfFilter<>(type, fields, Collections.unmodifiableList(result));
+    }
+
+    /**
+     * Answers the conditions sent to the OSF as query parameters, suitable for an {@code OsfService} method
+     * accepting a {@code @QueryMap}.  The returned map is mutable, so other parameters may be added.
+     *
+     * @return the query parameters
+     */
+    public Map<String, String> toQueryMap() {
+        return toQueryMap(Collections.emptyMap());
+    }
+
+    /**
+     * Answers the conditions sent to the OSF combined with the supplied query parameters, e.g. those of a
+     * {@link SparseFieldset}.
+     *
+     * @param params other query parameters, which are not modified
+     * @return the combined query parameters
+     */
+    public Map<String, String> toQueryMap(Map<String, String> params) {
+        Map<String, String> result = new HashMap<>(params);
+        conditions.stream().filter(condition -> condition.parameter != null)
+                .forEach(condition -> result.put(condition.parameter, condition.value));
+        return result;
+    }
+
+    /**
+     * Answers a predicate evaluating the conditions that cannot be sent to the OSF.  The conditions sent to the OSF
+     * are not evaluated again.
+     *
+     * @return the predicate, which accepts every resource if every condition is sent to the OSF
+     */
+    public Predicate<T> toPredicate() {
+        List<Condition> client = conditions.stream().filter(condition -> condition.parameter == null)
+                .collect(Collectors.toList());
+        return resource -> client.stream().allMatch(condition -> condition.test.test(resource));
+    }
+
+    /**
+     * Describes the conditions evaluated on the client, which cause resources to be retrieved and discarded.
+     *
+     * @return the descriptions of the client conditions, empty if every condition is sent to the OSF
+     */
+    public List<String> getClientConditions() {
+        return conditions.stream().filter(condition -> condition.parameter == null)
+                .map(condition -> condition.description).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return type + conditions.stream().map(condition -> condition.description).collect(Collectors.toList());
+    }
+
+    private OsfFilter<T> compare(String field, String operator, DateTime date, Predicate<Integer> comparison) {
+        Field f = field(field, operator, Kind.DATE);
+        if (date == null) {
+            throw new IllegalArgumentException("Date must not be null.");
+        }
+        return with(f, "filter[" + field + "][" + operator + "]", JodaSupport.DATE_TIME_FORMATTER.print(date),
+                field + " " + operator + " " + date,
+                value -> value != null && comparison.test(JodaSupport.parseDateTime(value.toString()).compareTo(date)));
+    }
+
+    private Field field(String name, String operator, Kind... kinds) {
+        Field field = fields.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Unknown field " + name + " of " + type + "; known fields are " +
+                    fields.keySet());
+        }
+        if (!Arrays.asList(kinds).contains(field.kind)) {
+            throw new IllegalArgumentException("Field " + name + " of " + type + " is " + field.kind +
+                    " and does not support " + operator);
+        }
+        return field;
+    }
+
+    /**
+     * Answers a filter with an additional condition, sent to the OSF as {@code parameter=value} if the field is
+     * filterable and the parameter is not already used, and evaluated on the client otherwise.
+     */
+    private OsfFilter<T> with(Field field, String parameter, String value, String description,
+                              Predicate<Object> test) {
+        boolean used = conditions.stream().anyMatch(condition -> parameter.equals(condition.parameter));
+        List<Condition> result = new ArrayList<>(conditions);
+        if (field.filterable && !used) {
+            result.add(new Condition(parameter, value, description, null));
+        } else {
+            if (field.getter == null) {
+                throw new IllegalArgumentException("Only one condition on " + parameter + " may be sent to the OSF.");
+            }
+            LOG.warn("Condition {} on {} cannot be sent to the OSF; it will be evaluated on the client, after the " +
+                    "resources are retrieved.", description, type);
+            result.add(new Condition(null, null, description, resource -> test.test(field.getter.apply(resource))));
+        }
+        return new OsfFilter<>(type, fields, Collections.unmodifiableList(result));
+    }
+
+    private static Map<String, Field> nodeBaseFields() {
+        Map<String, Field> fields = new LinkedHashMap<>();
+        fields.put("id", new Field(Kind.ID, true, o -> ((NodeBase) o).getId()));
+        fields.put("title", new Field(Kind.TEXT, true, o -> ((NodeBase) o).getTitle()));
+        fields.put("description", new Field(Kind.TEXT, true, o -> ((NodeBase) o).getDescription()));
+        fields.put("public", new Field(Kind.BOOLEAN, true, o -> ((NodeBase) o).isPublic()));
+        fields.put("tags", new Field(Kind.TAG, true, o -> ((NodeBase) o).getTags()));
+        fields.put("category", new Field(Kind.CHOICE, true, o -> ((NodeBase) o).getCategory()));
+        fields.put("date_created", new Field(Kind.DATE, true, o -> ((NodeBase) o).getDate_created()));
+        fields.put("date_modified", new Field(Kind.DATE, true, o -> ((NodeBase) o).getDate_modified()));
+        fields.put("root", new Field(Kind.ID, true, o -> ((NodeBase) o).getRoot()));
+        fields.put("parent", new Field(Kind.ID, true, o -> ((NodeBase) o).getParent()));
+        fields.put("contributors", new Field(Kind.ID, true, null));
+        fields.put("fork", new Field(Kind.BOOLEAN, false, o -> ((NodeBase) o).isFork()));
+        fields.put("collection", new Field(Kind.BOOLEAN, false, o -> ((NodeBase) o).isCollection()));
+        fields.put("forked_from", new Field(Kind.ID, false, o -> ((NodeBase) o).getForked_from()));
+        return fields;
+    }
+
+    private static Map<String, Field> nodeFields() {
+        return Collections.unmodifiableMap(nodeBaseFields());
+    }
+
+    private static Map<String, Field> registrationFields() {
+        Map<String, Field> fields = nodeBaseFields();
+        fields.put("withdrawn", new Field(Kind.BOOLEAN, false, o -> ((Registration) o).isWithdrawn()));
+        fields.put("pending_withdrawal", new Field(Kind.BOOLEAN, false,
+                o -> ((Registration) o).isPending_withdrawal()));
+        fields.put("date_registered", new Field(Kind.DATE, false, o -> ((Registration) o).getDate_registered()));
+        fields.put("embargo_end_date", new Field(Kind.DATE, false, o -> ((Registration) o).getEmbargo_end_date()));
+        fields.put("registered_from", new Field(Kind.ID, false, o -> ((Registration) o).getRegistered_from()));
+        fields.put("registered_by", new Field(Kind.ID, false, o -> ((Registration) o).getRegistered_by()));
+        return Collections.unmodifiableMap(fields);
+    }
+
+    private static Map<String, Field> userFields() {
+        Map<String, Field> fields = new LinkedHashMap<>();
+        fields.put("id", new Field(Kind.ID, true, o -> ((User) o).getId()));
+        fields.put("full_name", new Field(Kind.TEXT, true, o -> ((User) o).getFull_name()));
+        fields.put("given_name", new Field(Kind.TEXT, true, o -> ((User) o).getGiven_name()));
+        fields.put("middle_names", new Field(Kind.TEXT, true, o -> ((User) o).getMiddle_names()));
+        fields.put("family_name", new Field(Kind.TEXT, true, o -> ((User) o).getFamily_name()));
+        fields.put("date_registered", new Field(Kind.DATE, false, o -> ((User) o).getDate_registered()));
+        fields.put("active", new Field(Kind.BOOLEAN, false, o -> ((User) o).isActive()));
+        fields.put("timezone", new Field(Kind.TEXT, false, o -> ((User) o).getTimezone()));
+        fields.put("locale", new Field(Kind.TEXT, false, o -> ((User) o).getLocale()));
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * A field of a model class
+     */
+    private static class Field {
+
+        private final Kind kind;
+
+        /**
+         * Whether the OSF filters on the field
+         */
+        private final boolean filterable;
+
+        /**
+         * Answers the value of the field of a resource, {@code null} if the field cannot be evaluated on the client
+         */
+        private final Function<Object, Object> getter;
+
+        private Field(Kind kind, boolean filterable, Function<Object, Object> getter) {
+            this.kind = kind;
+            this.filterable = filterable;
+            this.getter = getter;
+        }
+    }
+
+    /**
+     * A condition sent to the OSF as a query parameter, or evaluated on the client
+     */
+    private static class Condition {
+
+        private final String parameter;
+
+        private final String value;
+
+        private final String description;
+
+        private final Predicate<Object> test;
+
+        private Condition(String parameter, String value, String description, Predicate<Object> test) {
+            this.parameter = parameter;
+            this.value = value;
+            this.description = description;
+            this.test = test;
+        }
+    }
+
+}
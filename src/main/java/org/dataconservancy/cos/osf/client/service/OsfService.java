@@ -25,6 +25,7 @@ import com.squareup.okhttp.ResponseBody;
 import org.dataconservancy.cos.osf.client.model.Comment;
 import org.dataconservancy.cos.osf.client.model.Contributor;
 import org.dataconservancy.cos.osf.client.model.Event;
+import org.dataconservancy.cos.osf.client.model.File;
 import org.dataconservancy.cos.osf.client.model.Node;
 import org.dataconservancy.cos.osf.client.model.Registration;
 import org.dataconservancy.cos.osf.client.model.RegistrationId;
@@ -55,6 +56,9 @@ public interface OsfService {
     @GET
     Call<ResourceList<Node>> paginatedNodeList(@Url String url);
 
+    @GET("nodes/")
+    Call<ResourceList<Node>> paginatedNodeList(@QueryMap Map<String, String> params);
+
     @GET
     Call<ResourceList<Event>> getLogs(@Url String url);
 
@@ -74,6 +78,9 @@ public interface OsfService {
     @GET("nodes/{id}/")
     Call<Node> node(@Path("id") String id);
 
+    @GET("nodes/{id}/")
+    Call<Node> node(@Path("id") String id, @Query("embed") List<String> embeds);
+
     @GET("registrations/")
     Call<List<Registration>> registrationList();
 
@@ -83,9 +90,18 @@ public interface OsfService {
     @GET("registrations/")
     Call<List<Registration>> registrationList(@Query("page") int page, @QueryMap Map<String, String> params);
 
+    @GET("registrations/")
+    Call<ResourceList<Registration>> paginatedRegistrationList(@QueryMap Map<String, String> params);
+
+    @GET
+    Call<ResourceList<Registration>> paginatedRegistrationList(@Url String url);
+
     @GET("registrations/{id}/")
     Call<Registration> registration(@Path("id") String id);
 
+    @GET("registrations/{id}/")
+    Call<Registration> registration(@Path("id") String id, @Query("embed") List<String> embeds);
+
     @GET
     Call<Registration> registrationByUrl(@Url String registrationUrl);
     
@@ -107,9 +123,18 @@ public interface OsfService {
     @GET("users/")
     Call<List<User>> userList(@Query("page") int page, @QueryMap Map<String, String> params);
 
+    @GET("users/")
+    Call<ResourceList<User>> paginatedUserList(@QueryMap Map<String, String> params);
+
+    @GET
+    Call<ResourceList<User>> paginatedUserList(@Url String url);
+
     @GET("users/{id}/")
     Call<User> user(@Path("id") String id);
 
+    @GET("users/{id}/")
+    Call<User> user(@Path("id") String id, @Query("embed") List<String> embeds);
+
     @GET
     Call<User> userByUrl(@Url String userUrl);
 
@@ -119,5 +144,14 @@ public interface OsfService {
     @GET
     Call<List<Wiki>> wikis(@Url String url);
 
+    @GET
+    Call<ResourceList<Contributor>> paginatedContributors(@Url String url);
+
+    @GET
+    Call<ResourceList<Wiki>> paginatedWikis(@Url String url);
+
+    @GET
+    Call<ResourceList<File>> paginatedFiles(@Url String url);
+
     //Call<List<NodeFile>> listFiles(@Path(""))
 }
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import com.github.jasminb.jsonapi.ResourceList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit.Call;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the resources of every page of a paginated endpoint, retrieving the next pages in the background
+ * while the current page is consumed.  Works with any endpoint answering a {@code ResourceList}, given the call for
+ * the first page and a method answering the call for a page url:
+ * <pre>
+ *     try (Stream&lt;Node&gt; nodes = PageIterator.stream(osfService.paginatedNodeList(),
+ *             osfService::paginatedNodeList)) {
+ *         nodes.map(Node::getId).forEach(ids::add);
+ *     }
+ *
+ *     PageIterator&lt;Event&gt; logs = new PageIterator&lt;&gt;(osfService.getLogs(logsUrl), osfService::getLogs, 2);
+ * </pre>
+ * <p>
+ * Memory is bounded by the prefetch depth: at most {@code prefetchDepth} pages wait to be consumed, in addition to
+ * the page being consumed and the page being retrieved.  The background retrieval stops when the last page has been
+ * retrieved, when retrieval fails, or when the iterator is {@link #close() closed}; an iterator that is abandoned
+ * before it is exhausted should be closed, or its stream closed, to cancel the outstanding request.  A failure is
+ * thrown, as a {@code RuntimeException}, once the pages retrieved before it have been consumed.
+ * </p>
+ * <p>
+ * Background retrieval runs on a shared pool of at most {@link #DEFAULT_PREFETCH_THREADS} daemon threads, or on an
+ * executor supplied by the caller, which remains the caller's to shut down.  An iterator opened when the executor
+ * rejects its retrieval, e.g. while every thread of the shared pool is busy, retrieves each page on the consuming
+ * thread when it is needed instead.
+ * </p>
+ * <p>
+ * Instances are not safe for use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the resources
+ */
+public class PageIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageIterator.class);
+
+    /**
+     * Default number of pages retrieved ahead of the page being consumed
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
+
+    /**
+     * Maximum number of threads of the shared pool retrieving pages in the background
+     */
+    public static final int DEFAULT_PREFETCH_THREADS = 8;
+
+    /**
+     * Marks the end of the pages in the queue
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Runs the background retrieval of iterators which are not supplied an executor; rejects retrievals beyond
+     * {@link #DEFAULT_PREFETCH_THREADS} rather than queuing them
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = new ThreadPoolExecutor(0, DEFAULT_PREFETCH_THREADS,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), new DaemonThreadFactory("osf-page-prefetch"));
+
+    /**
+     * Retrieved pages, followed by {@link #END} or a {@link Failure}
+     */
+    private final BlockingQueue<Object> pages;
+
+    private final Function<String, Call<ResourceList<T>>> next;
+
+    /**
+     * The background retrieval, or {@code null} if pages are retrieved on the consuming thread
+     */
+    private final Future<?> producer;
+
+    /**
+     * The call for the next page when pages are retrieved on the consuming thread
+     */
+    private Call<ResourceList<T>> pending;
+
+    private final AtomicLong pageCount = new AtomicLong();
+
+    private volatile Call<?> inFlight;
+
+    private volatile boolean closed;
+
+    private Iterator<T> current = Collections.emptyIterator();
+
+    private boolean finished;
+
+    /**
+     * Constructs an iterator which retrieves {@link #DEFAULT_PREFETCH_DEPTH} pages ahead.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     */
+    public PageIterator(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next) {
+        this(first, next, DEFAULT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * Constructs an iterator which retrieves up to {@code prefetchDepth} pages ahead of the page being consumed.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param prefetchDepth the maximum number of retrieved pages waiting to be consumed, must be positive
+     */
+    public PageIterator(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next,
+                        int prefetchDepth) {
+        this(first, next, prefetchDepth, PREFETCH_EXECUTOR);
+    }
+
+    /**
+     * Constructs an iterator which retrieves up to {@code prefetchDepth} pages ahead of the page being consumed, using
+     * a thread of {@code executor} until the last page is retrieved or the iterator is closed.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param prefetchDepth the maximum number of retrieved pages waiting to be consumed, must be positive
+     * @param executor runs the background retrieval; it should reject rather than queue a retrieval it cannot start
+     */
+    public PageIterator(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next,
+                        int prefetchDepth, ExecutorService executor) {
+        if (first == null || next == null || executor == null) {
+            throw new IllegalArgumentException("First page call, next page function and executor must not be null.");
+        }
+        if (prefetchDepth < 1) {
+            throw new IllegalArgumentException("Prefetch depth must be positive.");
+        }
+        this.pages = new ArrayBlockingQueue<>(prefetchDepth);
+        this.next = next;
+        Future<?> producer;
+        try {
+            producer = executor.submit(() -> produce(first, next));
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Unable to retrieve pages in the background; retrieving them as they are consumed.");
+            producer = null;
+            pending = first;
+        }
+        this.producer = producer;
+    }
+
+    /**
+     * Answers a sequential stream over the resources of every page, which retrieves {@link #DEFAULT_PREFETCH_DEPTH}
+     * pages ahead.  Closing the stream cancels the background retrieval.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url
+     * @param <T> the type of the resources
+     * @return the stream
+     */
+    public static <T> Stream<T> stream(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next) {
+        return stream(first, next, DEFAULT_PREFETCH_DEPTH);
+    }
+
+    /**
+     * Answers a sequential stream over the resources of every page, which retrieves up to {@code prefetchDepth} pages
+     * ahead.  Closing the stream cancels the background retrieval.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url
+     * @param prefetchDepth the maximum number of retrieved pages waiting to be consumed, must be positive
+     * @param <T> the type of the resources
+     * @return the stream
+     */
+    public static <T> Stream<T> stream(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next,
+                                       int prefetchDepth) {
+        return stream(first, next, prefetchDepth, PREFETCH_EXECUTOR);
+    }
+
+    /**
+     * Answers a sequential stream over the resources of every page, which retrieves up to {@code prefetchDepth} pages
+     * ahead using a thread of {@code executor}.  Closing the stream cancels the background retrieval.
+     *
+     * @param first the call answering the first page
+     * @param next answers the call for the page at the supplied url
+     * @param prefetchDepth the maximum number of retrieved pages waiting to be consumed, must be positive
+     * @param executor runs the background retrieval
+     * @param <T> the type of the resources
+     * @return the stream
+     */
+    public static <T> Stream<T> stream(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next,
+                                       int prefetchDepth, ExecutorService executor) {
+        PageIterator<T> iterator = new PageIterator<>(first, next, prefetchDepth, executor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+
+            Object page = take();
+            if (page == END) {
+                finished = true;
+                return false;
+            }
+            if (page instanceof Failure) {
+                finished = true;
+                RuntimeException cause = ((Failure) page).cause;
+                throw new RuntimeException(cause.getMessage(), cause);
+            }
+            current = ((ResourceList<T>) page).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Stops the background retrieval, cancelling the outstanding request, and discards the retrieved pages.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finished = true;
+        current = Collections.emptyIterator();
+
+        Call<?> call = inFlight;
+        if (call != null) {
+            call.cancel();
+        }
+        if (producer != null) {
+            producer.cancel(true);
+        }
+        pending = null;
+        pages.clear();
+    }
+
+    /**
+     * The number of pages retrieved so far, including pages waiting to be consumed.
+     *
+     * @return the number of pages
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    private Object take() {
+        if (producer == null) {
+            return retrieve();
+        }
+        try {
+            return pages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("Interrupted while waiting for the next page.", e);
+        }
+    }
+
+    /**
+     * Retrieves the next page on the consuming thread, when there is no background retrieval.
+     */
+    private Object retrieve() {
+        Call<ResourceList<T>> call = pending;
+        if (call == null) {
+            return END;
+        }
+        pending = null;
+        try {
+            inFlight = call;
+            ResourceList<T> page = Calls.execute(call);
+            if (page == null) {
+                return END;
+            }
+            pageCount.incrementAndGet();
+            pending = page.getNext() == null ? null : next.apply(page.getNext());
+            return page;
+        } catch (RuntimeException e) {
+            LOG.debug("Unable to retrieve page: {}", e.getMessage());
+            return new Failure(e);
+        } finally {
+            inFlight = null;
+        }
+    }
+
+    /**
+     * Retrieves pages until the last page, queuing each one; blocks while the queue is full.
+     */
+    private void produce(Call<ResourceList<T>> first, Function<String, Call<ResourceList<T>>> next) {
+        Call<ResourceList<T>> call = first;
+        try {
+            while (call != null && !closed) {
+                inFlight = call;
+                ResourceList<T> page = Calls.execute(call);
+                inFlight = null;
+                if (page == null) {
+                    break;
+                }
+                pageCount.incrementAndGet();
+                pages.put(page);
+                call = page.getNext() == null ? null : next.apply(page.getNext());
+            }
+            pages.put(END);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (RuntimeException e) {
+            if (closed) {
+                return;
+            }
+            LOG.debug("Unable to retrieve page: {}", e.getMessage());
+            try {
+                pages.put(new Failure(e));
+            } catch (InterruptedException ie) {
+                // closed by the consumer
+            }
+        }
+    }
+
+    /**
+     * Carries a retrieval failure through the queue
+     */
+    private static class Failure {
+
+        private final RuntimeException cause;
+
+        private Failure(RuntimeException cause) {
+            this.cause = cause;
+        }
+    }
+
+}
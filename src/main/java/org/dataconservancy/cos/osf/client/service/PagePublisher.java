@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.model.User;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import retrofit.Call;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the resources of every page of a paginated endpoint to {@link Flow.Subscriber}s, retrieving pages only as
+ * the subscriber requests resources:
+ * <pre>
+ *     PagePublisher.nodes(osfService, params).subscribe(new Flow.Subscriber&lt;Node&gt;() {
+ *         public void onSubscribe(Flow.Subscription s) { subscription = s; s.request(10); }
+ *         public void onNext(Node node) { index(node); if (++received % 10 == 0) subscription.request(10); }
+ *         ...
+ *     });
+ * </pre>
+ * <p>
+ * The first page is retrieved when the first resource is requested, and each following page only once the resources
+ * of the previous page have been delivered and more are requested, so at most one page is held for a subscriber
+ * however slowly it consumes.  The relationships of a page's resources are resolved when the page is deserialized,
+ * and so are also retrieved only on demand; with a {@link ResolutionProfile} which {@link
+ * ResolutionProfile#defer(String) defers} them, relationships are retrieved only when the subscriber accesses them.
+ * {@link Flow.Subscription#cancel() Cancelling} stops the retrieval and cancels the request in flight.
+ * </p>
+ * <p>
+ * Each subscriber receives every resource, from a call for the first page of its own.  Signals are delivered on a
+ * shared, bounded pool of daemon threads, or on an executor supplied to the constructor; a failure to retrieve a page
+ * is signalled with {@code onError}, as a {@code RuntimeException}.
+ * </p>
+ *
+ * @param <T> the type of the resources
+ */
+public class PagePublisher<T> implements Flow.Publisher<T> {
+
+    private final Supplier<Call<ResourceList<T>>> first;
+
+    private final Function<String, Call<ResourceList<T>>> next;
+
+    private final ResolutionProfile profile;
+
+    private final Executor executor;
+
+    /**
+     * Constructs a publisher which resolves relationships as configured by the {@code OsfService}.
+     *
+     * @param first answers a new call for the first page, invoked once for each subscriber
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     */
+    public PagePublisher(Supplier<Call<ResourceList<T>>> first, Function<String, Call<ResourceList<T>>> next) {
+        this(first, next, null);
+    }
+
+    /**
+     * Constructs a publisher which deserializes every page using {@code profile}.
+     *
+     * @param first answers a new call for the first page, invoked once for each subscriber
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param profile the relationships to follow, or {@code null} to use the profile of the {@code OsfService}
+     */
+    public PagePublisher(Supplier<Call<ResourceList<T>>> first, Function<String, Call<ResourceList<T>>> next,
+                         ResolutionProfile profile) {
+        this(first, next, profile, DemandSubscription.DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Constructs a publisher which deserializes every page using {@code profile}, and retrieves pages and delivers
+     * signals on {@code executor}.
+     *
+     * @param first answers a new call for the first page, invoked once for each subscriber
+     * @param next answers the call for the page at the supplied url, e.g. {@code osfService::paginatedNodeList}
+     * @param profile the relationships to follow, or {@code null} to use the profile of the {@code OsfService}
+     * @param executor retrieves pages and delivers signals; it remains the caller's to shut down
+     */
+    public PagePublisher(Supplier<Call<ResourceList<T>>> first, Function<String, Call<ResourceList<T>>> next,
+                         ResolutionProfile profile, Executor executor) {
+        if (first == null || next == null || executor == null) {
+            throw new IllegalArgumentException("First page supplier, next page function and executor must not be " +
+                    "null.");
+        }
+        this.first = first;
+        this.next = next;
+        this.profile = profile;
+        this.executor = executor;
+    }
+
+    /**
+     * Answers a publisher of the nodes matching the supplied query parameters.
+     *
+     * @param osfService the service used to retrieve pages
+     * @param params query parameters, e.g. filters, may be {@code null}
+     * @return the publisher
+     */
+    public static PagePublisher<Node> nodes(OsfService osfService, Map<String, String> params) {
+        Map<String, String> query = copy(params);
+        return new PagePublisher<>(() -> osfService.paginatedNodeList(query), osfService::paginatedNodeList);
+    }
+
+    /**
+     * Answers a publisher of the registrations matching the supplied query parameters.
+     *
+     * @param osfService the service used to retrieve pages
+     * @param params query parameters, e.g. filters, may be {@code null}
+     * @return the publisher
+     */
+    public static PagePublisher<Registration> registrations(OsfService osfService, Map<String, String> params) {
+        Map<String, String> query = copy(params);
+        return new PagePublisher<>(() -> osfService.paginatedRegistrationList(query),
+                osfService::paginatedRegistrationList);
+    }
+
+    /**
+     * Answers a publisher of the users matching the supplied query parameters.
+     *
+     * @param osfService the service used to retrieve pages
+     * @param params query parameters, e.g. filters, may be {@code null}
+     * @return the publisher
+     */
+    public static PagePublisher<User> users(OsfService osfService, Map<String, String> params) {
+        Map<String, String> query = copy(params);
+        return new PagePublisher<>(() -> osfService.paginatedUserList(query), osfService::paginatedUserList);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        new PageSubscription(subscriber).start();
+    }
+
+    private Call<ResourceList<T>> profiled(Call<ResourceList<T>> call) {
+        return profile == null ? call : profile.attach(call);
+    }
+
+    private static Map<String, String> copy(Map<String, String> params) {
+        return params == null ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(params));
+    }
+
+    /**
+     * Retrieves one page for each chunk of resources
+     */
+    private class PageSubscription extends DemandSubscription<T> {
+
+        private volatile Call<ResourceList<T>> inFlight;
+
+        private String nextUrl;
+
+        private boolean started;
+
+        private PageSubscription(Flow.Subscriber<? super T> subscriber) {
+            super(subscriber, executor);
+        }
+
+        @Override
+        List<T> fetch(long demand) {
+            Call<ResourceList<T>> call;
+            if (!started) {
+                started = true;
+                call = first.get();
+            } else if (nextUrl != null) {
+                call = next.apply(nextUrl);
+            } else {
+                return null;
+            }
+
+            inFlight = profiled(call);
+            if (isCancelled()) {
+                inFlight.cancel();
+                return Collections.emptyList();
+            }
+            ResourceList<T> page;
+            try {
+                page = Calls.body(inFlight.execute());
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            } finally {
+                inFlight = null;
+            }
+
+            if (page == null) {
+                nextUrl = null;
+                return null;
+            }
+            nextUrl = page.getNext();
+            return new ArrayList<>(page);
+        }
+
+        @Override
+        void onCancel() {
+            Call<?> call = inFlight;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.PaginatingRelationshipResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit.Call;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Enumerates every page of a list endpoint by retrieving the first page, reading the number of pages from its
+ * {@code links.last} url, and retrieving the remaining pages concurrently by page number.  Enumerating a large
+ * collection is then limited by bandwidth rather than by the round trip for each page:
+ * <pre>
+ *     ParallelPageFetcher&lt;Registration&gt; fetcher = ParallelPageFetcher.registrations(osfService, 8);
+ *     List&lt;Registration&gt; registrations = fetcher.fetch(params);
+ *
+ *     fetcher.fetch(params, (page, resources) -&gt; index(resources));
+ *     fetcher.shutdown();
+ * </pre>
+ * <p>
+ * Resources are answered either in page order, or one page at a time as each page is retrieved.  If the first page
+ * carries no {@code links.last} url, or the last page is full when it is retrieved (e.g. because the collection grew
+ * during the enumeration), the following pages are retrieved one at a time until a page that is not full, or that
+ * does not exist, is found.  Resources that move from one page to another while the collection is enumerated may be
+ * answered twice, or not at all.
+ * </p>
+ * <p>
+ * At most {@code concurrency} pages are outstanding at a time: the next page is requested only when a retrieved page
+ * is consumed, so pages retrieved ahead of a slow consumer do not accumulate in memory.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the resources
+ */
+public class ParallelPageFetcher<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelPageFetcher.class);
+
+    /**
+     * Default number of pages retrieved concurrently
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private final Function<Map<String, String>, Call<ResourceList<T>>> firstPage;
+
+    private final BiFunction<Integer, Map<String, String>, Call<List<T>>> page;
+
+    private final ExecutorService executor;
+
+    private final int concurrency;
+
+    private final AtomicLong pageCount = new AtomicLong();
+
+    /**
+     * Constructs a fetcher retrieving up to {@code concurrency} pages concurrently.
+     *
+     * @param firstPage answers the call for the first page, carrying its links, for the supplied query parameters,
+     *                  e.g. {@code osfService::paginatedNodeList}
+     * @param page answers the call for the supplied page number and query parameters, e.g.
+     *             {@code osfService::nodeList}
+     * @param concurrency the maximum number of pages retrieved concurrently
+     */
+    public ParallelPageFetcher(Function<Map<String, String>, Call<ResourceList<T>>> firstPage,
+                               BiFunction<Integer, Map<String, String>, Call<List<T>>> page, int concurrency) {
+        if (firstPage == null || page == null) {
+            throw new IllegalArgumentException("First page and page functions must not be null.");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        this.firstPage = firstPage;
+        this.page = page;
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-page"));
+    }
+
+    /**
+     * Constructs a fetcher which enumerates the nodes endpoint.
+     *
+     * @param osfService the service used to retrieve nodes
+     * @param concurrency the maximum number of pages retrieved concurrently
+     * @return the fetcher
+     */
+    public static ParallelPageFetcher<Node> nodes(OsfService osfService, int concurrency) {
+        if (osfService == null) {
+            throw new IllegalArgumentException("OsfService must not be null.");
+        }
+        return new ParallelPageFetcher<>(osfService::paginatedNodeList, osfService::nodeList, concurrency);
+    }
+
+    /**
+     * Constructs a fetcher which enumerates the registrations endpoint.
+     *
+     * @param osfService the service used to retrieve registrations
+     * @param concurrency the maximum number of pages retrieved concurrently
+     * @return the fetcher
+     */
+    public static ParallelPageFetcher<Registration> registrations(OsfService osfService, int concurrency) {
+        if (osfService == null) {
+            throw new IllegalArgumentException("OsfService must not be null.");
+        }
+        return new ParallelPageFetcher<>(osfService::paginatedRegistrationList, osfService::registrationList,
+                concurrency);
+    }
+
+    /**
+     * Retrieves the resources of every page, answering them in page order.
+     *
+     * @param params the query parameters sent with every page request, e.g. filters and {@code page[size]}; may be
+     *               {@code null}
+     * @return the resources of every page
+     */
+    public List<T> fetch(Map<String, String> params) {
+        List<T> result = new ArrayList<>();
+        Map<String, String> query = query(params);
+        ResourceList<T> first = first(query);
+        if (first == null) {
+            return result;
+        }
+        result.addAll(first);
+
+        int lastPage = PaginatingRelationshipResolver.pageNumber(first.getLast());
+        samePageSize(first, query);
+        // the outstanding pages, in page order
+        Deque<Future<List<T>>> window = new ArrayDeque<>();
+        int nextNumber = 2;
+        for (; nextNumber <= lastPage && window.size() < concurrency; nextNumber++) {
+            window.add(submit(nextNumber, query));
+        }
+
+        List<T> last = first;
+        int lastNumber = 1;
+        while (!window.isEmpty()) {
+            last = await(window.poll(), window);
+            lastNumber++;
+            result.addAll(last);
+            if (nextNumber <= lastPage) {
+                window.add(submit(nextNumber++, query));
+            }
+        }
+
+        remaining(first, last, lastNumber, query, (number, resources) -> result.addAll(resources));
+        return result;
+    }
+
+    /**
+     * Retrieves the resources of every page, supplying each page to {@code consumer} as soon as it has been
+     * retrieved, so pages may be supplied out of order.  The consumer is invoked on the calling thread.
+     *
+     * @param params the query parameters sent with every page request, e.g. filters and {@code page[size]}; may be
+     *               {@code null}
+     * @param consumer accepts the page number and the resources of each page
+     */
+    public void fetch(Map<String, String> params, BiConsumer<Integer, List<T>> consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Page consumer must not be null.");
+        }
+        Map<String, String> query = query(params);
+        ResourceList<T> first = first(query);
+        if (first == null) {
+            return;
+        }
+        consumer.accept(1, first);
+
+        int lastPage = PaginatingRelationshipResolver.pageNumber(first.getLast());
+        samePageSize(first, query);
+        CompletionService<Page<T>> completion = new ExecutorCompletionService<>(executor);
+        // the outstanding pages
+        Set<Future<Page<T>>> window = new HashSet<>();
+        int nextNumber = 2;
+        for (; nextNumber <= lastPage && window.size() < concurrency; nextNumber++) {
+            window.add(submit(completion, nextNumber, query));
+        }
+
+        List<T> last = first;
+        while (!window.isEmpty()) {
+            Page<T> retrieved;
+            try {
+                Future<Page<T>> future = completion.take();
+                window.remove(future);
+                retrieved = await(future, window);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                window.forEach(future -> future.cancel(true));
+                throw new RuntimeException("Interrupted while retrieving pages.", e);
+            }
+            if (nextNumber <= lastPage) {
+                window.add(submit(completion, nextNumber++, query));
+            }
+            if (retrieved.number == lastPage) {
+                last = retrieved.resources;
+            }
+            consumer.accept(retrieved.number, retrieved.resources);
+        }
+
+        remaining(first, last, Math.max(1, lastPage), query, consumer);
+    }
+
+    /**
+     * The number of pages retrieved, including first pages.
+     *
+     * @return the number of pages
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Stops the threads used to retrieve pages concurrently.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Retrieves the pages following {@code lastNumber} one at a time, for as long as the previous page was as full
+     * as the first page.
+     */
+    private void remaining(List<T> first, List<T> last, int lastNumber, Map<String, String> query,
+                           BiConsumer<Integer, List<T>> consumer) {
+        int number = lastNumber;
+        while (!first.isEmpty() && last.size() >= first.size()) {
+            number++;
+            last = retrieve(number, query);
+            if (last.isEmpty()) {
+                break;
+            }
+            LOG.debug("Retrieved page {} beyond the last page {}", number, lastNumber);
+            consumer.accept(number, last);
+        }
+    }
+
+    /**
+     * Requests the remaining pages with the page size of the first page, which may have been chosen by an
+     * interceptor, so that page numbers are consistent.
+     */
+    private static void samePageSize(ResourceList<?> first, Map<String, String> query) {
+        String pageSize = PaginatingRelationshipResolver.queryParameter(first.getLast(), "page[size]");
+        if (pageSize != null) {
+            query.putIfAbsent("page[size]", pageSize);
+        }
+    }
+
+    private ResourceList<T> first(Map<String, String> query) {
+        ResourceList<T> first = Calls.execute(firstPage.apply(query));
+        pageCount.incrementAndGet();
+        return first;
+    }
+
+    private Future<List<T>> submit(int number, Map<String, String> query) {
+        return executor.submit(() -> retrieve(number, query));
+    }
+
+    private Future<Page<T>> submit(CompletionService<Page<T>> completion, int number, Map<String, String> query) {
+        return completion.submit(() -> new Page<>(number, retrieve(number, query)));
+    }
+
+    private List<T> retrieve(int number, Map<String, String> query) {
+        List<T> resources = Calls.execute(page.apply(number, query));
+        pageCount.incrementAndGet();
+        return resources == null ? new ArrayList<>() : resources;
+    }
+
+    private static Map<String, String> query(Map<String, String> params) {
+        Map<String, String> query = params == null ? new HashMap<>() : new HashMap<>(params);
+        query.remove("page");
+        return query;
+    }
+
+    private static <R> R await(Future<R> future, Collection<? extends Future<?>> futures) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new RuntimeException("Interrupted while retrieving pages.", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * The resources of a page, with its page number
+     */
+    private static class Page<T> {
+
+        private final int number;
+
+        private final List<T> resources;
+
+        private Page(int number, List<T> resources) {
+            this.number = number;
+            this.resources = resources;
+        }
+    }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.support.EndpointMetrics;
+import org.dataconservancy.cos.osf.client.support.RelationshipIndex;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import retrofit.Call;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses, for each relationship followed by a {@link ResolutionProfile}, whether it is cheapest to embed the
+ * relationship in the response ({@code embed=contributors}), to retrieve it separately for each resource with
+ * requests fanned out in parallel, or to defer it until it is accessed.  Choices are based on the latency and payload
+ * size observed by {@link EndpointMetrics}, the number of resources in the response, and the number of concurrent
+ * relationship requests:
+ * <pre>
+ *     QueryPlanner planner = new QueryPlanner(endpointMetrics, relationshipIndex, serviceFactory);
+ *     QueryPlanner.Plan plan = planner.plan(Node.class, ResolutionProfile.all(), 1);
+ *     Node node = plan.attach(osfService.node("v8x57", plan.getEmbeds())).execute().body();
+ *     LOG.debug("{}", plan);
+ * </pre>
+ * <p>
+ * For a relationship whose endpoint has latency {@code L}, whose documents average {@code B} bytes and {@code C}
+ * resources, and a response of {@code n} resources:
+ * </p>
+ * <ul>
+ *     <li>fanning out costs {@code ceil(n / concurrency) * L}</li>
+ *     <li>embedding costs the time to transfer {@code n * B} more bytes in the response; to-many relationships that
+ *         average more resources than the OSF embeds ({@value #EMBED_LIMIT}) are not embedded, since a truncated
+ *         embed must be retrieved anyway</li>
+ *     <li>to-many relationships whose cheapest cost exceeds the deferral threshold are deferred</li>
+ * </ul>
+ * <p>
+ * Relationships that have not been observed are assumed to cost the default latency, and are not embedded, so a new
+ * planner fans out until metrics are collected.  Only relationships of the resources in the response (depth 1) are
+ * planned; deeper relationships are resolved according to the supplied profile.  The most recent plan for each model
+ * class and profile is kept for inspection.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class QueryPlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryPlanner.class);
+
+    /**
+     * How a relationship is resolved
+     */
+    public enum Strategy {
+
+        /**
+         * Embed the relationship in the response
+         */
+        EMBED,
+
+        /**
+         * Retrieve the relationship of each resource separately, in parallel
+         */
+        FAN_OUT,
+
+        /**
+         * Retrieve the relationship when it is first accessed
+         */
+        DEFER
+    }
+
+    /**
+     * The largest number of related resources embedded by the OSF for a to-many relationship
+     */
+    public static final int EMBED_LIMIT = 10;
+
+    /**
+     * Default number of concurrent relationship requests.  Sibling relationships are resolved one at a time unless the
+     * {@code RetrofitOsfServiceFactory} is constructed with a positive {@code relationshipConcurrency}; see
+     * {@link #QueryPlanner(EndpointMetrics, RelationshipIndex, RetrofitOsfServiceFactory)}.
+     */
+    public static final int DEFAULT_CONCURRENCY = 1;
+
+    /**
+     * Default cost above which a to-many relationship is deferred, in milliseconds
+     */
+    public static final double DEFAULT_DEFER_MILLIS = 2000;
+
+    /**
+     * Default transfer rate, used to estimate the cost of embedding, in bytes per millisecond (about 8 Mbit/s)
+     */
+    public static final double DEFAULT_BYTES_PER_MILLI = 1000;
+
+    /**
+     * Latency assumed for a relationship that has not been observed, in milliseconds
+     */
+    static final double DEFAULT_LATENCY_MILLIS = 250;
+
+    /**
+     * Document size assumed for a relationship that has not been observed, in bytes
+     */
+    static final long DEFAULT_DOCUMENT_BYTES = 4096;
+
+    private final EndpointMetrics metrics;
+
+    private final RelationshipIndex index;
+
+    private final int concurrency;
+
+    private final double deferMillis;
+
+    private final double bytesPerMilli;
+
+    private final ConcurrentMap<String, Plan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a planner using the default concurrency, deferral threshold and transfer rate.
+     *
+     * @param metrics the metrics collected by the {@code OkHttpClient} and {@code ResolvingConverterFactory}
+     * @param index the relationship index used by the {@code ResolvingConverterFactory}
+     */
+    public QueryPlanner(EndpointMetrics metrics, RelationshipIndex index) {
+        this(metrics, index, DEFAULT_CONCURRENCY, DEFAULT_DEFER_MILLIS, DEFAULT_BYTES_PER_MILLI);
+    }
+
+    /**
+     * Constructs a planner using the default deferral threshold and transfer rate, whose concurrency is the number of
+     * relationships the supplied factory resolves concurrently.
+     *
+     * @param metrics the metrics collected by the {@code OkHttpClient} and {@code ResolvingConverterFactory}
+     * @param index the relationship index used by the {@code ResolvingConverterFactory}
+     * @param factory the factory of the {@code OsfService} whose calls are planned
+     */
+    public QueryPlanner(EndpointMetrics metrics, RelationshipIndex index, RetrofitOsfServiceFactory factory) {
+        this(metrics, index, concurrencyOf(factory), DEFAULT_DEFER_MILLIS, DEFAULT_BYTES_PER_MILLI);
+    }
+
+    /**
+     * Constructs a planner.
+     *
+     * @param metrics the metrics collected by the {@code OkHttpClient} and {@code ResolvingConverterFactory}
+     * @param index the relationship index used by the {@code ResolvingConverterFactory}
+     * @param concurrency the number of relationship requests made concurrently
+     * @param deferMillis the cost above which a to-many relationship is deferred, in milliseconds
+     * @param bytesPerMilli the transfer rate of a response, in bytes per millisecond
+     */
+    public QueryPlanner(EndpointMetrics metrics, RelationshipIndex index, int concurrency, double deferMillis,
+                        double bytesPerMilli) {
+        if (metrics == null || index == null) {
+            throw new IllegalArgumentException("EndpointMetrics and RelationshipIndex must not be null.");
+        }
+        if (concurrency < 1 || deferMillis <= 0 || bytesPerMilli <= 0) {
+            throw new IllegalArgumentException("Concurrency, deferral threshold and transfer rate must be positive.");
+        }
+        this.metrics = metrics;
+        this.index = index;
+        this.concurrency = concurrency;
+        this.deferMillis = deferMillis;
+        this.bytesPerMilli = bytesPerMilli;
+    }
+
+    private static int concurrencyOf(RetrofitOsfServiceFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("RetrofitOsfServiceFactory must not be null.");
+        }
+        return Math.max(1, factory.getRelationshipConcurrency());
+    }
+
+    /**
+     * Plans the resolution of the relationships of {@code resourceCount} resources of the supplied model class.
+     *
+     * @param modelClass the model class of the resources in the response, e.g. {@code Node.class}
+     * @param profile the relationships to follow
+     * @param resourceCount the number of resources in the response: 1 for a single resource, the page size for a list
+     * @return the plan
+     */
+    public Plan plan(Class<?> modelClass, ResolutionProfile profile, int resourceCount) {
+        String type = index.getType(modelClass);
+        if (type == null) {
+            throw new IllegalArgumentException(modelClass + " is not a JSON-API model class.");
+        }
+        if (profile == null || resourceCount < 1) {
+            throw new IllegalArgumentException("Profile must not be null, and resource count must be positive.");
+        }
+
+        Map<String, Decision> decisions = new LinkedHashMap<>();
+        ResolutionProfile planned = profile;
+        for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(modelClass)) {
+            if (!profile.follows(rel.getName(), 1)) {
+                continue;
+            }
+            Decision decision = decide(type, rel, profile, resourceCount);
+            decisions.put(rel.getName(), decision);
+            if (decision.strategy == Strategy.DEFER) {
+                planned = planned.defer(rel.getName());
+            }
+        }
+
+        Plan plan = new Plan(modelClass, resourceCount, Collections.unmodifiableMap(decisions), planned);
+        plans.put(modelClass.getSimpleName() + ' ' + profile, plan);
+        LOG.debug("{}", plan);
+        return plan;
+    }
+
+    /**
+     * The most recent plan for each model class and profile, for inspection.
+     *
+     * @return the plans, keyed by model class name and profile
+     */
+    public Map<String, Plan> getPlans() {
+        return Collections.unmodifiableMap(new TreeMap<>(plans));
+    }
+
+    private Decision decide(String type, RelationshipIndex.ResolvedRelationship rel, ResolutionProfile profile,
+                            int resourceCount) {
+        EndpointMetrics.Relationship observed = metrics.getRelationship(type, rel.getName());
+        boolean isObserved = observed != null && observed.getDocumentCount() > 0;
+
+        double latency = DEFAULT_LATENCY_MILLIS;
+        long bytes = DEFAULT_DOCUMENT_BYTES;
+        double resources = 1;
+        if (isObserved) {
+            EndpointMetrics.Endpoint endpoint = observed.getEndpoint() == null ? null :
+                    metrics.getEndpoint(observed.getEndpoint());
+            // prefer the latency of the HTTP request; the retrieval time is shortened by prefetching
+            latency = endpoint != null && endpoint.getRequestCount() > 0 ?
+                    endpoint.getLatencyMillis() : observed.getRetrievalMillis();
+            bytes = observed.getBytesPerDocument();
+            resources = observed.getResourcesPerDocument();
+        }
+
+        double fanOut = Math.ceil((double) resourceCount / concurrency) * latency;
+        double embed = resourceCount * bytes / bytesPerMilli;
+        // an unobserved to-many relationship may be truncated when embedded
+        boolean embeddable = isObserved && (!rel.isToMany() || resources <= EMBED_LIMIT);
+
+        Strategy strategy;
+        if (rel.isDeferred() || (rel.isToMany() && profile.defers(rel.getName()))) {
+            strategy = Strategy.DEFER;
+        } else if (embeddable && embed < fanOut) {
+            strategy = Strategy.EMBED;
+        } else {
+            strategy = Strategy.FAN_OUT;
+        }
+
+        double cost = strategy == Strategy.EMBED ? embed : fanOut;
+        if (strategy != Strategy.DEFER && rel.isToMany() && cost > deferMillis) {
+            strategy = Strategy.DEFER;
+        }
+
+        return new Decision(rel.getName(), strategy, embeddable ? embed : Double.NaN, fanOut, isObserved);
+    }
+
+    /**
+     * The resolution chosen for each relationship of a response.
+     */
+    public static class Plan {
+
+        private final Class<?> modelClass;
+
+        private final int resourceCount;
+
+        private final Map<String, Decision> decisions;
+
+        private final ResolutionProfile profile;
+
+        private Plan(Class<?> modelClass, int resourceCount, Map<String, Decision> decisions,
+                     ResolutionProfile profile) {
+            this.modelClass = modelClass;
+            this.resourceCount = resourceCount;
+            this.decisions = decisions;
+            this.profile = profile;
+        }
+
+        /**
+         * The model class of the resources in the response.
+         *
+         * @return the model class
+         */
+        public Class<?> getModelClass() {
+            return modelClass;
+        }
+
+        /**
+         * The number of resources in the response.
+         *
+         * @return the number of resources
+         */
+        public int getResourceCount() {
+            return resourceCount;
+        }
+
+        /**
+         * The decision made for each followed relationship.
+         *
+         * @return the decisions, keyed by relationship name
+         */
+        public Map<String, Decision> getDecisions() {
+            return decisions;
+        }
+
+        /**
+         * The relationships to embed, which should be supplied as the {@code embed} parameter of the call.
+         *
+         * @return the names of the relationships to embed
+         */
+        public List<String> getEmbeds() {
+            List<String> embeds = new ArrayList<>();
+            decisions.values().stream().filter(d -> d.strategy == Strategy.EMBED).forEach(d -> embeds.add(d.name));
+            return embeds;
+        }
+
+        /**
+         * The profile to deserialize the response with, which defers the relationships chosen to be deferred.
+         *
+         * @return the profile
+         */
+        public ResolutionProfile getProfile() {
+            return profile;
+        }
+
+        /**
+         * The estimated time spent resolving the relationships that are not deferred, assuming that they are
+         * resolved one after another.
+         *
+         * @return the estimated cost, in milliseconds
+         */
+        public double getEstimatedMillis() {
+            return decisions.values().stream().mapToDouble(Decision::getEstimatedMillis).sum();
+        }
+
+        /**
+         * Answers a call which deserializes its response using {@link #getProfile() the planned profile}.
+         *
+         * @param call the call, which should have been made with {@link #getEmbeds() the planned embeds}
+         * @param <T> the type of the response body
+         * @return a call which applies the plan
+         */
+        public <T> Call<T> attach(Call<T> call) {
+            return profile.attach(call);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Plan{").append(modelClass.getSimpleName())
+                    .append(" x").append(resourceCount)
+                    .append(String.format(", estimated ms=%.1f", getEstimatedMillis()));
+            decisions.values().forEach(decision -> sb.append(", ").append(decision));
+            return sb.append('}').toString();
+        }
+    }
+
+    /**
+     * The resolution chosen for a single relationship, with the estimates it was chosen on.
+     */
+    public static class Decision {
+
+        private final String name;
+
+        private final Strategy strategy;
+
+        private final double embedMillis;
+
+        private final double fanOutMillis;
+
+        private final boolean observed;
+
+        private Decision(String name, Strategy strategy, double embedMillis, double fanOutMillis, boolean observed) {
+            this.name = name;
+            this.strategy = strategy;
+            this.embedMillis = embedMillis;
+            this.fanOutMillis = fanOutMillis;
+            this.observed = observed;
+        }
+
+        /**
+         * The relationship name.
+         *
+         * @return the relationship name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * How the relationship is resolved.
+         *
+         * @return the strategy
+         */
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * The estimated cost of embedding the relationship.
+         *
+         * @return the cost in milliseconds, or {@code NaN} if the relationship cannot be embedded
+         */
+        public double getEmbedMillis() {
+            return embedMillis;
+        }
+
+        /**
+         * The estimated cost of fanning out requests for the relationship.
+         *
+         * @return the cost in milliseconds
+         */
+        public double getFanOutMillis() {
+            return fanOutMillis;
+        }
+
+        /**
+         * The estimated cost of the chosen strategy.
+         *
+         * @return the cost in milliseconds, zero if the relationship is deferred
+         */
+        public double getEstimatedMillis() {
+            switch (strategy) {
+                case EMBED:
+                    return embedMillis;
+                case FAN_OUT:
+                    return fanOutMillis;
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Whether the estimates are based on observed metrics, rather than defaults.
+         *
+         * @return true if the relationship has been observed
+         */
+        public boolean isObserved() {
+            return observed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%s (embed ms=%.1f, fan-out ms=%.1f%s)", name, strategy, embedMillis,
+                    fanOutMillis, observed ? "" : ", not observed");
+        }
+    }
+
+}
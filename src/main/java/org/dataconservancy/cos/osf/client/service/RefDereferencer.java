@@ -0,0 +1,404 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.NodeBase;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.dataconservancy.cos.osf.client.model.User;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.UrlToIdTransform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Dereferences relationships that are stored as bare urls ({@code ResolutionStrategy.REF}), such as
+ * {@code NodeBase.root}, {@code NodeBase.parent}, {@code NodeBase.forked_from}, {@code Registration.registered_from}
+ * and {@code Registration.registered_by}, into typed model objects.  Every dereferenced object is cached, so a
+ * resource that is referenced many times is retrieved once:
+ * <pre>
+ *     RefDereferencer refs = new RefDereferencer(osfService);
+ *     for (Node component : components) {
+ *         List&lt;NodeBase&gt; ancestry = refs.ancestors(component);
+ *         // ...
+ *     }
+ *     refs.shutdown();
+ * </pre>
+ * <p>
+ * {@link #ancestors(NodeBase)} walks parent links to the root.  The ancestry of every node on the way is remembered,
+ * so computing the ancestry of many components of the same project retrieves each shared ancestor once.
+ * </p>
+ * <p>
+ * Lookups are made through {@link BatchedLookups}, and resolve none of the relationships of the dereferenced
+ * resources, so dereferencing a root does not retrieve its component tree.  A lookup is sent as soon as the thread
+ * dereferencing it waits for it, so a single-threaded walk does not wait out the batching window; lookups made at the
+ * same time by other threads may share its request.
+ * </p>
+ * <p>
+ * Resources that do not exist dereference to {@code null}; failures are not cached, so a failed dereference may be
+ * retried.  The cache is not bounded: instances are meant to live for the duration of a crawl or harvest, and may be
+ * {@link #clear() cleared} between them.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class RefDereferencer {
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    private final Function<String, CompletableFuture<Node>> nodeLookup;
+
+    private final Function<String, CompletableFuture<Registration>> registrationLookup;
+
+    private final Function<String, CompletableFuture<User>> userLookup;
+
+    private final BatchedLookups lookups;
+
+    /**
+     * Sends the lookups waiting to be batched
+     */
+    private final Runnable flush;
+
+    private final ConcurrentMap<String, CompletableFuture<Node>> nodes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CompletableFuture<Registration>> registrations = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CompletableFuture<User>> users = new ConcurrentHashMap<>();
+
+    /**
+     * Ancestry chains keyed by the url path of the node or registration whose ancestry they are, nearest first.
+     */
+    private final ConcurrentMap<String, List<NodeBase>> ancestry = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructs a dereferencer which retrieves resources using {@code osfService}, batching lookups using the
+     * default settings of {@link BatchedLookups}, and resolving none of their relationships.
+     *
+     * @param osfService the service used to retrieve referenced resources
+     */
+    public RefDereferencer(OsfService osfService) {
+        this(new BatchedLookups(osfService, BatchedLookups.DEFAULT_MAX_BATCH_SIZE,
+                BatchedLookups.DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS, ResolutionProfile.none()));
+    }
+
+    /**
+     * Constructs a dereferencer which retrieves resources using the supplied lookups.
+     *
+     * @param lookups the lookups used to retrieve referenced resources
+     */
+    public RefDereferencer(BatchedLookups lookups) {
+        if (lookups == null) {
+            throw new IllegalArgumentException("BatchedLookups must not be null.");
+        }
+        this.lookups = lookups;
+        this.flush = lookups::flush;
+        this.nodeLookup = lookups::node;
+        this.registrationLookup = lookups::registration;
+        this.userLookup = lookups::user;
+    }
+
+    /**
+     * Constructs a dereferencer which retrieves resources, by identifier, using the supplied functions.
+     *
+     * @param nodeLookup answers nodes
+     * @param registrationLookup answers registrations
+     * @param userLookup answers users
+     */
+    RefDereferencer(Function<String, CompletableFuture<Node>> nodeLookup,
+                    Function<String, CompletableFuture<Registration>> registrationLookup,
+                    Function<String, CompletableFuture<User>> userLookup) {
+        this.lookups = null;
+        this.flush = () -> { };
+        this.nodeLookup = nodeLookup;
+        this.registrationLookup = registrationLookup;
+        this.userLookup = userLookup;
+    }
+
+    /**
+     * Dereferences a node or registration url, e.g. the value of {@code NodeBase.getParent()}.  Urls containing a
+     * {@code registrations} path segment answer a {@link Registration}, other urls answer a {@link Node}.
+     *
+     * @param ref the url of the node or registration, may be {@code null}
+     * @return the node or registration, or {@code null} if {@code ref} is {@code null} or the resource does not exist
+     */
+    public NodeBase nodeBase(String ref) {
+        if (ref == null) {
+            return null;
+        }
+        return isRegistration(ref) ? registration(ref) : node(ref);
+    }
+
+    /**
+     * Dereferences a node url or identifier.
+     *
+     * @param ref the url or identifier of the node, may be {@code null}
+     * @return the node, or {@code null} if {@code ref} is {@code null} or the node does not exist
+     */
+    public Node node(String ref) {
+        return dereference(ref, nodes, nodeLookup);
+    }
+
+    /**
+     * Dereferences a registration url or identifier.
+     *
+     * @param ref the url or identifier of the registration, may be {@code null}
+     * @return the registration, or {@code null} if {@code ref} is {@code null} or the registration does not exist
+     */
+    public Registration registration(String ref) {
+        return dereference(ref, registrations, registrationLookup);
+    }
+
+    /**
+     * Dereferences a user url or identifier.
+     *
+     * @param ref the url or identifier of the user, may be {@code null}
+     * @return the user, or {@code null} if {@code ref} is {@code null} or the user does not exist
+     */
+    public User user(String ref) {
+        return dereference(ref, users, userLookup);
+    }
+
+    /**
+     * Dereferences the root of a node or registration.
+     *
+     * @param nodeBase the node or registration
+     * @return the root, or {@code null} if it cannot be dereferenced
+     */
+    public NodeBase root(NodeBase nodeBase) {
+        return nodeBase(nodeBase.getRoot());
+    }
+
+    /**
+     * Dereferences the parent of a node or registration.
+     *
+     * @param nodeBase the node or registration
+     * @return the parent, or {@code null} if {@code nodeBase} is a top-level node or registration
+     */
+    public NodeBase parent(NodeBase nodeBase) {
+        return nodeBase(nodeBase.getParent());
+    }
+
+    /**
+     * Dereferences the node or registration that a node or registration was forked from.
+     *
+     * @param nodeBase the node or registration
+     * @return the original, or {@code null} if {@code nodeBase} is not a fork
+     */
+    public NodeBase forkedFrom(NodeBase nodeBase) {
+        return nodeBase(nodeBase.getForked_from());
+    }
+
+    /**
+     * Dereferences the node that a registration was registered from.
+     *
+     * @param registration the registration
+     * @return the registered node, or {@code null} if it cannot be dereferenced
+     */
+    public Node registeredFrom(Registration registration) {
+        return node(registration.getRegistered_from());
+    }
+
+    /**
+     * Dereferences the user that created a registration.
+     *
+     * @param registration the registration
+     * @return the user, or {@code null} if it cannot be dereferenced
+     */
+    public User registeredBy(Registration registration) {
+        return user(registration.getRegistered_by());
+    }
+
+    /**
+     * Answers the ancestors of a node or registration, by following parent links to the root.  The ancestry of
+     * each node on the way is remembered, so ancestors shared with previously supplied nodes are not retrieved or
+     * walked again.
+     *
+     * @param nodeBase the node or registration
+     * @return the ancestors, nearest first, ending with the root; empty if {@code nodeBase} is a top-level node
+     * @throws IllegalStateException if the parent links form a cycle
+     */
+    public List<NodeBase> ancestors(NodeBase nodeBase) {
+        // walk up until a node with a known ancestry, or the root, is found
+        List<String> refs = new ArrayList<>();
+        List<NodeBase> walked = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        List<NodeBase> known = Collections.emptyList();
+        NodeBase current = nodeBase;
+        String currentKey = keyOf(nodeBase);
+
+        while (current != null) {
+            if (currentKey != null) {
+                List<NodeBase> memo = ancestry.get(currentKey);
+                if (memo != null) {
+                    hitCount.incrementAndGet();
+                    if (walked.isEmpty()) {
+                        return memo;
+                    }
+                    List<NodeBase> withCurrent = new ArrayList<>(memo.size() + 1);
+                    withCurrent.add(current);
+                    withCurrent.addAll(memo);
+                    known = Collections.unmodifiableList(withCurrent);
+                    break;
+                }
+                if (!seen.add(currentKey)) {
+                    throw new IllegalStateException("The parent links of " + currentKey + " form a cycle: " + seen);
+                }
+            }
+            refs.add(currentKey);
+            walked.add(current);
+            currentKey = current.getParent() == null ? null : keyOf(current.getParent());
+            current = nodeBase(current.getParent());
+        }
+
+        // remember the ancestry of every node that was walked, from the top down
+        List<NodeBase> chain = known;
+        for (int i = walked.size() - 1; i >= 0; i--) {
+            List<NodeBase> ancestors = chain;
+            if (refs.get(i) != null) {
+                ancestry.putIfAbsent(refs.get(i), ancestors);
+            }
+            if (i > 0) {
+                List<NodeBase> next = new ArrayList<>(ancestors.size() + 1);
+                next.add(walked.get(i));
+                next.addAll(ancestors);
+                chain = Collections.unmodifiableList(next);
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * The number of dereferences answered from the cache, including ancestry chains.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of dereferences that required a lookup.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Discards every cached resource and ancestry chain.
+     */
+    public void clear() {
+        nodes.clear();
+        registrations.clear();
+        users.clear();
+        ancestry.clear();
+    }
+
+    /**
+     * Stops the threads used to batch lookups, if this dereferencer created them.
+     */
+    public void shutdown() {
+        if (lookups != null) {
+            lookups.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RefDereferencer{" +
+                "nodes=" + nodes.size() +
+                ", registrations=" + registrations.size() +
+                ", users=" + users.size() +
+                ", ancestries=" + ancestry.size() +
+                ", hits=" + hitCount.get() +
+                ", misses=" + missCount.get() +
+                '}';
+    }
+
+    private <T> T dereference(String ref, ConcurrentMap<String, CompletableFuture<T>> cache,
+                              Function<String, CompletableFuture<T>> lookup) {
+        if (ref == null) {
+            return null;
+        }
+
+        String id = URL_TO_ID.apply(ref);
+        CompletableFuture<T> result = cache.get(id);
+        if (result != null) {
+            hitCount.incrementAndGet();
+        } else {
+            CompletableFuture<T> pending = new CompletableFuture<>();
+            result = cache.putIfAbsent(id, pending);
+            if (result != null) {
+                hitCount.incrementAndGet();
+            } else {
+                missCount.incrementAndGet();
+                result = pending;
+                lookup.apply(id).whenComplete((value, e) -> {
+                    if (e != null) {
+                        cache.remove(id, pending);
+                        pending.completeExceptionally(e);
+                    } else {
+                        pending.complete(value);
+                    }
+                });
+                flush.run();
+            }
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while dereferencing " + ref, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Answers the key of the ancestry chain of the supplied node or registration, which distinguishes a node from a
+     * registration with the same identifier.
+     */
+    private static String keyOf(NodeBase nodeBase) {
+        if (nodeBase.getId() == null) {
+            return null;
+        }
+        return (nodeBase instanceof Registration ? "registrations/" : "nodes/") + nodeBase.getId();
+    }
+
+    private static String keyOf(String ref) {
+        return (isRegistration(ref) ? "registrations/" : "nodes/") + URL_TO_ID.apply(ref);
+    }
+
+    private static boolean isRegistration(String ref) {
+        return ref.contains("/registrations/");
+    }
+
+}
@@ -16,20 +16,28 @@
 package org.dataconservancy.cos.osf.client.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jasminb.jsonapi.RelationshipResolver;
 import com.github.jasminb.jsonapi.ResourceConverter;
 import com.github.jasminb.jsonapi.annotations.Type;
 import com.github.jasminb.jsonapi.retrofit.JSONAPIConverterFactory;
 import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.Request;
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
 import org.dataconservancy.cos.osf.client.config.JacksonOsfConfigurationService;
 import org.dataconservancy.cos.osf.client.config.JacksonWbConfigurationService;
 import org.dataconservancy.cos.osf.client.config.OsfConfigurationService;
 import org.dataconservancy.cos.osf.client.config.WbConfigurationService;
 import org.dataconservancy.cos.osf.client.support.AuthInterceptor;
+import org.dataconservancy.cos.osf.client.support.CoalescingRelationshipResolver;
+import org.dataconservancy.cos.osf.client.support.LazyRelationshipList;
+import org.dataconservancy.cos.osf.client.support.PaginatingRelationshipResolver;
+import org.dataconservancy.cos.osf.client.support.PrefetchingRelationshipResolver;
+import org.dataconservancy.cos.osf.client.support.RelationshipIndex;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.ResolvingConverterFactory;
+import org.dataconservancy.cos.osf.client.support.ResourceConverterGlobalResolver;
+import org.dataconservancy.cos.osf.client.support.SessionRelationshipResolver;
 import retrofit.Retrofit;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -74,6 +82,31 @@ import java.util.List;
  *     // custom-client-config.json resolved to /org/dataconservancy/cos/osf/client/config/custom-client-config.json
  *     OsfService osfService = factory.getOsfService(OsfService.class);
  * </pre>
+ * <h4>Concurrent relationship resolution</h4>
+ * <pre>
+ *     RetrofitOsfServiceFactory factory = new RetrofitOsfServiceFactory("osf-client.json", 4);
+ *     // the relationships of each resource (contributors, files, wikis, children, ...) are retrieved four at a time
+ *     OsfService osfService = factory.getOsfService(OsfService.class);
+ * </pre>
+ * <h4>Lazy relationships</h4>
+ * <pre>
+ *     RetrofitOsfServiceFactory factory = new RetrofitOsfServiceFactory("osf-client.json", 0, true);
+ *     OsfService osfService = factory.getOsfService(OsfService.class);
+ *     Node node = osfService.node("v8x57").execute().body();
+ *     // node.getChildren(), node.getFiles(), etc. are retrieved when first accessed
+ * </pre>
+ * <h4>Paginated relationships</h4>
+ * <pre>
+ *     RetrofitOsfServiceFactory factory = new RetrofitOsfServiceFactory("osf-client.json", 0, false, 4);
+ *     // every page of node.getChildren(), node.getFiles(), etc. is retrieved, four pages at a time
+ *     OsfService osfService = factory.getOsfService(OsfService.class);
+ * </pre>
+ * <h4>Resolution profiles</h4>
+ * <pre>
+ *     RetrofitOsfServiceFactory factory = new RetrofitOsfServiceFactory();
+ *     // only contributors are retrieved; other relationships are left empty
+ *     OsfService osfService = factory.getOsfService(OsfService.class, ResolutionProfile.none().include("contributors"));
+ * </pre>
  * <h4>Custom JSONAPIConverter</h4>
  * <pre>
  *     List&lt;Class&lt;?&gt;&gt; domainClasses = new ArrayList&lt;&gt;();
@@ -144,6 +177,11 @@ public class RetrofitOsfServiceFactory {
      */
     private final JSONAPIConverterFactory jsonApiConverterFactory;
 
+    /**
+     * The number of relationships of a resource retrieved concurrently, zero if they are retrieved one at a time
+     */
+    private int relationshipConcurrency;
+
 
     /**
      * Constructs a new RetrofitOsfServiceFactory with the default JSON configuration classpath resource.
@@ -165,12 +203,77 @@ public class RetrofitOsfServiceFactory {
      * scan the classpath under {@code org.dataconservancy.cos.osf.client.model} for classes with the {@link Type}
      * annotation, and add them to the {@link com.github.jasminb.jsonapi.ResourceConverter} used to convert JSON
      * documents to Java objects.  The {@code ResourceConverter} is also configured to resolve urls using the
-     * {@code OkHttpClient}.
+     * {@code OkHttpClient}; concurrent requests for the same relationship url are coalesced into a single request.
+     * Only the first page of a paginated to-many relationship is retrieved.
      *
      * @param jsonConfigurationResource classpath resource containing the JSON configuration for the OSF and Waterbutler
      *                                  HTTP endpoints
      */
     public RetrofitOsfServiceFactory(String jsonConfigurationResource) {
+        this(jsonConfigurationResource, 0);
+    }
+
+    /**
+     * Constructs a new RetrofitOsfServiceFactory with the supplied JSON configuration classpath resource, resolving
+     * the relationships of each JSON-API resource concurrently.  Behaves as
+     * {@link #RetrofitOsfServiceFactory(String)}, except that when {@code relationshipConcurrency} is positive, the
+     * {@code ResourceConverter} is configured with a {@link PrefetchingRelationshipResolver} which retrieves up to
+     * {@code relationshipConcurrency} relationships at a time.  When {@code relationshipConcurrency} is zero,
+     * relationships are resolved one at a time.
+     *
+     * @param jsonConfigurationResource classpath resource containing the JSON configuration for the OSF and Waterbutler
+     *                                  HTTP endpoints
+     * @param relationshipConcurrency   the maximum number of relationships retrieved concurrently, or zero to resolve
+     *                                  relationships sequentially
+     */
+    public RetrofitOsfServiceFactory(String jsonConfigurationResource, int relationshipConcurrency) {
+        this(jsonConfigurationResource, relationshipConcurrency, false);
+    }
+
+    /**
+     * Constructs a new RetrofitOsfServiceFactory with the supplied JSON configuration classpath resource, optionally
+     * resolving to-many relationships lazily.  Behaves as {@link #RetrofitOsfServiceFactory(String, int)}, except that
+     * when {@code lazyRelationships} is {@code true}, to-many relationships (e.g. {@code Node.children},
+     * {@code NodeBase.files}) are not resolved when a resource is deserialized.  Instead, they are populated with a
+     * {@link LazyRelationshipList}, which resolves the relationship the first time it is accessed.
+     *
+     * @param jsonConfigurationResource classpath resource containing the JSON configuration for the OSF and Waterbutler
+     *                                  HTTP endpoints
+     * @param relationshipConcurrency   the maximum number of relationships retrieved concurrently, or zero to resolve
+     *                                  relationships sequentially
+     * @param lazyRelationships         whether to-many relationships are resolved when first accessed
+     */
+    public RetrofitOsfServiceFactory(String jsonConfigurationResource, int relationshipConcurrency,
+                                     boolean lazyRelationships) {
+        this(jsonConfigurationResource, relationshipConcurrency, lazyRelationships,
+                PaginatingRelationshipResolver.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a new RetrofitOsfServiceFactory with the supplied JSON configuration classpath resource, optionally
+     * retrieving every page of a paginated to-many relationship.  Behaves as
+     * {@link #RetrofitOsfServiceFactory(String, int, boolean)}, except that when {@code pageConcurrency} is positive,
+     * the relationship urls are resolved by a {@link PaginatingRelationshipResolver}, which retrieves the remaining
+     * pages of a relationship up to {@code pageConcurrency} at a time.  When {@code pageConcurrency} is zero, only the
+     * first page of a relationship is retrieved.
+     *
+     * @param jsonConfigurationResource classpath resource containing the JSON configuration for the OSF and Waterbutler
+     *                                  HTTP endpoints
+     * @param relationshipConcurrency   the maximum number of relationships retrieved concurrently, or zero to resolve
+     *                                  relationships sequentially
+     * @param lazyRelationships         whether to-many relationships are resolved when first accessed
+     * @param pageConcurrency           the maximum number of pages of a relationship retrieved concurrently, or zero
+     *                                  to retrieve the first page only
+     */
+    public RetrofitOsfServiceFactory(String jsonConfigurationResource, int relationshipConcurrency,
+                                     boolean lazyRelationships, int pageConcurrency) {
+        if (relationshipConcurrency < 0) {
+            throw new IllegalArgumentException("Relationship concurrency must not be negative.");
+        }
+        if (pageConcurrency < 0) {
+            throw new IllegalArgumentException("Page concurrency must not be negative.");
+        }
+
         try {
             this.osfConfigSvc = new JacksonOsfConfigurationService(jsonConfigurationResource);
         } catch (Exception e) {
@@ -198,18 +301,26 @@ public class RetrofitOsfServiceFactory {
         ResourceConverter resourceConverter = new ResourceConverter(new ObjectMapper(),
                 domainClasses.toArray(new Class[]{}));
 
-        resourceConverter.setGlobalResolver(relUrl -> {
-            com.squareup.okhttp.Call req = httpClient.newCall(new Request.Builder().url(relUrl).build());
-            try {
-                return req.execute().body().bytes();
-            } catch (IOException e) {
-                throw new RuntimeException(e.getMessage(), e);
-            }
-        });
+        RelationshipIndex relationshipIndex = new RelationshipIndex(domainClasses, lazyRelationships);
 
+        // Concurrent requests for the same relationship url share a single HTTP request
+        RelationshipResolver resolver =
+                new CoalescingRelationshipResolver(new ResourceConverterGlobalResolver(httpClient));
+
+        if (pageConcurrency > 0) {
+            resolver = new PaginatingRelationshipResolver(resolver, pageConcurrency);
+        }
+
+        if (relationshipConcurrency > 0) {
+            resolver = new PrefetchingRelationshipResolver(resolver, relationshipConcurrency);
+        }
+        this.relationshipConcurrency = relationshipConcurrency;
+
+        SessionRelationshipResolver sessionResolver = new SessionRelationshipResolver(resolver, relationshipIndex);
+        resourceConverter.setGlobalResolver(sessionResolver);
 
         try {
-            this.jsonApiConverterFactory = new JSONAPIConverterFactory(resourceConverter);
+            this.jsonApiConverterFactory = new ResolvingConverterFactory(resourceConverter, sessionResolver);
         } catch (Exception e) {
             throw new IllegalStateException(
                     String.format(ERR_CONFIGURING_CLASS, JSONAPIConverterFactory.class.getName(), e.getMessage()), e);
@@ -426,6 +537,16 @@ public class RetrofitOsfServiceFactory {
         this.jsonApiConverterFactory = jsonApiConverterFactory;
     }
 
+    /**
+     * Answers the number of relationships of a resource this factory's clients retrieve concurrently.  Zero means
+     * relationships are retrieved one at a time.
+     *
+     * @return the relationship concurrency, zero if relationships are retrieved sequentially
+     */
+    public int getRelationshipConcurrency() {
+        return relationshipConcurrency;
+    }
+
 
     /**
      * Answers a configured Retrofit-based OSF client that communicates with the OSF V2 API at the base URL obtained
@@ -447,4 +568,35 @@ public class RetrofitOsfServiceFactory {
         return retrofit.create(osfService);
     }
 
+    /**
+     * Answers a configured Retrofit-based OSF client, as {@link #getOsfService(Class)}, which follows only the
+     * relationships allowed by {@code profile} when mapping JSON responses to Java objects.  A profile attached to an
+     * individual call using {@link ResolutionProfile#attach(retrofit.Call)} takes precedence.
+     *
+     * @param osfService the Retrofit interface that contains the methods used by the developer to communicate with the
+     *                   OSF API.
+     * @param profile    the relationships to follow
+     * @param <T>        the Retrofit interface type
+     * @return a configured Retrofit interface, ready to service requests.
+     * @throws IllegalStateException if this factory was not configured with a {@link ResolvingConverterFactory}
+     */
+    public <T> T getOsfService(Class<T> osfService, ResolutionProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException(String.format(NOT_NULL_IAE, ResolutionProfile.class.getName()));
+        }
+        if (!(jsonApiConverterFactory instanceof ResolvingConverterFactory)) {
+            throw new IllegalStateException("Resolution profiles require a " +
+                    ResolvingConverterFactory.class.getName() + ", but this factory was configured with a " +
+                    jsonApiConverterFactory.getClass().getName());
+        }
+
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(osfConfigSvc.getConfiguration().getBaseUri().toString())
+                .addConverterFactory(((ResolvingConverterFactory) jsonApiConverterFactory).withProfile(profile))
+                .client(httpClient)
+                .build();
+
+        return retrofit.create(osfService);
+    }
+
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.annotations.Type;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds JSON-API sparse fieldset query parameters ({@code fields[nodes]=title,date_modified}), which limit the
+ * attributes and relationships returned for each resource.  Bulk jobs which read only a few attributes of each
+ * resource download and parse far less:
+ * <pre>
+ *     Map&lt;String, String&gt; params = SparseFieldset.of(Node.class, "title", "date_modified", "category").toQueryMap();
+ *     ResourceList&lt;Node&gt; page = osfService.paginatedNodeList(params).execute().body();
+ * </pre>
+ * <p>
+ * The JSON-API type is taken from the {@link Type} annotation of the model class.  Attributes that are not requested
+ * are left unset ({@code null}) on the deserialized model objects, and relationships that are not requested are not
+ * resolved.  The pagination links returned by the OSF retain the fieldset.  Instances are immutable.
+ * </p>
+ * <p>
+ * Attributes mapped to primitive fields cannot be left unset: when not requested, they read as {@code false} or
+ * {@code 0}, indistinguishable from a returned value.  These are the {@code boolean} attributes of {@code Comment}
+ * (e.g. {@code has_children}, {@code can_edit}) and the {@code size} of {@code Wiki}; request them if they are read.
+ * </p>
+ */
+public final class SparseFieldset {
+
+    private final Map<String, Set<String>> fields;
+
+    private SparseFieldset(Map<String, Set<String>> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Answers a fieldset limiting resources of the supplied model class to the named fields.
+     *
+     * @param modelClass a model class annotated with {@link Type}
+     * @param fields the JSON-API attribute and relationship names to return, e.g. "{@code date_modified}"
+     * @return the fieldset
+     */
+    public static SparseFieldset of(Class<?> modelClass, String... fields) {
+        return new SparseFieldset(Collections.emptyMap()).and(modelClass, fields);
+    }
+
+    /**
+     * Answers a fieldset which also limits resources of the supplied model class to the named fields, e.g. to limit
+     * the fields of included or embedded resources.
+     *
+     * @param modelClass a model class annotated with {@link Type}
+     * @param fields the JSON-API attribute and relationship names to return
+     * @return the new fieldset
+     */
+    public SparseFieldset and(Class<?> modelClass, String... fields) {
+        if (modelClass == null || !modelClass.isAnnotationPresent(Type.class)) {
+            throw new IllegalArgumentException("Model class must be annotated with " + Type.class.getName());
+        }
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("At least one field must be supplied.");
+        }
+
+        Map<String, Set<String>> result = new LinkedHashMap<>(this.fields);
+        Set<String> typeFields = new LinkedHashSet<>(result.getOrDefault(type(modelClass), Collections.emptySet()));
+        Collections.addAll(typeFields, fields);
+        result.put(type(modelClass), Collections.unmodifiableSet(typeFields));
+        return new SparseFieldset(Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Answers the fieldset as query parameters, suitable for an {@code OsfService} method accepting a
+     * {@code @QueryMap}.  The returned map is mutable, so other parameters (e.g. filters) may be added.
+     *
+     * @return the query parameters
+     */
+    public Map<String, String> toQueryMap() {
+        return toQueryMap(Collections.emptyMap());
+    }
+
+    /**
+     * Answers the fieldset combined with the supplied query parameters.
+     *
+     * @param params other query parameters, which are not modified
+     * @return the combined query parameters
+     */
+    public Map<String, String> toQueryMap(Map<String, String> params) {
+        Map<String, String> result = new HashMap<>(params);
+        fields.forEach((type, typeFields) -> result.put("fields[" + type + "]", String.join(",", typeFields)));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toQueryMap().toString();
+    }
+
+    private static String type(Class<?> modelClass) {
+        return modelClass.getAnnotation(Type.class).value();
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.support.DaemonThreadFactory;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.UrlToIdTransform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Retrieves a project and all of its components as a {@link NodeTree}.  Rather than following {@code Node.children}
+ * one node at a time, the tree is retrieved level by level: the children of every node in a level are listed using
+ * {@code filter[parent]} queries on the nodes endpoint, which are sent concurrently.  The time taken grows with the
+ * depth of the tree rather than with the number of nodes in it:
+ * <pre>
+ *     TreeFetcher fetcher = new TreeFetcher(osfService);
+ *     NodeTree tree = fetcher.fetch("v8x57");
+ *     for (Node component : tree.getChildren("v8x57")) {
+ *         // ...
+ *     }
+ *     fetcher.shutdown();
+ * </pre>
+ * <p>
+ * By default nodes are retrieved without resolving any relationship, so that each level costs one request per page of
+ * children however many relationships a node has; callers opt in to the relationships they need with a
+ * {@link ResolutionProfile}, e.g. {@code ResolutionProfile.none().include("contributors")}, or defer them.
+ * {@code children} is never followed, since the tree supplies them.  By default one parent identifier is sent per
+ * request; if the OSF instance accepts a comma-separated list of parents, more may be sent per request to reduce the
+ * number of requests.  Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class TreeFetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TreeFetcher.class);
+
+    /**
+     * Default number of concurrent list requests
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Default profile used to retrieve nodes, which follows no relationships
+     */
+    public static final ResolutionProfile DEFAULT_PROFILE = ResolutionProfile.none();
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    private static final int PAGE_SIZE = 100;
+
+    private final Function<String, Node> rootLookup;
+
+    private final Function<List<String>, List<Node>> childLookup;
+
+    private final ExecutorService executor;
+
+    private final int parentsPerRequest;
+
+    private final AtomicLong lookupCount = new AtomicLong();
+
+    /**
+     * Constructs a fetcher sending up to {@link #DEFAULT_CONCURRENCY} concurrent requests, one parent per request,
+     * using the {@link #DEFAULT_PROFILE default profile}.
+     *
+     * @param osfService the service used to retrieve nodes
+     */
+    public TreeFetcher(OsfService osfService) {
+        this(osfService, DEFAULT_CONCURRENCY, 1, DEFAULT_PROFILE);
+    }
+
+    /**
+     * Constructs a fetcher sending up to {@code concurrency} concurrent requests.
+     *
+     * @param osfService the service used to retrieve nodes
+     * @param concurrency the maximum number of concurrent requests; 1 sends requests one at a time
+     * @param parentsPerRequest the number of parent identifiers sent in each {@code filter[parent]} query
+     * @param profile the relationships to resolve for each node; {@code children} is never followed
+     */
+    public TreeFetcher(OsfService osfService, int concurrency, int parentsPerRequest, ResolutionProfile profile) {
+        this(rootLookup(osfService, withoutChildren(profile)), childLookup(osfService, withoutChildren(profile)),
+                newExecutor(concurrency), parentsPerRequest);
+    }
+
+    /**
+     * Constructs a fetcher using the supplied lookups.
+     *
+     * @param rootLookup answers the node with the supplied identifier
+     * @param childLookup answers the children of the nodes with the supplied identifiers
+     * @param executor the executor used to send requests concurrently, or {@code null} to send them one at a time
+     * @param parentsPerRequest the number of parent identifiers supplied to each invocation of {@code childLookup}
+     */
+    TreeFetcher(Function<String, Node> rootLookup, Function<List<String>, List<Node>> childLookup,
+                ExecutorService executor, int parentsPerRequest) {
+        if (parentsPerRequest < 1) {
+            throw new IllegalArgumentException("Parents per request must be positive.");
+        }
+        this.rootLookup = rootLookup;
+        this.childLookup = childLookup;
+        this.executor = executor;
+        this.parentsPerRequest = parentsPerRequest;
+    }
+
+    /**
+     * Retrieves the node with the supplied identifier and all of its components.
+     *
+     * @param rootId the identifier or url of the node at the top of the tree
+     * @return the tree, or {@code null} if the node does not exist
+     */
+    public NodeTree fetch(String rootId) {
+        if (rootId == null) {
+            throw new IllegalArgumentException("Root node identifier must not be null.");
+        }
+        Node root = rootLookup.apply(URL_TO_ID.apply(rootId));
+        return root == null ? null : fetch(root);
+    }
+
+    /**
+     * Retrieves all of the components of the supplied node.
+     *
+     * @param root the node at the top of the tree
+     * @return the tree
+     */
+    public NodeTree fetch(Node root) {
+        NodeTree tree = new NodeTree(root);
+        List<String> level = new ArrayList<>();
+        level.add(root.getId());
+
+        int depth = 0;
+        while (!level.isEmpty()) {
+            depth++;
+            List<String> next = new ArrayList<>();
+            for (Node child : childrenOf(level)) {
+                String parentId = child.getParent() == null ? null : URL_TO_ID.apply(child.getParent());
+                if (child.getId() == null || tree.get(parentId) == null) {
+                    LOG.debug("Ignoring node {} with unexpected parent {}", child.getId(), child.getParent());
+                    continue;
+                }
+                if (tree.add(child, parentId, depth)) {
+                    next.add(child.getId());
+                }
+            }
+            LOG.debug("Retrieved {} nodes at depth {} of {}", next.size(), depth, root.getId());
+            level = next;
+        }
+
+        return tree;
+    }
+
+    /**
+     * The number of list queries sent, not counting requests for subsequent pages.
+     *
+     * @return the number of list queries
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * Stops the threads used to send concurrent requests.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Answers the children of every supplied parent, sending one lookup per group of {@code parentsPerRequest}
+     * parents, concurrently if an executor was supplied.
+     */
+    private List<Node> childrenOf(List<String> parentIds) {
+        List<List<String>> groups = new ArrayList<>();
+        for (int i = 0; i < parentIds.size(); i += parentsPerRequest) {
+            groups.add(parentIds.subList(i, Math.min(parentIds.size(), i + parentsPerRequest)));
+        }
+
+        List<Node> result = new ArrayList<>();
+        if (executor == null || groups.size() == 1) {
+            groups.forEach(group -> result.addAll(lookup(group)));
+            return result;
+        }
+
+        List<Future<List<Node>>> futures = new ArrayList<>();
+        groups.forEach(group -> futures.add(executor.submit(() -> lookup(group))));
+        try {
+            for (Future<List<Node>> future : futures) {
+                result.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("Interrupted while retrieving children of " + parentIds, e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+        return result;
+    }
+
+    private List<Node> lookup(List<String> parentIds) {
+        lookupCount.incrementAndGet();
+        List<Node> children = childLookup.apply(parentIds);
+        return children == null ? new ArrayList<>() : children;
+    }
+
+    private static ResolutionProfile withoutChildren(ResolutionProfile profile) {
+        return profile == null ? null : profile.exclude("children");
+    }
+
+    private static Function<String, Node> rootLookup(OsfService osfService, ResolutionProfile profile) {
+        if (osfService == null || profile == null) {
+            throw new IllegalArgumentException("OsfService and ResolutionProfile must not be null.");
+        }
+        return id -> Calls.execute(profile.attach(osfService.node(id)));
+    }
+
+    private static Function<List<String>, List<Node>> childLookup(OsfService osfService, ResolutionProfile profile) {
+        return parentIds -> {
+            Map<String, String> params = new HashMap<>();
+            params.put("filter[parent]", String.join(",", parentIds));
+            params.put("page[size]", String.valueOf(PAGE_SIZE));
+
+            List<Node> children = new ArrayList<>();
+            ResourceList<Node> page = Calls.execute(profile.attach(osfService.paginatedNodeList(params)));
+            while (page != null) {
+                children.addAll(page);
+                page = page.getNext() == null ? null :
+                        Calls.execute(profile.attach(osfService.paginatedNodeList(page.getNext())));
+            }
+            return children;
+        };
+    }
+
+    private static ExecutorService newExecutor(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        if (concurrency == 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-tree"));
+    }
+
+}
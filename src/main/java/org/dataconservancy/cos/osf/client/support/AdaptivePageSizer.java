@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import org.dataconservancy.cos.osf.client.config.OsfConfigurationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An interceptor which chooses the {@code page[size]} of OSF list requests (e.g. {@code nodes/},
+ * {@code registrations/}, {@code users/}, and the logs and comments of a node) from the performance of the pages
+ * each endpoint has returned.  Small pages waste round trips; large pages increase tail latency and the heap needed
+ * to deserialize each page.  For each endpoint the interceptor keeps a moving average of the time to first byte, the
+ * transfer time and size per resource and, when {@link EndpointMetrics} are supplied, the heap allocated per byte
+ * deserialized.  The page size of the next walk of the endpoint is the size at which the transfer is predicted to take
+ * four times as long as the time to first byte, so that round trips are at most a fifth of the time spent, limited to
+ * the size predicted to be returned within the maximum page time and the size predicted to need no more than the
+ * maximum heap to deserialize.  The page size stays within the configured bounds, and changes by at most a factor of
+ * two from one walk to the next.
+ * <p>
+ * Only requests which specify neither a {@code page} nor a {@code page[size]} are changed: the first request of a
+ * walk which follows the {@code links} of each page.  The OSF carries the page size into those links, so the following
+ * pages of the walk are requested with the same size, and page numbers remain consistent.  A request naming a page,
+ * including page 1, is not changed, since its caller may compute the numbers of other pages from the default size.
+ * Requests for single resources, and requests to other hosts (e.g. Waterbutler), are not changed.
+ * </p>
+ * <p>
+ * Only the responses of the requests the interceptor sizes are buffered, in order to time their transfer and count
+ * the resources they return; responses to requests which are sent unchanged, such as the pre-sized pages streamed by
+ * {@code IdEnumerator}, are left unread.  Each walk therefore contributes the timing of its first page.
+ * </p>
+ * <p>
+ * The interceptor should be added to the {@code OkHttpClient} before the {@code EndpointMetrics}:
+ * </p>
+ * <pre>
+ *     EndpointMetrics metrics = new EndpointMetrics();
+ *     httpClient.interceptors().add(new AdaptivePageSizer(osfConfigurationService, metrics));
+ *     httpClient.interceptors().add(metrics);
+ *     // ...
+ *     LOG.info("Page sizes: {}", pageSizer.getPageSizes());
+ * </pre>
+ * <p>
+ * Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class AdaptivePageSizer implements Interceptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePageSizer.class);
+
+    /**
+     * Default smallest page size, which is the page size used by the OSF when none is requested
+     */
+    public static final int DEFAULT_MIN_PAGE_SIZE = 10;
+
+    /**
+     * Default largest page size, which is the largest page size accepted by the OSF
+     */
+    public static final int DEFAULT_MAX_PAGE_SIZE = 100;
+
+    /**
+     * Default maximum time to retrieve a page, in milliseconds
+     */
+    public static final long DEFAULT_MAX_PAGE_MILLIS = 2000;
+
+    /**
+     * Default maximum heap allocated to deserialize a page, in bytes
+     */
+    public static final long DEFAULT_MAX_HEAP_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Weight of the latest page in the moving averages
+     */
+    private static final double WEIGHT = 0.3;
+
+    /**
+     * Minimum ratio of transfer time to time to first byte
+     */
+    private static final double TRANSFER_RATIO = 4;
+
+    private static final String PAGE = "page";
+
+    private static final String PAGE_SIZE = "page[size]";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final OsfConfigurationService osfConfigurationService;
+
+    private final EndpointMetrics metrics;
+
+    private final int minPageSize;
+
+    private final int maxPageSize;
+
+    private final long maxPageMillis;
+
+    private final long maxHeapBytes;
+
+    private final ConcurrentMap<String, Observations> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a page sizer using the default bounds, which does not consider the heap used to deserialize pages.
+     *
+     * @param osfConfigurationService identifies the OSF API host
+     */
+    public AdaptivePageSizer(OsfConfigurationService osfConfigurationService) {
+        this(osfConfigurationService, null);
+    }
+
+    /**
+     * Constructs a page sizer using the default bounds.
+     *
+     * @param osfConfigurationService identifies the OSF API host
+     * @param metrics supplies the heap allocated to deserialize pages, may be {@code null}
+     */
+    public AdaptivePageSizer(OsfConfigurationService osfConfigurationService, EndpointMetrics metrics) {
+        this(osfConfigurationService, metrics, DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_MAX_PAGE_MILLIS,
+                DEFAULT_MAX_HEAP_BYTES);
+    }
+
+    /**
+     * Constructs a page sizer choosing page sizes between {@code minPageSize} and {@code maxPageSize}.  Equal bounds
+     * fix the page size.
+     *
+     * @param osfConfigurationService identifies the OSF API host, may be {@code null} to size the list requests of
+     *                                every host
+     * @param metrics supplies the heap allocated to deserialize pages, may be {@code null}
+     * @param minPageSize the smallest page size
+     * @param maxPageSize the largest page size
+     * @param maxPageMillis the maximum time to retrieve a page, in milliseconds
+     * @param maxHeapBytes the maximum heap allocated to deserialize a page, in bytes
+     */
+    public AdaptivePageSizer(OsfConfigurationService osfConfigurationService, EndpointMetrics metrics,
+                             int minPageSize, int maxPageSize, long maxPageMillis, long maxHeapBytes) {
+        if (minPageSize < 1 || maxPageSize < minPageSize) {
+            throw new IllegalArgumentException("Page size bounds must be positive, and the minimum must not exceed " +
+                    "the maximum.");
+        }
+        if (maxPageMillis < 1 || maxHeapBytes < 1) {
+            throw new IllegalArgumentException("Maximum page time and heap must be positive.");
+        }
+        this.osfConfigurationService = osfConfigurationService;
+        this.metrics = metrics;
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.maxPageMillis = maxPageMillis;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        HttpUrl url = request.httpUrl();
+        if (!"GET".equals(request.method()) || !isList(url)) {
+            return chain.proceed(request);
+        }
+
+        if (url.queryParameter(PAGE_SIZE) != null || url.queryParameter(PAGE) != null) {
+            // sized by the caller, or numbered for the default page size; the response may be streamed
+            return chain.proceed(request);
+        }
+
+        String endpoint = EndpointMetrics.endpointOf(request.method(), url);
+        int pageSize = getPageSize(endpoint);
+        request = request.newBuilder().url(url.newBuilder().setQueryParameter(PAGE_SIZE, String.valueOf(pageSize))
+                .build()).build();
+
+        long start = System.nanoTime();
+        Response response = chain.proceed(request);
+        long firstByte = System.nanoTime();
+        if (!response.isSuccessful() || response.body() == null) {
+            return response;
+        }
+
+        ResponseBody body = response.body();
+        byte[] bytes = body.bytes();
+        long end = System.nanoTime();
+        int resources = resourceCount(bytes);
+        if (resources > 0) {
+            observe(endpoint, resources, firstByte - start, end - firstByte, bytes.length);
+        } else {
+            LOG.debug("Not timing {}: no resources were counted in a page of size {}", url, pageSize);
+        }
+        return response.newBuilder().body(ResponseBody.create(body.contentType(), bytes)).build();
+    }
+
+    /**
+     * The page size chosen for the next walk of the supplied endpoint.
+     *
+     * @param endpoint the endpoint, as identified by {@link EndpointMetrics}, e.g. {@code GET /v2/nodes/}
+     * @return the page size
+     */
+    public int getPageSize(String endpoint) {
+        Observations observations = endpoints.get(endpoint);
+        return observations == null ? initialPageSize() : observations.pageSize;
+    }
+
+    /**
+     * The page size chosen for each endpoint that has returned a page, ordered by endpoint.
+     *
+     * @return the page sizes, keyed by endpoint
+     */
+    public Map<String, Integer> getPageSizes() {
+        Map<String, Integer> result = new TreeMap<>();
+        endpoints.forEach((endpoint, observations) -> result.put(endpoint, observations.pageSize));
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return getPageSizes().toString();
+    }
+
+    /**
+     * Records the retrieval of one page, and chooses the page size of the next walk of the endpoint.
+     *
+     * @param endpoint the endpoint that returned the page
+     * @param resources the number of resources in the page, which may be fewer than the page size requested
+     * @param firstByteNanos the time until the response headers were received
+     * @param transferNanos the time spent reading the response body
+     * @param bytes the size of the response body
+     */
+    void observe(String endpoint, int resources, long firstByteNanos, long transferNanos, long bytes) {
+        Observations observations = endpoints.computeIfAbsent(endpoint, key -> new Observations(initialPageSize()));
+        double nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+
+        synchronized (observations) {
+            observations.add(firstByteNanos / nanosPerMilli, transferNanos / nanosPerMilli / resources,
+                    (double) bytes / resources);
+
+            double millisPerResource = Math.max(observations.transferMillisPerResource, 1e-6);
+            double target = Math.min(
+                    observations.firstByteMillis * TRANSFER_RATIO / millisPerResource,
+                    (maxPageMillis - observations.firstByteMillis) / millisPerResource);
+
+            double heapPerByte = heapPerByte(endpoint);
+            if (heapPerByte > 0) {
+                target = Math.min(target, maxHeapBytes / (heapPerByte * observations.bytesPerResource));
+            }
+
+            int previous = observations.pageSize;
+            int next = (int) Math.max(previous / 2, Math.min((double) previous * 2, target));
+            observations.pageSize = Math.max(minPageSize, Math.min(maxPageSize, next));
+            if (observations.pageSize != previous) {
+                LOG.debug("Page size of {} changed from {} to {}", endpoint, previous, observations.pageSize);
+            }
+        }
+    }
+
+    /**
+     * Answers the heap allocated per byte of document deserialized from the endpoint, or zero if it is not known.
+     */
+    private double heapPerByte(String endpoint) {
+        EndpointMetrics.Endpoint stats = metrics == null ? null : metrics.getEndpoint(endpoint);
+        if (stats == null || stats.getHeapBytesPerPage() == 0 || stats.getBytesPerPage() == 0) {
+            return 0;
+        }
+        return (double) stats.getHeapBytesPerPage() / stats.getBytesPerPage();
+    }
+
+    /**
+     * Answers the number of resources in the {@code data} array of a JSON API document, or -1 if it cannot be read.
+     */
+    static int resourceCount(byte[] document) {
+        try (JsonParser parser = JSON_FACTORY.createParser(document)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return -1;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                    int count = 0;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        parser.skipChildren();
+                        count++;
+                    }
+                    return count;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            LOG.debug("Unable to count the resources of a page: {}", e.getMessage());
+        }
+        return -1;
+    }
+
+    private int initialPageSize() {
+        return Math.max(minPageSize, Math.min(maxPageSize, (minPageSize + maxPageSize) / 2));
+    }
+
+    /**
+     * Answers whether the url is a list request to the OSF API: a url whose last path segment is not an identifier.
+     */
+    private boolean isList(HttpUrl url) {
+        if (osfConfigurationService != null &&
+                !url.host().equalsIgnoreCase(osfConfigurationService.getConfiguration().getHost())) {
+            return false;
+        }
+        List<String> segments = url.pathSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (!segments.get(i).isEmpty()) {
+                return !EndpointMetrics.isIdentifier(segments.get(i));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moving averages of the pages returned by one endpoint
+     */
+    private static class Observations {
+
+        private volatile int pageSize;
+
+        private double firstByteMillis;
+
+        private double transferMillisPerResource;
+
+        private double bytesPerResource;
+
+        private boolean observed;
+
+        private Observations(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        private void add(double firstByteMillis, double transferMillisPerResource, double bytesPerResource) {
+            if (!observed) {
+                this.firstByteMillis = firstByteMillis;
+                this.transferMillisPerResource = transferMillisPerResource;
+                this.bytesPerResource = bytesPerResource;
+                observed = true;
+                return;
+            }
+            this.firstByteMillis += WEIGHT * (firstByteMillis - this.firstByteMillis);
+            this.transferMillisPerResource += WEIGHT * (transferMillisPerResource - this.transferMillisPerResource);
+            this.bytesPerResource += WEIGHT * (bytesPerResource - this.bytesPerResource);
+        }
+    }
+
+}
@@ -51,10 +51,11 @@ public class AuthInterceptor implements Interceptor {
         }
 
         // If it wasn't set, see if there's a configuration service and use that
-        if (osfConfigurationService != null &&
-                osfConfigurationService.getConfiguration().getAuthHeader() != null &&
-                !osfConfigurationService.getConfiguration().getAuthHeader().trim().equals("")) {
-            localAuthheader = osfConfigurationService.getConfiguration().getAuthHeader();
+        if (osfConfigurationService != null) {
+            String configuredAuthHeader = osfConfigurationService.getConfiguration().getAuthHeader();
+            if (configuredAuthHeader != null && !configuredAuthHeader.trim().equals("")) {
+                localAuthheader = configuredAuthHeader;
+            }
         }
 
         // if the auth header has been set, use it, otherwise simply proceed with the chain.
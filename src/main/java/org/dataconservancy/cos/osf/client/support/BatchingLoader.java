@@ -0,0 +1,394 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Function;
+
+/**
+ * Collects individual lookups by identifier into batches.  Lookups made within a short window of each other, up to a
+ * maximum batch size, are answered by a single invocation of a batch function, and each caller receives its own
+ * result.  For example, thousands of {@code OsfService.node(id)} calls can be replaced by a handful of
+ * {@code filter[id]=a,b,c} list requests:
+ * <pre>
+ *     BatchingLoader&lt;Node&gt; nodes = new BatchingLoader&lt;&gt;(
+ *             ids -&gt; execute(osfService.nodeList(filterById(ids))), Node::getId, 50, 10, TimeUnit.MILLISECONDS);
+ *     CompletableFuture&lt;Node&gt; parent = nodes.load(parentId);
+ * </pre>
+ * <p>
+ * A batch is sent when it reaches the maximum batch size, or when the window has elapsed since the first lookup in
+ * the batch, whichever comes first.  Concurrent lookups of the same identifier share a single result.  Identifiers
+ * that are absent from the batch result are answered by the fallback function, if one is supplied, otherwise with
+ * {@code null}.  If the batch function fails, every lookup in the batch fails.
+ * </p>
+ * <p>
+ * Batches and fallback lookups are sent on a bounded executor, {@link #DEFAULT_CONCURRENCY} threads unless one is
+ * supplied; the fallback lookups of a batch are sent concurrently.  Windows are timed on a separate thread, so a slow
+ * batch does not delay sending the others.
+ * </p>
+ * <p>
+ * Batch size and latency are recorded so that the window and maximum batch size can be tuned.  Instances are safe
+ * for use by multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the looked up objects
+ */
+public class BatchingLoader<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingLoader.class);
+
+    /**
+     * The default number of batches and fallback lookups sent concurrently
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final Function<List<String>, List<T>> batchFunction;
+
+    private final Function<T, String> identifier;
+
+    private final Function<String, T> fallback;
+
+    private final int maxBatchSize;
+
+    private final long windowNanos;
+
+    /**
+     * Times the window of each batch; never sends
+     */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Sends batches and fallback lookups
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Lookups waiting to be sent, in the order they were made.  Guarded by {@code this}.
+     */
+    private Map<String, CompletableFuture<T>> pending = new LinkedHashMap<>();
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong lookupCount = new AtomicLong();
+
+    private final AtomicLong identifierCount = new AtomicLong();
+
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    private final AtomicLong batchNanos = new AtomicLong();
+
+    private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs a loader which answers lookups using {@code batchFunction}, without a fallback.
+     *
+     * @param batchFunction answers the objects with the supplied identifiers, in any order
+     * @param identifier answers the identifier of an object returned by the batch function
+     * @param maxBatchSize the maximum number of identifiers supplied to the batch function
+     * @param window how long to wait for more lookups after the first lookup of a batch
+     * @param unit the unit of {@code window}
+     */
+    public BatchingLoader(Function<List<String>, List<T>> batchFunction, Function<T, String> identifier,
+                          int maxBatchSize, long window, TimeUnit unit) {
+        this(batchFunction, identifier, null, maxBatchSize, window, unit);
+    }
+
+    /**
+     * Constructs a loader which answers lookups using {@code batchFunction}, and answers identifiers absent from a
+     * batch result using {@code fallback}.
+     *
+     * @param batchFunction answers the objects with the supplied identifiers, in any order
+     * @param identifier answers the identifier of an object returned by the batch function
+     * @param fallback answers a single identifier absent from a batch result, may be {@code null}
+     * @param maxBatchSize the maximum number of identifiers supplied to the batch function
+     * @param window how long to wait for more lookups after the first lookup of a batch
+     * @param unit the unit of {@code window}
+     */
+    public BatchingLoader(Function<List<String>, List<T>> batchFunction, Function<T, String> identifier,
+                          Function<String, T> fallback, int maxBatchSize, long window, TimeUnit unit) {
+        this(batchFunction, identifier, fallback, maxBatchSize, window, unit,
+                Executors.newFixedThreadPool(DEFAULT_CONCURRENCY, new DaemonThreadFactory("osf-batch")));
+    }
+
+    /**
+     * Constructs a loader which sends batches and fallback lookups on the supplied {@code executor}, whose
+     * concurrency should be bounded.
+     *
+     * @param batchFunction answers the objects with the supplied identifiers, in any order
+     * @param identifier answers the identifier of an object returned by the batch function
+     * @param fallback answers a single identifier absent from a batch result, may be {@code null}
+     * @param maxBatchSize the maximum number of identifiers supplied to the batch function
+     * @param window how long to wait for more lookups after the first lookup of a batch
+     * @param unit the unit of {@code window}
+     * @param executor sends batches and fallback lookups
+     */
+    public BatchingLoader(Function<List<String>, List<T>> batchFunction, Function<T, String> identifier,
+                          Function<String, T> fallback, int maxBatchSize, long window, TimeUnit unit,
+                          ExecutorService executor) {
+        if (batchFunction == null || identifier == null) {
+            throw new IllegalArgumentException("Batch and identifier functions must not be null.");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be positive.");
+        }
+        if (window < 0 || unit == null) {
+            throw new IllegalArgumentException("Window must not be negative, and its unit must not be null.");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        this.batchFunction = batchFunction;
+        this.identifier = identifier;
+        this.fallback = fallback;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = unit.toNanos(window);
+        this.executor = executor;
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("osf-batch-timer"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.timer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Looks up the object with the supplied identifier, as part of a batch.
+     *
+     * @param id the identifier
+     * @return the object, completed when the batch completes; completed with {@code null} if there is no such object
+     */
+    public CompletableFuture<T> load(String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Identifier must not be null.");
+        }
+
+        lookupCount.incrementAndGet();
+        Map<String, CompletableFuture<T>> full = null;
+        CompletableFuture<T> result;
+        synchronized (this) {
+            result = pending.get(id);
+            if (result != null) {
+                return result;
+            }
+
+            result = new CompletableFuture<>();
+            pending.put(id, result);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new LinkedHashMap<>();
+            } else if (pending.size() == 1) {
+                Map<String, CompletableFuture<T>> batch = pending;
+                timer.schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (full != null) {
+            submit(full);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the object with the supplied identifier, as part of a batch, waiting for the batch to complete.
+     *
+     * @param id the identifier
+     * @return the object, or {@code null} if there is no such object
+     * @throws RuntimeException if the batch fails
+     */
+    public T get(String id) {
+        try {
+            return load(id).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + id, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Sends the lookups waiting for the window to elapse immediately.
+     */
+    public void flush() {
+        Map<String, CompletableFuture<T>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        if (!batch.isEmpty()) {
+            submit(batch);
+        }
+    }
+
+    /**
+     * Stops the executors.  Lookups that have not been sent fail.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+        synchronized (this) {
+            pending.values().forEach(future ->
+                    future.completeExceptionally(new IllegalStateException("BatchingLoader has been shut down.")));
+            pending = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * The number of batches sent.
+     *
+     * @return the number of batches
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * The number of lookups made, including lookups that shared a result.
+     *
+     * @return the number of lookups
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * The number of identifiers that were absent from a batch result and answered by the fallback function.
+     *
+     * @return the number of fallback lookups
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * The largest number of identifiers sent in one batch.
+     *
+     * @return the largest batch size
+     */
+    public long getLargestBatchSize() {
+        return largestBatch.get();
+    }
+
+    /**
+     * The mean number of identifiers sent in each batch.
+     *
+     * @return the mean batch size, zero if no batches have been sent
+     */
+    public double getMeanBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) identifierCount.get() / batches;
+    }
+
+    /**
+     * The mean time taken by the batch function.
+     *
+     * @return the mean batch latency in milliseconds, zero if no batches have been sent
+     */
+    public double getMeanBatchMillis() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) batchNanos.get() / batches / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchingLoader{lookups=%d, batches=%d, meanBatchSize=%.1f, largestBatchSize=%d, " +
+                        "meanBatchMillis=%.1f, fallbacks=%d}", getLookupCount(), getBatchCount(), getMeanBatchSize(),
+                getLargestBatchSize(), getMeanBatchMillis(), getFallbackCount());
+    }
+
+    /**
+     * Sends the supplied batch, if it is still waiting for its window to elapse.
+     */
+    private void flush(Map<String, CompletableFuture<T>> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                // the batch filled up, or was flushed, before the window elapsed
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        submit(batch);
+    }
+
+    private void submit(Map<String, CompletableFuture<T>> batch) {
+        try {
+            executor.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    private void send(Map<String, CompletableFuture<T>> batch) {
+        List<String> ids = new ArrayList<>(batch.keySet());
+        batchCount.incrementAndGet();
+        identifierCount.addAndGet(ids.size());
+        largestBatch.accumulate(ids.size());
+
+        Map<String, T> results = new HashMap<>();
+        long start = System.nanoTime();
+        try {
+            List<T> found = batchFunction.apply(ids);
+            if (found != null) {
+                found.stream().filter(o -> o != null).forEach(o -> results.put(identifier.apply(o), o));
+            }
+        } catch (RuntimeException | Error e) {
+            LOG.debug("Batch of {} identifiers failed: {}", ids.size(), e.getMessage());
+            batch.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        } finally {
+            batchNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        batch.forEach((id, future) -> {
+            T result = results.get(id);
+            if (result == null && fallback != null) {
+                fallbackCount.incrementAndGet();
+                // completes asynchronously, so that this thread does not wait for a fallback queued behind it
+                try {
+                    executor.execute(() -> {
+                        try {
+                            future.complete(fallback.apply(id));
+                        } catch (RuntimeException | Error e) {
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future.completeExceptionally(e);
+                }
+                return;
+            }
+            future.complete(result);
+        });
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.github.jasminb.jsonapi.RelationshipResolver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a {@code RelationshipResolver} so that concurrent requests for the same relationship url result in a
+ * single invocation of the underlying resolver.  The first caller for a url performs the resolution; callers that
+ * arrive while that resolution is in flight wait for, and share, its result.  Once the resolution completes, the
+ * next caller for the url will invoke the underlying resolver again; this is not a cache.
+ * <p>
+ * If the underlying resolver throws an exception, every caller waiting on that resolution receives an exception.
+ * </p>
+ */
+public class CoalescingRelationshipResolver implements RelationshipResolver {
+
+    private final RelationshipResolver delegate;
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Constructs a new resolver which coalesces concurrent requests for the same url made to {@code delegate}.
+     *
+     * @param delegate the underlying resolver
+     */
+    public CoalescingRelationshipResolver(RelationshipResolver delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate RelationshipResolver must not be null.");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public byte[] resolve(String relationshipURL) {
+        CompletableFuture<byte[]> resolution = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(relationshipURL, resolution);
+
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return await(relationshipURL, existing);
+        }
+
+        try {
+            byte[] result = delegate.resolve(relationshipURL);
+            resolution.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            resolution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(relationshipURL, resolution);
+        }
+    }
+
+    /**
+     * The number of requests that were satisfied by sharing the result of an in-flight resolution.
+     *
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static byte[] await(String relationshipURL, CompletableFuture<byte[]> resolution) {
+        try {
+            return resolution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + relationshipURL + " to be resolved.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named with a prefix and a sequence number, e.g. {@code osf-batch-3}, so that the executors
+ * of the client do not prevent the JVM from exiting.
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Constructs a factory whose threads are named {@code prefix-N}.
+     *
+     * @param prefix the thread name prefix
+     */
+    public DaemonThreadFactory(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Thread name prefix must not be null.");
+        }
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread t = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Records the latency, size and deserialization cost of the JSON-API documents returned by each OSF endpoint, so that
+ * the effect of request options such as sparse fieldsets ({@code fields[nodes]=title}) and embeds can be measured.
+ * <p>
+ * Metrics are collected by two collaborators: this class is added to the {@code OkHttpClient} as an interceptor,
+ * where it records the latency of every request and notes the endpoint of each response, and it is supplied to the
+ * {@link ResolvingConverterFactory}, which records the number of bytes, the time spent and the heap allocated
+ * deserializing each response document, and the size and retrieval time of each relationship document:
+ * </p>
+ * <pre>
+ *     EndpointMetrics metrics = new EndpointMetrics();
+ *     httpClient.interceptors().add(metrics);
+ *     converterFactory.setMetrics(metrics);
+ *     // ... after a harvest
+ *     LOG.info("Endpoint metrics:\n{}", metrics);
+ * </pre>
+ * <p>
+ * An endpoint is identified by the request method, the request path with identifiers replaced by {@code {id}}, and
+ * the {@code fields[...]} and {@code embed} query parameters, e.g.
+ * {@code GET /v2/nodes/?fields[nodes]=category,date_modified,title}.  Path segments containing a digit (other than
+ * the API version) are treated as identifiers.  Parse time excludes the time spent retrieving relationships, but
+ * includes the time spent deserializing them.  Relationship documents are not recorded as pages of their endpoint;
+ * they are recorded per relationship, e.g. {@code nodes/contributors}, so that the cost of following a relationship
+ * can be estimated.  Latency is the time until the response headers are received, and is recorded for every request,
+ * including relationship requests.
+ * </p>
+ * <p>
+ * Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class EndpointMetrics implements Interceptor {
+
+    /**
+     * The endpoint of the last response received by the calling thread, awaiting deserialization
+     */
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    /**
+     * API version path segments, e.g. {@code v2}, which are not identifiers
+     */
+    private static final Pattern VERSION = Pattern.compile("v\\d+");
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Relationship> relationships = new ConcurrentHashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        long start = System.nanoTime();
+        Response response = chain.proceed(request);
+        String endpoint = endpointOf(request.method(), request.httpUrl());
+        recordLatency(endpoint, System.nanoTime() - start);
+
+        // relationships retrieved while a response is being deserialized are accounted to that response
+        if (ResolutionSession.current() == null) {
+            CURRENT.set(endpoint);
+        }
+
+        return response;
+    }
+
+    /**
+     * Records the latency of one request.
+     *
+     * @param endpoint the endpoint of the request
+     * @param latencyNanos the time until the response headers were received, in nanoseconds
+     */
+    public void recordLatency(String endpoint, long latencyNanos) {
+        Endpoint stats = endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        stats.requests.increment();
+        stats.latencyNanos.add(Math.max(0, latencyNanos));
+    }
+
+    /**
+     * Records the retrieval of one relationship document.
+     *
+     * @param type the JSON-API type of the resource owning the relationship, e.g. {@code nodes}
+     * @param relationship the relationship name, e.g. {@code contributors}
+     * @param endpoint the endpoint of the relationship url
+     * @param bytes the size of the document, in bytes
+     * @param resources the number of resources in the document
+     * @param retrievalNanos the time spent waiting for the document, in nanoseconds
+     */
+    public void recordRelationship(String type, String relationship, String endpoint, long bytes, int resources,
+                                   long retrievalNanos) {
+        Relationship stats = relationships.computeIfAbsent(type + '/' + relationship, Relationship::new);
+        stats.endpoint = endpoint;
+        stats.documents.increment();
+        stats.bytes.add(bytes);
+        stats.resources.add(resources);
+        stats.retrievalNanos.add(Math.max(0, retrievalNanos));
+    }
+
+    /**
+     * Records the deserialization of one response document.
+     *
+     * @param endpoint the endpoint that returned the document
+     * @param bytes the size of the document, in bytes
+     * @param parseNanos the time spent deserializing the document, in nanoseconds
+     */
+    public void record(String endpoint, long bytes, long parseNanos) {
+        record(endpoint, bytes, parseNanos, -1);
+    }
+
+    /**
+     * Records the deserialization of one response document, and the heap allocated while deserializing it.
+     *
+     * @param endpoint the endpoint that returned the document
+     * @param bytes the size of the document, in bytes
+     * @param parseNanos the time spent deserializing the document, in nanoseconds
+     * @param allocatedBytes the heap allocated while deserializing the document, in bytes, or a negative number if
+     *                       it was not measured
+     */
+    public void record(String endpoint, long bytes, long parseNanos, long allocatedBytes) {
+        Endpoint stats = endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        stats.pages.increment();
+        stats.bytes.add(bytes);
+        stats.parseNanos.add(Math.max(0, parseNanos));
+        if (allocatedBytes >= 0) {
+            stats.heapPages.increment();
+            stats.heapBytes.add(allocatedBytes);
+        }
+    }
+
+    /**
+     * The metrics of each relationship that has been retrieved, ordered by relationship.
+     *
+     * @return the relationship metrics, keyed by type and relationship name, e.g. {@code nodes/contributors}
+     */
+    public Map<String, Relationship> getRelationships() {
+        return Collections.unmodifiableMap(new TreeMap<>(relationships));
+    }
+
+    /**
+     * The metrics of the supplied relationship.
+     *
+     * @param type the JSON-API type of the resource owning the relationship
+     * @param relationship the relationship name
+     * @return the metrics, or {@code null} if the relationship has not been retrieved
+     */
+    public Relationship getRelationship(String type, String relationship) {
+        return relationships.get(type + '/' + relationship);
+    }
+
+    /**
+     * The metrics of each endpoint that has returned a document, ordered by endpoint.
+     *
+     * @return the endpoint metrics, keyed by endpoint
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    /**
+     * The metrics of the supplied endpoint.
+     *
+     * @param endpoint the endpoint, as described in the class documentation
+     * @return the metrics, or {@code null} if the endpoint has not returned a document
+     */
+    public Endpoint getEndpoint(String endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    /**
+     * Discards all recorded metrics.
+     */
+    public void clear() {
+        endpoints.clear();
+        relationships.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        getEndpoints().values().forEach(endpoint -> sb.append(endpoint).append('\n'));
+        getRelationships().values().forEach(relationship -> sb.append(relationship).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Answers, and forgets, the endpoint of the last response received by the calling thread.
+     *
+     * @return the endpoint, or {@code null} if no response is awaiting deserialization
+     */
+    static String takeCurrentEndpoint() {
+        String endpoint = CURRENT.get();
+        CURRENT.remove();
+        return endpoint;
+    }
+
+    /**
+     * Answers the number of bytes allocated on the heap by the calling thread so far, if the JVM can measure it.
+     *
+     * @return the allocated bytes, or -1 if allocation cannot be measured
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+                return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Identifies the endpoint of a request.
+     *
+     * @param method the request method
+     * @param url the request url
+     * @return the endpoint
+     */
+    static String endpointOf(String method, HttpUrl url) {
+        StringBuilder endpoint = new StringBuilder(method).append(' ').append(
+                Arrays.stream(url.encodedPath().split("/", -1))
+                        .map(segment -> isIdentifier(segment) ? "{id}" : segment)
+                        .collect(Collectors.joining("/")));
+
+        char separator = '?';
+        for (String name : new TreeSet<>(url.queryParameterNames())) {
+            if (name.startsWith("fields[") || name.equals("embed")) {
+                TreeSet<String> values = new TreeSet<>();
+                url.queryParameterValues(name).forEach(value -> {
+                    if (value != null) {
+                        Collections.addAll(values, value.split(","));
+                    }
+                });
+                endpoint.append(separator).append(name).append('=').append(String.join(",", values));
+                separator = '&';
+            }
+        }
+
+        return endpoint.toString();
+    }
+
+    static boolean isIdentifier(String segment) {
+        return !VERSION.matcher(segment).matches() && segment.chars().anyMatch(Character::isDigit);
+    }
+
+    /**
+     * Metrics of a single endpoint.
+     */
+    public static class Endpoint {
+
+        private final String name;
+
+        private final LongAdder pages = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder parseNanos = new LongAdder();
+
+        private final LongAdder heapPages = new LongAdder();
+
+        private final LongAdder heapBytes = new LongAdder();
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private Endpoint(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The endpoint.
+         *
+         * @return the endpoint
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The number of documents returned by the endpoint.
+         *
+         * @return the number of pages
+         */
+        public long getPageCount() {
+            return pages.sum();
+        }
+
+        /**
+         * The total size of the documents returned by the endpoint.
+         *
+         * @return the number of bytes
+         */
+        public long getTotalBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * The mean size of the documents returned by the endpoint.
+         *
+         * @return bytes per page, zero if no pages were returned
+         */
+        public long getBytesPerPage() {
+            long pages = getPageCount();
+            return pages == 0 ? 0 : getTotalBytes() / pages;
+        }
+
+        /**
+         * The mean time spent deserializing the documents returned by the endpoint.
+         *
+         * @return milliseconds per page, zero if no pages were returned
+         */
+        public double getParseMillisPerPage() {
+            long pages = getPageCount();
+            return pages == 0 ? 0 : (double) parseNanos.sum() / pages / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * The mean heap allocated while deserializing a document returned by the endpoint, including the
+         * deserialized objects and the garbage created along the way.
+         *
+         * @return bytes per page, zero if allocation was not measured
+         */
+        public long getHeapBytesPerPage() {
+            long pages = heapPages.sum();
+            return pages == 0 ? 0 : heapBytes.sum() / pages;
+        }
+
+        /**
+         * The number of requests made to the endpoint.
+         *
+         * @return the number of requests
+         */
+        public long getRequestCount() {
+            return requests.sum();
+        }
+
+        /**
+         * The mean time until the response headers of a request to the endpoint were received.
+         *
+         * @return milliseconds per request, zero if no requests were made
+         */
+        public double getLatencyMillis() {
+            long requests = getRequestCount();
+            return requests == 0 ? 0 : (double) latencyNanos.sum() / requests / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: requests=%d, latency ms=%.1f, pages=%d, bytes/page=%d, parse ms/page=%.3f, " +
+                    "heap bytes/page=%d", name, getRequestCount(), getLatencyMillis(), getPageCount(),
+                    getBytesPerPage(), getParseMillisPerPage(), getHeapBytesPerPage());
+        }
+    }
+
+    /**
+     * Metrics of a single relationship, e.g. the contributors of nodes.
+     */
+    public static class Relationship {
+
+        private final String name;
+
+        private volatile String endpoint;
+
+        private final LongAdder documents = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder resources = new LongAdder();
+
+        private final LongAdder retrievalNanos = new LongAdder();
+
+        private Relationship(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The type and name of the relationship, e.g. {@code nodes/contributors}.
+         *
+         * @return the relationship
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The endpoint of the relationship url, which carries the latency of the relationship's requests.
+         *
+         * @return the endpoint
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * The number of relationship documents retrieved.
+         *
+         * @return the number of documents
+         */
+        public long getDocumentCount() {
+            return documents.sum();
+        }
+
+        /**
+         * The mean size of a relationship document.
+         *
+         * @return bytes per document, zero if no documents were retrieved
+         */
+        public long getBytesPerDocument() {
+            long documents = getDocumentCount();
+            return documents == 0 ? 0 : bytes.sum() / documents;
+        }
+
+        /**
+         * The mean number of related resources in a relationship document.
+         *
+         * @return resources per document, zero if no documents were retrieved
+         */
+        public double getResourcesPerDocument() {
+            long documents = getDocumentCount();
+            return documents == 0 ? 0 : (double) resources.sum() / documents;
+        }
+
+        /**
+         * The mean time spent waiting for a relationship document.  If relationships are prefetched, this is less
+         * than the latency of the relationship's endpoint.
+         *
+         * @return milliseconds per document, zero if no documents were retrieved
+         */
+        public double getRetrievalMillis() {
+            long documents = getDocumentCount();
+            return documents == 0 ? 0 : (double) retrievalNanos.sum() / documents / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s): documents=%d, bytes/document=%d, resources/document=%.1f, " +
+                            "retrieval ms/document=%.1f", name, endpoint, getDocumentCount(), getBytesPerDocument(),
+                    getResourcesPerDocument(), getRetrievalMillis());
+        }
+    }
+
+}
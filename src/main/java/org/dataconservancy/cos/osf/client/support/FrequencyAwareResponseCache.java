@@ -0,0 +1,376 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link ResponseCache} bounded by the total number of bytes it holds.  Each entry carries its own time-to-live;
+ * expired entries are never answered.  When the cache is full, the least frequently used entry is evicted first, with
+ * ties broken by evicting the least recently used entry.  Access frequencies are periodically halved, so that entries
+ * which were popular a long time ago do not stay in the cache forever.
+ * <p>
+ * Hit, miss, eviction, and expiration counts are maintained so that the cache can be sized appropriately:
+ * </p>
+ * <pre>
+ *     FrequencyAwareResponseCache cache = new FrequencyAwareResponseCache(64 * 1024 * 1024, 10, TimeUnit.MINUTES);
+ *     RelationshipResolver resolver = new ResourceConverterGlobalResolver(httpClient, cache);
+ *     // ... after a harvest
+ *     LOG.info("Relationship cache: {}", cache);
+ * </pre>
+ * <p>
+ * Instances are safe for use by multiple threads.
+ * </p>
+ */
+public class FrequencyAwareResponseCache implements ResponseCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrequencyAwareResponseCache.class);
+
+    /**
+     * Default capacity of the cache, in bytes: 32 MiB
+     */
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Default time-to-live of a cache entry, in milliseconds: five minutes
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Access frequencies are halved after this many accesses per cached entry.
+     */
+    private static final int AGING_FACTOR = 10;
+
+    private static final int MIN_AGING_PERIOD = 1000;
+
+    /**
+     * Orders entries from the first to be evicted to the last to be evicted.
+     */
+    private static final Comparator<Entry> EVICTION_ORDER = Comparator.<Entry>comparingInt(e -> e.frequency)
+            .thenComparingLong(e -> e.lastAccess)
+            .thenComparing(e -> e.url);
+
+    private final long maxBytes;
+
+    private final long defaultTtlMillis;
+
+    private final LongSupplier clock;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private final TreeSet<Entry> evictionOrder = new TreeSet<>(EVICTION_ORDER);
+
+    private long weight;
+
+    private long tick;
+
+    private long accessesSinceAging;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long expirationCount;
+
+    /**
+     * Constructs a cache holding at most {@link #DEFAULT_MAX_BYTES} bytes, with entries that live for
+     * {@link #DEFAULT_TTL_MILLIS} milliseconds.
+     */
+    public FrequencyAwareResponseCache() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a cache holding at most {@code maxBytes} bytes of response bodies.  Entries added using
+     * {@link #put(String, byte[])} live for {@code defaultTtl}.
+     *
+     * @param maxBytes the maximum number of bytes held by the cache, must be positive
+     * @param defaultTtl the default time-to-live of an entry, must be positive
+     * @param unit the unit of {@code defaultTtl}
+     */
+    public FrequencyAwareResponseCache(long maxBytes, long defaultTtl, TimeUnit unit) {
+        this(maxBytes, defaultTtl, unit, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * Constructs a cache using the supplied clock, which must answer the current time in milliseconds.
+     *
+     * @param maxBytes the maximum number of bytes held by the cache, must be positive
+     * @param defaultTtl the default time-to-live of an entry, must be positive
+     * @param unit the unit of {@code defaultTtl}
+     * @param clock answers the current time in milliseconds
+     */
+    FrequencyAwareResponseCache(long maxBytes, long defaultTtl, TimeUnit unit, LongSupplier clock) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Maximum cache size must be a positive number of bytes.");
+        }
+        if (defaultTtl < 1) {
+            throw new IllegalArgumentException("Default time-to-live must be positive.");
+        }
+        if (unit == null || clock == null) {
+            throw new IllegalArgumentException("Time unit and clock must not be null.");
+        }
+        this.maxBytes = maxBytes;
+        this.defaultTtlMillis = unit.toMillis(defaultTtl);
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized byte[] get(String url) {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        if (entry.isExpired(clock.getAsLong())) {
+            remove(entry);
+            expirationCount++;
+            missCount++;
+            return null;
+        }
+
+        // the entry must be removed from the eviction order before its sort keys are updated
+        evictionOrder.remove(entry);
+        entry.frequency++;
+        entry.lastAccess = ++tick;
+        evictionOrder.add(entry);
+        hitCount++;
+
+        if (++accessesSinceAging > Math.max(MIN_AGING_PERIOD, AGING_FACTOR * entries.size())) {
+            age();
+        }
+
+        return entry.body;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entry will live for the default time-to-live supplied on construction.
+     * </p>
+     *
+     * @param url {@inheritDoc}
+     * @param body {@inheritDoc}
+     */
+    @Override
+    public void put(String url, byte[] body) {
+        put(url, body, defaultTtlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cache the response body for {@code url}, which will live for {@code ttl}.  Bodies that are larger than the
+     * capacity of the cache are not cached.  If {@code url} is already cached, its access frequency is retained.
+     *
+     * @param url the relationship url
+     * @param body the response body
+     * @param ttl the time-to-live of the entry; if not positive, the body is not cached
+     * @param unit the unit of {@code ttl}
+     */
+    public synchronized void put(String url, byte[] body, long ttl, TimeUnit unit) {
+        if (url == null || body == null) {
+            return;
+        }
+
+        Entry existing = entries.get(url);
+        int frequency = 1;
+        if (existing != null) {
+            frequency = existing.frequency;
+            remove(existing);
+        }
+
+        if (ttl < 1 || body.length > maxBytes) {
+            LOG.trace("Declining to cache {} ({} bytes)", url, body.length);
+            return;
+        }
+
+        long now = clock.getAsLong();
+        if (weight + body.length > maxBytes) {
+            purgeExpired(now);
+        }
+
+        while (weight + body.length > maxBytes) {
+            Entry victim = evictionOrder.first();
+            LOG.trace("Evicting {} (frequency {}, {} bytes)", victim.url, victim.frequency, victim.body.length);
+            remove(victim);
+            evictionCount++;
+        }
+
+        Entry entry = new Entry(url, body, now + unit.toMillis(ttl));
+        entry.frequency = frequency;
+        entry.lastAccess = ++tick;
+        entries.put(url, entry);
+        evictionOrder.add(entry);
+        weight += body.length;
+    }
+
+    @Override
+    public synchronized void invalidate(String url) {
+        Entry entry = entries.get(url);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        evictionOrder.clear();
+        weight = 0;
+    }
+
+    /**
+     * The number of requests answered by the cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The number of requests that could not be answered by the cache, including requests for expired entries.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * The number of live entries that were removed to make room for new entries.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The number of entries that were removed because their time-to-live elapsed.
+     *
+     * @return the number of expirations
+     */
+    public synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * The number of entries currently held by the cache, some of which may have expired.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The number of bytes currently held by the cache.
+     *
+     * @return the size of the cache, in bytes
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * The maximum number of bytes held by the cache.
+     *
+     * @return the capacity of the cache, in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrequencyAwareResponseCache{" +
+                "entries=" + entries.size() +
+                ", weight=" + weight +
+                ", maxBytes=" + maxBytes +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                ", evictions=" + evictionCount +
+                ", expirations=" + expirationCount +
+                '}';
+    }
+
+    private void remove(Entry entry) {
+        evictionOrder.remove(entry);
+        entries.remove(entry.url);
+        weight -= entry.body.length;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Entry> itr = entries.values().iterator();
+        while (itr.hasNext()) {
+            Entry entry = itr.next();
+            if (entry.isExpired(now)) {
+                itr.remove();
+                evictionOrder.remove(entry);
+                weight -= entry.body.length;
+                expirationCount++;
+            }
+        }
+    }
+
+    /**
+     * Halves the access frequency of every entry, re-establishing the eviction order.
+     */
+    private void age() {
+        evictionOrder.clear();
+        for (Entry entry : entries.values()) {
+            entry.frequency = Math.max(1, entry.frequency / 2);
+            evictionOrder.add(entry);
+        }
+        accessesSinceAging = 0;
+    }
+
+    private static class Entry {
+
+        private final String url;
+
+        private final byte[] body;
+
+        private final long expiresAt;
+
+        private int frequency;
+
+        private long lastAccess;
+
+        private Entry(String url, byte[] body, long expiresAt) {
+            this.url = url;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A list of related resources that is retrieved the first time any of its contents are accessed.  The retrieved list
+ * is retained, so the relationship is resolved at most once.  Used in place of eagerly resolved to-many relationships
+ * when a {@link RelationshipIndex} defers them.
+ * <p>
+ * Retrieval happens on the thread that first accesses the list, and may throw the {@code RuntimeException}s thrown by
+ * the underlying {@code RelationshipResolver}.  If retrieval fails, the next access will try again.
+ * </p>
+ *
+ * @param <T> the type of the related resources
+ */
+public class LazyRelationshipList<T> extends AbstractList<T> {
+
+    private final String relationshipUrl;
+
+    private final Function<String, List<T>> loader;
+
+    private volatile List<T> resolved;
+
+    /**
+     * Constructs a list which, when first accessed, is populated by invoking {@code loader} with
+     * {@code relationshipUrl}.
+     *
+     * @param relationshipUrl the url of the relationship
+     * @param loader retrieves and deserializes the related resources
+     */
+    public LazyRelationshipList(String relationshipUrl, Function<String, List<T>> loader) {
+        if (relationshipUrl == null || loader == null) {
+            throw new IllegalArgumentException("Relationship url and loader must not be null.");
+        }
+        this.relationshipUrl = relationshipUrl;
+        this.loader = loader;
+    }
+
+    @Override
+    public T get(int index) {
+        return resolved().get(index);
+    }
+
+    @Override
+    public int size() {
+        return resolved().size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return resolved().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        resolved().add(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        return resolved().remove(index);
+    }
+
+    /**
+     * The url of the relationship this list resolves.
+     *
+     * @return the relationship url
+     */
+    public String getRelationshipUrl() {
+        return relationshipUrl;
+    }
+
+    /**
+     * Whether the relationship has been resolved.  Does not cause the relationship to be resolved.
+     *
+     * @return true if the related resources have been retrieved
+     */
+    public boolean isResolved() {
+        return resolved != null;
+    }
+
+    private List<T> resolved() {
+        List<T> result = resolved;
+        if (result == null) {
+            synchronized (this) {
+                result = resolved;
+                if (result == null) {
+                    result = loader.apply(relationshipUrl);
+                    if (result == null) {
+                        result = new ArrayList<>();
+                    }
+                    resolved = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return isResolved() ? resolved.toString() : "LazyRelationshipList{" + relationshipUrl + "}";
+    }
+
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.jasminb.jsonapi.RelationshipResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a {@code RelationshipResolver} so that paginated to-many relationships are resolved in full.  The OSF
+ * answers a to-many relationship url (e.g. a node's {@code children} or {@code contributors}) with the first page of
+ * related resources only; the JSON-API converter would silently drop the rest.
+ * <p>
+ * When a relationship document carries a {@code links.next} url, the remaining pages are retrieved and their resources
+ * concatenated, in page order, into a single document whose {@code links.next} is {@code null}.  If the document also
+ * carries a {@code links.last} url, the page numbers are known up front, and the remaining pages are retrieved
+ * concurrently on a bounded executor; otherwise the {@code next} links are followed one at a time.  Resources that
+ * appear on more than one page (e.g. because the collection changed while it was being paged) are included once.
+ * </p>
+ * <pre>
+ *     RelationshipResolver resolver = new PaginatingRelationshipResolver(
+ *             new CoalescingRelationshipResolver(new ResourceConverterGlobalResolver(httpClient)), 4);
+ * </pre>
+ * <p>
+ * Documents without a {@code next} link are answered exactly as retrieved.  Paging is off by default: a resolver
+ * constructed with a concurrency of zero answers every document exactly as retrieved, i.e. the first page only.
+ * </p>
+ * <p>
+ * If a page cannot be retrieved, the pages that have not yet been requested are abandoned, but the requests already
+ * in flight run to completion: the delegate's requests cannot be interrupted, so their responses are discarded.
+ * </p>
+ */
+public class PaginatingRelationshipResolver implements RelationshipResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PaginatingRelationshipResolver.class);
+
+    /**
+     * The default number of pages retrieved concurrently: zero, paging is off
+     */
+    public static final int DEFAULT_CONCURRENCY = 0;
+
+    /**
+     * The default maximum number of pages retrieved for a single relationship
+     */
+    public static final int DEFAULT_MAX_PAGES = 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final byte[] NEXT = "\"next\"".getBytes(StandardCharsets.UTF_8);
+
+    private final RelationshipResolver delegate;
+
+    private final ExecutorService executor;
+
+    private final int maxPages;
+
+    private final boolean paging;
+
+    private final AtomicLong pageCount = new AtomicLong();
+
+    /**
+     * Constructs a resolver that retrieves up to {@code concurrency} pages of a relationship concurrently using
+     * {@code delegate}, and at most {@link #DEFAULT_MAX_PAGES} pages of any relationship.  Executor threads are daemon
+     * threads, so they will not prevent the JVM from exiting.
+     *
+     * @param delegate the underlying resolver
+     * @param concurrency the maximum number of pages retrieved concurrently, one to retrieve pages sequentially, zero
+     *                    to retrieve the first page only
+     */
+    public PaginatingRelationshipResolver(RelationshipResolver delegate, int concurrency) {
+        this(delegate, concurrency > 1 ? newExecutor(concurrency) : null, DEFAULT_MAX_PAGES, concurrency > 0);
+        if (concurrency < 0) {
+            throw new IllegalArgumentException("Concurrency must not be negative.");
+        }
+    }
+
+    /**
+     * Constructs a resolver that retrieves the pages of a relationship using {@code delegate} on the supplied
+     * {@code executor}, whose concurrency should be bounded.
+     *
+     * @param delegate the underlying resolver
+     * @param executor executes page retrievals, may be {@code null} to retrieve pages on the calling thread
+     * @param maxPages the maximum number of pages retrieved for a single relationship, including the first
+     */
+    public PaginatingRelationshipResolver(RelationshipResolver delegate, ExecutorService executor, int maxPages) {
+        this(delegate, executor, maxPages, true);
+    }
+
+    private PaginatingRelationshipResolver(RelationshipResolver delegate, ExecutorService executor, int maxPages,
+                                           boolean paging) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate RelationshipResolver must not be null.");
+        }
+        if (maxPages < 1) {
+            throw new IllegalArgumentException("Maximum pages must be positive.");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxPages = maxPages;
+        this.paging = paging;
+    }
+
+    @Override
+    public byte[] resolve(String relationshipURL) {
+        byte[] first = delegate.resolve(relationshipURL);
+        if (!paging || first == null || indexOf(first, NEXT) < 0) {
+            return first;
+        }
+
+        ObjectNode document;
+        try {
+            JsonNode root = MAPPER.readTree(first);
+            if (!root.isObject() || !root.path("data").isArray() || !root.path("links").path("next").isTextual()) {
+                return first;
+            }
+            document = (ObjectNode) root;
+        } catch (IOException e) {
+            // the JSON-API converter will report the problem
+            return first;
+        }
+
+        String next = document.path("links").path("next").asText();
+        int lastPage = pageNumber(document.path("links").path("last").asText(null));
+        int firstPage = Math.max(1, pageNumber(next) - 1);
+
+        List<JsonNode> pages;
+        if (lastPage > firstPage && pageNumber(next) > 0) {
+            int toPage = firstPage + maxPages - 1;
+            if (lastPage > toPage) {
+                warnTruncated(relationshipURL);
+                pages = retrieveConcurrently(relationshipURL, next, pageNumber(next), toPage, false);
+            } else {
+                pages = retrieveConcurrently(relationshipURL, next, pageNumber(next), lastPage, true);
+            }
+        } else {
+            pages = retrieveSequentially(relationshipURL, next, 1);
+        }
+
+        return merge(document, pages);
+    }
+
+    /**
+     * Stops the executor.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The number of pages retrieved after the first page of a relationship.
+     *
+     * @return the number of additional pages
+     */
+    public long getPageCount() {
+        return pageCount.get();
+    }
+
+    /**
+     * Retrieves pages {@code fromPage} to {@code toPage} concurrently.  If {@code followNext}, pages added after the
+     * last page was known are then retrieved sequentially, within the maximum number of pages.
+     */
+    private List<JsonNode> retrieveConcurrently(String relationshipURL, String next, int fromPage, int toPage,
+                                                boolean followNext) {
+        List<CompletableFuture<JsonNode>> futures = new ArrayList<>();
+        for (int page = fromPage; page <= toPage; page++) {
+            String pageUrl = pageUrl(next, page);
+            futures.add(executor == null ?
+                    CompletableFuture.completedFuture(retrieve(pageUrl)) :
+                    CompletableFuture.supplyAsync(() -> retrieve(pageUrl), executor));
+        }
+
+        List<JsonNode> pages = new ArrayList<>();
+        try {
+            for (CompletableFuture<JsonNode> future : futures) {
+                pages.add(future.join());
+            }
+        } catch (CompletionException e) {
+            // abandons the pages not yet started; those in flight cannot be interrupted
+            futures.forEach(future -> future.cancel(false));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unable to retrieve the pages of " + relationshipURL + ": " +
+                    e.getCause().getMessage(), e.getCause());
+        }
+
+        // the last page may have moved while the pages were being retrieved
+        String moreUrl = pages.isEmpty() ? null : pages.get(pages.size() - 1).path("links").path("next").asText(null);
+        if (followNext && moreUrl != null) {
+            pages.addAll(retrieveSequentially(relationshipURL, moreUrl, pages.size() + 1));
+        }
+
+        return pages;
+    }
+
+    /**
+     * Follows {@code next} links until the last page, or until the relationship has {@code maxPages} pages.
+     *
+     * @param retrieved the number of pages of the relationship already retrieved, including the first
+     */
+    private List<JsonNode> retrieveSequentially(String relationshipURL, String next, int retrieved) {
+        List<JsonNode> pages = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        while (next != null && seen.add(next)) {
+            if (retrieved + pages.size() >= maxPages) {
+                warnTruncated(relationshipURL);
+                break;
+            }
+            JsonNode page = retrieve(next);
+            pages.add(page);
+            next = page.path("links").path("next").asText(null);
+        }
+        return pages;
+    }
+
+    private void warnTruncated(String relationshipURL) {
+        LOG.warn("Relationship {} has more than {} pages; remaining pages are ignored.", relationshipURL, maxPages);
+    }
+
+    private JsonNode retrieve(String pageUrl) {
+        try {
+            JsonNode page = MAPPER.readTree(delegate.resolve(pageUrl));
+            pageCount.incrementAndGet();
+            return page;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to parse " + pageUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Concatenates the resources of the supplied pages onto the first page, in order.
+     */
+    private static byte[] merge(ObjectNode first, List<JsonNode> pages) {
+        ArrayNode data = (ArrayNode) first.get("data");
+        Set<String> identifiers = new HashSet<>();
+        data.forEach(resource -> identifiers.add(identifier(resource)));
+
+        ArrayNode included = first.has("included") ? (ArrayNode) first.get("included") : null;
+        Set<String> includedIdentifiers = new HashSet<>();
+        if (included != null) {
+            included.forEach(resource -> includedIdentifiers.add(identifier(resource)));
+        }
+
+        for (JsonNode page : pages) {
+            page.path("data").forEach(resource -> {
+                if (identifiers.add(identifier(resource))) {
+                    data.add(resource);
+                }
+            });
+            for (JsonNode resource : page.path("included")) {
+                if (included == null) {
+                    included = first.putArray("included");
+                }
+                if (includedIdentifiers.add(identifier(resource))) {
+                    included.add(resource);
+                }
+            }
+        }
+
+        ((ObjectNode) first.get("links")).putNull("next");
+        return first.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String identifier(JsonNode resource) {
+        return resource.path("type").asText() + '/' + resource.path("id").asText();
+    }
+
+    /**
+     * Answers the value of the {@code page} query parameter of the supplied url.
+     *
+     * @param url a page url, may be {@code null}
+     * @return the page number, or -1 if the url has no page number
+     */
+    public static int pageNumber(String url) {
+        String page = queryParameter(url, "page");
+        try {
+            return page == null ? -1 : Integer.parseInt(page);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Answers the decoded value of the named query parameter of the supplied url, e.g. {@code page[size]}.
+     *
+     * @param url a url, may be {@code null}
+     * @param name the decoded name of the query parameter
+     * @return the value of the first parameter with the name, or {@code null} if the url has no such parameter
+     */
+    public static String queryParameter(String url, String name) {
+        if (url == null || url.indexOf('?') < 0) {
+            return null;
+        }
+        try {
+            for (String param : url.substring(url.indexOf('?') + 1).split("&")) {
+                int equals = param.indexOf('=');
+                if (equals > 0 && name.equals(URLDecoder.decode(param.substring(0, equals), "UTF-8"))) {
+                    return URLDecoder.decode(param.substring(equals + 1), "UTF-8");
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Answers the supplied page url, with its {@code page} query parameter replaced by {@code page}.
+     *
+     * @param url a page url, with a {@code page} query parameter
+     * @param page the page number
+     * @return the url of the page
+     */
+    static String pageUrl(String url, int page) {
+        int query = url.indexOf('?');
+        StringBuilder result = new StringBuilder(url.substring(0, query + 1));
+        String separator = "";
+        for (String param : url.substring(query + 1).split("&")) {
+            result.append(separator).append(param.startsWith("page=") ? "page=" + page : param);
+            separator = "&";
+        }
+        return result.toString();
+    }
+
+    private static int indexOf(byte[] document, byte[] target) {
+        outer:
+        for (int i = 0; i <= document.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (document[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static ExecutorService newExecutor(int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-relationship-page"));
+    }
+
+}
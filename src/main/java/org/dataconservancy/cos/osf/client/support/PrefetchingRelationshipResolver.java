@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.github.jasminb.jsonapi.RelationshipResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the sibling relationships of a JSON-API resource concurrently.  The JSON-API converter resolves the
+ * relationships of a resource one at a time, blocking on each.  Relationships that are known to be needed can be
+ * {@link #prefetch(String) prefetched}: they are retrieved on a bounded executor, and when the converter asks for a
+ * relationship, it joins the retrieval already in progress.  The latency of deserializing a resource becomes roughly
+ * that of its slowest relationship, rather than the sum of all of them, and the same holds at every level of a
+ * resource tree.
+ * <p>
+ * When this resolver is the delegate of a {@link SessionRelationshipResolver}, each JSON-API document is inspected as
+ * it is deserialized, and every relationship the converter is going to resolve is prefetched:
+ * </p>
+ * <pre>
+ *     PrefetchingRelationshipResolver prefetcher = new PrefetchingRelationshipResolver(
+ *             new ResourceConverterGlobalResolver(httpClient), 4);
+ *     SessionRelationshipResolver resolver = new SessionRelationshipResolver(prefetcher, index);
+ *     resourceConverter.setGlobalResolver(resolver);
+ *     JSONAPIConverterFactory converterFactory = new ResolvingConverterFactory(resourceConverter, resolver);
+ * </pre>
+ * <p>
+ * If the converter asks for a relationship whose retrieval is still waiting for an executor thread, the converter's
+ * thread retrieves it instead.  A concurrency of zero disables concurrent retrieval entirely: every relationship is
+ * retrieved on the converter's thread, as if the underlying resolver were used directly.
+ * </p>
+ */
+public class PrefetchingRelationshipResolver implements RelationshipResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrefetchingRelationshipResolver.class);
+
+    /**
+     * The default maximum number of retrieved relationship documents waiting to be claimed by the converter.
+     */
+    public static final int DEFAULT_MAX_PENDING = 256;
+
+    private final RelationshipResolver delegate;
+
+    private final ExecutorService executor;
+
+    private final int maxPending;
+
+    /**
+     * Relationship retrievals that have been started (or queued) but not yet claimed by the converter, in the order
+     * they were started.  Guarded by itself.
+     */
+    private final Map<String, Prefetch> pending;
+
+    private final AtomicLong prefetchCount = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Constructs a resolver that retrieves up to {@code concurrency} relationships concurrently using
+     * {@code delegate}.  Executor threads are daemon threads, so they will not prevent the JVM from exiting.
+     *
+     * @param delegate the underlying resolver
+     * @param concurrency the maximum number of concurrent retrievals, zero to disable concurrent retrieval
+     */
+    public PrefetchingRelationshipResolver(RelationshipResolver delegate, int concurrency) {
+        this(delegate, concurrency > 0 ? newExecutor(concurrency) : null, DEFAULT_MAX_PENDING);
+        if (concurrency < 0) {
+            throw new IllegalArgumentException("Concurrency must not be negative.");
+        }
+    }
+
+    /**
+     * Constructs a resolver that retrieves relationships using {@code delegate} on the supplied {@code executor}.  The
+     * concurrency of the executor should be bounded.  At most {@code maxPending} retrieved documents are held waiting
+     * for the converter; if the converter never claims a document (e.g. because deserialization failed), the oldest
+     * document is discarded.
+     *
+     * @param delegate the underlying resolver
+     * @param executor executes relationship retrievals, may be {@code null} to disable concurrent retrieval
+     * @param maxPending the maximum number of retrieved documents waiting to be claimed
+     */
+    public PrefetchingRelationshipResolver(RelationshipResolver delegate, ExecutorService executor, int maxPending) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate RelationshipResolver must not be null.");
+        }
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Maximum pending retrievals must be positive.");
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.pending = new LinkedHashMap<String, Prefetch>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prefetch> eldest) {
+                return size() > PrefetchingRelationshipResolver.this.maxPending;
+            }
+        };
+    }
+
+    @Override
+    public byte[] resolve(String relationshipURL) {
+        Prefetch prefetch;
+        synchronized (pending) {
+            prefetch = pending.remove(relationshipURL);
+        }
+
+        if (prefetch != null) {
+            hitCount.incrementAndGet();
+            return prefetch.join();
+        }
+
+        return delegate.resolve(relationshipURL);
+    }
+
+    /**
+     * Begins retrieving the supplied relationship url, in anticipation of the converter resolving it.  Has no effect
+     * if the url is already being retrieved, or if concurrent retrieval is disabled.
+     *
+     * @param relationshipURL the relationship url
+     */
+    public void prefetch(String relationshipURL) {
+        if (executor == null) {
+            return;
+        }
+
+        Prefetch prefetch;
+        synchronized (pending) {
+            if (pending.containsKey(relationshipURL)) {
+                return;
+            }
+            prefetch = new Prefetch(relationshipURL);
+            pending.put(relationshipURL, prefetch);
+        }
+
+        try {
+            executor.execute(prefetch);
+            prefetchCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            // the converter's thread will perform the retrieval when it asks for the relationship
+            LOG.debug("Prefetch of {} rejected: {}", relationshipURL, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the executor.  Retrievals that have not started are abandoned, and will be performed on the converter's
+     * thread if they are requested.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * The number of relationship retrievals started in advance of the converter asking for them.
+     *
+     * @return the number of prefetched relationships
+     */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /**
+     * The number of converter requests that were satisfied by a retrieval started in advance.
+     *
+     * @return the number of prefetch hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    private static ExecutorService newExecutor(int concurrency) {
+        return Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("osf-relationship-prefetch"));
+    }
+
+    /**
+     * A relationship retrieval, performed either by an executor thread or by the converter's thread, whichever claims
+     * it first.
+     */
+    private class Prefetch implements Runnable {
+
+        private final String relationshipURL;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private Prefetch(String relationshipURL) {
+            this.relationshipURL = relationshipURL;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                result.complete(delegate.resolve(relationshipURL));
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private byte[] join() {
+            if (claimed.compareAndSet(false, true)) {
+                return delegate.resolve(relationshipURL);
+            }
+
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for " + relationshipURL + " to be resolved.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+}
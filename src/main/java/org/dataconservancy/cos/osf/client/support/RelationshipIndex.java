@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.github.jasminb.jsonapi.RelType;
+import com.github.jasminb.jsonapi.ResolutionStrategy;
+import com.github.jasminb.jsonapi.annotations.Id;
+import com.github.jasminb.jsonapi.annotations.Relationship;
+import com.github.jasminb.jsonapi.annotations.Type;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the JSON-API relationships of model classes by JSON-API type.  For each type, the index records the
+ * relationships that the JSON-API converter will resolve when deserializing a resource of that type: those annotated
+ * with {@code resolve = true} and a {@link ResolutionStrategy#OBJECT OBJECT} resolution strategy.  Relationships using
+ * the {@link ResolutionStrategy#REF REF} strategy are not resolved by the converter, and are not indexed.
+ * <p>
+ * An index may <em>defer</em> to-many relationships (those held in a {@code List}).  Deferred relationships are not
+ * resolved during deserialization; instead, the field is populated with a {@link LazyRelationshipList} which resolves
+ * the relationship when it is first accessed.  See {@link SessionRelationshipResolver}.
+ * </p>
+ * <p>
+ * Relationships declared by superclasses of a model class are included.  Instances are immutable.
+ * </p>
+ */
+public class RelationshipIndex {
+
+    private final boolean deferToMany;
+
+    /**
+     * JSON-API type to its resolved relationships, keyed by relationship name
+     */
+    private final Map<String, Map<String, ResolvedRelationship>> relationshipsByType;
+
+    private final Map<Class<?>, ModelDescriptor> descriptors;
+
+    /**
+     * Indexes the model classes detected by {@code scanner}.  All relationships are resolved during deserialization.
+     *
+     * @param scanner detects the classes that represent JSON-API types
+     */
+    public RelationshipIndex(ModelClassScanner scanner) {
+        this(scanner.getDetectedClasses(), false);
+    }
+
+    /**
+     * Indexes the model classes detected by {@code scanner}, optionally deferring the resolution of to-many
+     * relationships.
+     *
+     * @param scanner detects the classes that represent JSON-API types
+     * @param deferToMany whether to-many relationships are resolved lazily
+     */
+    public RelationshipIndex(ModelClassScanner scanner, boolean deferToMany) {
+        this(scanner.getDetectedClasses(), deferToMany);
+    }
+
+    /**
+     * Indexes the supplied model classes.  Classes that are not annotated with {@link Type} are ignored.  All
+     * relationships are resolved during deserialization.
+     *
+     * @param modelClasses the classes that represent JSON-API types
+     */
+    public RelationshipIndex(Collection<Class<?>> modelClasses) {
+        this(modelClasses, false);
+    }
+
+    /**
+     * Indexes the supplied model classes, optionally deferring the resolution of to-many relationships.  Classes that
+     * are not annotated with {@link Type} are ignored.
+     *
+     * @param modelClasses the classes that represent JSON-API types
+     * @param deferToMany whether to-many relationships are resolved lazily
+     */
+    public RelationshipIndex(Collection<Class<?>> modelClasses, boolean deferToMany) {
+        if (modelClasses == null) {
+            throw new IllegalArgumentException("Model classes must not be null.");
+        }
+
+        this.deferToMany = deferToMany;
+
+        Map<String, Map<String, ResolvedRelationship>> byType = new HashMap<>();
+        Map<Class<?>, ModelDescriptor> descriptors = new HashMap<>();
+        for (Class<?> modelClass : modelClasses) {
+            Type type = modelClass.getAnnotation(Type.class);
+            if (type == null) {
+                continue;
+            }
+
+            ModelDescriptor descriptor = describe(type.value(), modelClass);
+            descriptors.put(modelClass, descriptor);
+
+            // more than one class may share a type (e.g. Registration and RegistrationId)
+            Map<String, ResolvedRelationship> relationships =
+                    byType.computeIfAbsent(type.value(), t -> new LinkedHashMap<>());
+            for (ResolvedRelationship rel : descriptor.relationships) {
+                relationships.putIfAbsent(rel.getName(), rel);
+            }
+        }
+
+        byType.replaceAll((type, relationships) -> Collections.unmodifiableMap(relationships));
+        this.relationshipsByType = Collections.unmodifiableMap(byType);
+        this.descriptors = Collections.unmodifiableMap(descriptors);
+    }
+
+    /**
+     * Answers the relationships resolved by the JSON-API converter when deserializing resources of the supplied
+     * JSON-API type, keyed by relationship name.  Deferred relationships are included.
+     *
+     * @param type the JSON-API type, e.g. "{@code nodes}"
+     * @return the resolved relationships of the type, never {@code null}
+     */
+    public Map<String, ResolvedRelationship> getRelationships(String type) {
+        return relationshipsByType.getOrDefault(type, Collections.emptyMap());
+    }
+
+    /**
+     * Answers every relationship of the supplied model class resolved by the JSON-API converter, including deferred
+     * relationships.
+     *
+     * @param modelClass the model class
+     * @return the resolved relationships of the class, empty if the class is not indexed
+     */
+    public List<ResolvedRelationship> getRelationships(Class<?> modelClass) {
+        ModelDescriptor descriptor = descriptors.get(modelClass);
+        return descriptor == null ? Collections.emptyList() : descriptor.relationships;
+    }
+
+    /**
+     * Answers the JSON-API type of the supplied model class.
+     *
+     * @param modelClass the model class
+     * @return the JSON-API type, or {@code null} if the class is not indexed
+     */
+    public String getType(Class<?> modelClass) {
+        ModelDescriptor descriptor = descriptors.get(modelClass);
+        return descriptor == null ? null : descriptor.type;
+    }
+
+    /**
+     * Answers the JSON-API identifier of the supplied model object.
+     *
+     * @param resource an instance of an indexed model class
+     * @return the identifier, or {@code null} if the object is not an instance of an indexed class or has no id
+     */
+    public String getId(Object resource) {
+        ModelDescriptor descriptor = descriptors.get(resource.getClass());
+        if (descriptor == null || descriptor.idField == null) {
+            return null;
+        }
+
+        Object id = get(descriptor.idField, resource);
+        return id == null ? null : id.toString();
+    }
+
+    /**
+     * Whether to-many relationships are resolved lazily.
+     *
+     * @return true if to-many relationships are deferred
+     */
+    public boolean isDeferToMany() {
+        return deferToMany;
+    }
+
+    /**
+     * Answers the number of fields of the supplied model object that are not {@code null}.  Used to tell a fully
+     * deserialized resource from one deserialized from its identifier alone.
+     *
+     * @param resource an instance of an indexed model class
+     * @return the number of populated fields, or zero if the object is not an instance of an indexed class
+     */
+    int getPopulatedFieldCount(Object resource) {
+        ModelDescriptor descriptor = descriptors.get(resource.getClass());
+        if (descriptor == null) {
+            return 0;
+        }
+        return (int) descriptor.fields.stream().filter(field -> get(field, resource) != null).count();
+    }
+
+    private ModelDescriptor describe(String type, Class<?> modelClass) {
+        Field idField = null;
+        List<Field> fields = new ArrayList<>();
+        Map<String, ResolvedRelationship> relationships = new LinkedHashMap<>();
+        for (Class<?> c = modelClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+
+                if (idField == null && field.isAnnotationPresent(Id.class)) {
+                    field.setAccessible(true);
+                    idField = field;
+                }
+
+                Relationship rel = field.getAnnotation(Relationship.class);
+                if (rel == null || !rel.resolve() || rel.strategy() != ResolutionStrategy.OBJECT
+                        || relationships.containsKey(rel.value())) {
+                    continue;
+                }
+
+                field.setAccessible(true);
+                boolean toMany = Collection.class.isAssignableFrom(field.getType());
+                relationships.put(rel.value(), new ResolvedRelationship(rel.value(),
+                        rel.relType() == RelType.SELF ? "self" : "related", field, toMany,
+                        toMany ? elementType(field) : field.getType(), toMany && deferToMany));
+            }
+        }
+
+        return new ModelDescriptor(type, idField, Collections.unmodifiableList(fields),
+                Collections.unmodifiableList(new ArrayList<>(relationships.values())));
+    }
+
+    private static Class<?> elementType(Field field) {
+        if (field.getGenericType() instanceof ParameterizedType) {
+            java.lang.reflect.Type arg = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (arg instanceof Class) {
+                return (Class<?>) arg;
+            }
+        }
+        return Object.class;
+    }
+
+    static Object get(Field field, Object target) {
+        try {
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Unable to read field " + field.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    static void set(Field field, Object target, Object value) {
+        try {
+            field.set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Unable to set field " + field.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A relationship of a model class that is resolved by the JSON-API converter.
+     */
+    public static class ResolvedRelationship {
+
+        private final String name;
+
+        private final String linkName;
+
+        private final Field field;
+
+        private final boolean toMany;
+
+        private final Class<?> targetType;
+
+        private final boolean deferred;
+
+        private ResolvedRelationship(String name, String linkName, Field field, boolean toMany, Class<?> targetType,
+                                     boolean deferred) {
+            this.name = name;
+            this.linkName = linkName;
+            this.field = field;
+            this.toMany = toMany;
+            this.targetType = targetType;
+            this.deferred = deferred;
+        }
+
+        /**
+         * The name of the relationship, e.g. "{@code contributors}"
+         *
+         * @return the relationship name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The name of the link used to resolve the relationship, "{@code related}" or "{@code self}"
+         *
+         * @return the link name
+         */
+        public String getLinkName() {
+            return linkName;
+        }
+
+        /**
+         * The field holding the relationship; it has been made accessible.
+         *
+         * @return the field
+         */
+        public Field getField() {
+            return field;
+        }
+
+        /**
+         * Whether the relationship is held in a collection.
+         *
+         * @return true if the relationship is to-many
+         */
+        public boolean isToMany() {
+            return toMany;
+        }
+
+        /**
+         * The model class of the related resources; for to-many relationships, the element type of the collection.
+         *
+         * @return the type of the related resources
+         */
+        public Class<?> getTargetType() {
+            return targetType;
+        }
+
+        /**
+         * Whether resolution of the relationship is deferred until it is accessed.
+         *
+         * @return true if the relationship is resolved lazily
+         */
+        public boolean isDeferred() {
+            return deferred;
+        }
+    }
+
+    private static class ModelDescriptor {
+
+        private final String type;
+
+        private final Field idField;
+
+        private final List<Field> fields;
+
+        private final List<ResolvedRelationship> relationships;
+
+        private ModelDescriptor(String type, Field idField, List<Field> fields,
+                                List<ResolvedRelationship> relationships) {
+            this.type = type;
+            this.idField = idField;
+            this.fields = fields;
+            this.relationships = relationships;
+        }
+    }
+
+}
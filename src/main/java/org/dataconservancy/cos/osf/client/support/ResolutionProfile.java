@@ -0,0 +1,400 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import retrofit.Call;
+import retrofit.Callback;
+import retrofit.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits which JSON-API relationships are followed when a response is deserialized, and how deep.  Without a profile,
+ * every relationship annotated with {@code resolve = true} and the {@code OBJECT} strategy is followed, all the way
+ * down the object graph.  A profile allows a job to pay only for the part of the graph it uses:
+ * <pre>
+ *     // a citation job only needs contributors
+ *     ResolutionProfile citation = ResolutionProfile.none().include("contributors");
+ *
+ *     // a fixity job needs files, and the files within them, but nothing deeper
+ *     ResolutionProfile fixity = ResolutionProfile.none().include("files", 2);
+ *
+ *     // everything except wikis, at most three relationships away from the requested resource
+ *     ResolutionProfile shallow = ResolutionProfile.all().exclude("wikis").maxDepth(3);
+ * </pre>
+ * <p>
+ * Depth counts relationships away from the resources in the response: the relationships of a requested node are at
+ * depth 1, the relationships of its children are at depth 2, and so on.
+ * </p>
+ * <p>
+ * A profile may be applied to every call made by a service instance, using
+ * {@code RetrofitOsfServiceFactory.getOsfService(Class, ResolutionProfile)}, or to a single call using
+ * {@link #attach(Call)}:
+ * </p>
+ * <pre>
+ *     Node node = citation.attach(osfService.node("v8x57")).execute().body();
+ * </pre>
+ * <p>
+ * Relationships that are not followed are populated as if the related resources had no content: to-many
+ * relationships are empty, and to-one relationships contain an object with only its identifier set.  Profiles only
+ * take effect when responses are deserialized by a {@link ResolvingConverterFactory}.  Instances are immutable.
+ * </p>
+ */
+public final class ResolutionProfile {
+
+    /**
+     * Depth meaning that relationships are followed all the way down the object graph.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final ResolutionProfile ALL = new ResolutionProfile(true, Collections.emptyMap(),
+            Collections.emptySet(), Collections.emptySet(), UNLIMITED, false);
+
+    private static final ResolutionProfile NONE = new ResolutionProfile(false, Collections.emptyMap(),
+            Collections.emptySet(), Collections.emptySet(), UNLIMITED, false);
+
+    /**
+     * The profile bound to the calling thread by {@link ProfiledCall#execute()}
+     */
+    private static final ThreadLocal<ResolutionProfile> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Maximum number of threads executing calls enqueued by calls attached without an executor
+     */
+    public static final int DEFAULT_ASYNC_THREADS = 4;
+
+    /**
+     * Executes calls enqueued by {@link ProfiledCall#enqueue(Callback)} when no executor is supplied to
+     * {@link #attach(Call, Executor)}; idle threads exit
+     */
+    private static final Executor ASYNC_EXECUTOR = newAsyncExecutor();
+
+    private final boolean includeAll;
+
+    private final Map<String, Integer> included;
+
+    private final Set<String> excluded;
+
+    private final Set<String> deferred;
+
+    private final int maxDepth;
+
+    private final boolean partialResults;
+
+    private ResolutionProfile(boolean includeAll, Map<String, Integer> included, Set<String> excluded,
+                              Set<String> deferred, int maxDepth, boolean partialResults) {
+        this.includeAll = includeAll;
+        this.included = included;
+        this.excluded = excluded;
+        this.deferred = deferred;
+        this.maxDepth = maxDepth;
+        this.partialResults = partialResults;
+    }
+
+    /**
+     * A profile which follows every relationship resolved by the model annotations.  This is the behavior when no
+     * profile is supplied.
+     *
+     * @return a profile following every relationship
+     */
+    public static ResolutionProfile all() {
+        return ALL;
+    }
+
+    /**
+     * A profile which follows no relationships.  Relationships may be added using {@link #include(String)}.
+     *
+     * @return a profile following no relationships
+     */
+    public static ResolutionProfile none() {
+        return NONE;
+    }
+
+    /**
+     * Answers a profile which also follows the named relationship, at any depth.
+     *
+     * @param relationship the relationship name, e.g. "{@code contributors}"
+     * @return the new profile
+     */
+    public ResolutionProfile include(String relationship) {
+        return include(relationship, UNLIMITED);
+    }
+
+    /**
+     * Answers a profile which also follows the named relationship, down to {@code depth}.
+     *
+     * @param relationship the relationship name, e.g. "{@code files}"
+     * @param depth the deepest level at which the relationship is followed, must be positive
+     * @return the new profile
+     */
+    public ResolutionProfile include(String relationship, int depth) {
+        if (relationship == null) {
+            throw new IllegalArgumentException("Relationship name must not be null.");
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive.");
+        }
+
+        Map<String, Integer> included = new HashMap<>(this.included);
+        included.put(relationship, depth);
+        Set<String> excluded = new HashSet<>(this.excluded);
+        excluded.remove(relationship);
+        return new ResolutionProfile(includeAll, Collections.unmodifiableMap(included),
+                Collections.unmodifiableSet(excluded), deferred, maxDepth, partialResults);
+    }
+
+    /**
+     * Answers a profile which does not follow the named relationship.
+     *
+     * @param relationship the relationship name, e.g. "{@code wikis}"
+     * @return the new profile
+     */
+    public ResolutionProfile exclude(String relationship) {
+        if (relationship == null) {
+            throw new IllegalArgumentException("Relationship name must not be null.");
+        }
+
+        Map<String, Integer> included = new HashMap<>(this.included);
+        included.remove(relationship);
+        Set<String> excluded = new HashSet<>(this.excluded);
+        excluded.add(relationship);
+        return new ResolutionProfile(includeAll, Collections.unmodifiableMap(included),
+                Collections.unmodifiableSet(excluded), deferred, maxDepth, partialResults);
+    }
+
+    /**
+     * Answers a profile which follows no relationship deeper than {@code depth}.
+     *
+     * @param depth the deepest level at which any relationship is followed, must be positive
+     * @return the new profile
+     */
+    public ResolutionProfile maxDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive.");
+        }
+        return new ResolutionProfile(includeAll, included, excluded, deferred, depth, partialResults);
+    }
+
+    /**
+     * Answers a profile which keeps the successfully resolved part of the object graph when a relationship cannot be
+     * retrieved.  Without it, a failure to retrieve any relationship fails the whole call.  With it, a relationship
+     * that cannot be retrieved is populated as if it were not followed, and is recorded with its cause; it may be
+     * retried later using {@link UnresolvedRelationships#retryUnresolved(Object)}.
+     *
+     * @return the new profile
+     */
+    public ResolutionProfile partialResults() {
+        return new ResolutionProfile(includeAll, included, excluded, deferred, maxDepth, true);
+    }
+
+    /**
+     * Answers a profile which defers the named to-many relationship: rather than being retrieved when the response is
+     * deserialized, it is populated with a {@link LazyRelationshipList}, which is retrieved when first accessed.
+     * Deferring a relationship does not cause it to be followed; to-one relationships are not deferred.
+     *
+     * @param relationship the relationship name, e.g. "{@code files}"
+     * @return the new profile
+     */
+    public ResolutionProfile defer(String relationship) {
+        if (relationship == null) {
+            throw new IllegalArgumentException("Relationship name must not be null.");
+        }
+
+        Set<String> deferred = new HashSet<>(this.deferred);
+        deferred.add(relationship);
+        return new ResolutionProfile(includeAll, included, excluded, Collections.unmodifiableSet(deferred), maxDepth,
+                partialResults);
+    }
+
+    /**
+     * Whether the named relationship is deferred, if it is followed.
+     *
+     * @param relationship the relationship name
+     * @return true if the relationship is deferred
+     * @see #defer(String)
+     */
+    public boolean defers(String relationship) {
+        return deferred.contains(relationship);
+    }
+
+    /**
+     * Whether relationships that cannot be retrieved are recorded rather than failing the call.
+     *
+     * @return true if partial results are answered
+     * @see #partialResults()
+     */
+    public boolean isPartialResults() {
+        return partialResults;
+    }
+
+    /**
+     * Whether the named relationship is followed at the supplied depth.
+     *
+     * @param relationship the relationship name
+     * @param depth the depth of the relationship, 1 for the relationships of the resources in a response
+     * @return true if the relationship is followed
+     */
+    public boolean follows(String relationship, int depth) {
+        if (depth > maxDepth || excluded.contains(relationship)) {
+            return false;
+        }
+
+        Integer limit = included.get(relationship);
+        if (limit != null) {
+            return depth <= limit;
+        }
+
+        return includeAll;
+    }
+
+    /**
+     * Whether this profile follows every relationship at every depth.
+     *
+     * @return true if this profile places no limits on resolution
+     */
+    public boolean isUnlimited() {
+        return includeAll && excluded.isEmpty() && maxDepth == UNLIMITED
+                && included.values().stream().allMatch(depth -> depth == UNLIMITED);
+    }
+
+    /**
+     * Answers a call which deserializes its response using this profile.  The returned call is executed on the calling
+     * thread by {@code execute()}.  {@code enqueue(Callback)} executes the call on a shared pool of at most
+     * {@link #DEFAULT_ASYNC_THREADS} daemon threads, and invokes the callback on that thread; the {@code Retrofit}
+     * instance supplied to {@link Callback#onResponse(Response, retrofit.Retrofit)} is {@code null}.
+     *
+     * @param call the call, typically just returned by an {@code OsfService} method
+     * @param <T> the type of the response body
+     * @return a call which applies this profile
+     */
+    public <T> Call<T> attach(Call<T> call) {
+        return attach(call, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Answers a call which deserializes its response using this profile, as {@link #attach(Call)}, whose
+     * {@code enqueue(Callback)} executes the call and invokes the callback on {@code executor}.
+     *
+     * @param call the call, typically just returned by an {@code OsfService} method
+     * @param executor executes enqueued calls; it remains the caller's to shut down
+     * @param <T> the type of the response body
+     * @return a call which applies this profile
+     */
+    public <T> Call<T> attach(Call<T> call, Executor executor) {
+        if (call == null || executor == null) {
+            throw new IllegalArgumentException("Call and executor must not be null.");
+        }
+        return new ProfiledCall<>(call, this, executor);
+    }
+
+    /**
+     * Answers the profile attached to the call being executed by the calling thread.
+     *
+     * @return the current profile, or {@code null} if none is attached
+     */
+    static ResolutionProfile current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ResolutionProfile{" +
+                "includeAll=" + includeAll +
+                ", included=" + included +
+                ", excluded=" + excluded +
+                ", deferred=" + deferred +
+                ", maxDepth=" + maxDepth +
+                ", partialResults=" + partialResults +
+                '}';
+    }
+
+    private static Executor newAsyncExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_THREADS, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory("osf-profiled-call"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Binds a profile to the thread executing the call, where the {@link ResolvingConverterFactory} will find it.
+     *
+     * @param <T> the type of the response body
+     */
+    private static class ProfiledCall<T> implements Call<T> {
+
+        private final Call<T> delegate;
+
+        private final ResolutionProfile profile;
+
+        private final Executor executor;
+
+        private ProfiledCall(Call<T> delegate, ResolutionProfile profile, Executor executor) {
+            this.delegate = delegate;
+            this.profile = profile;
+            this.executor = executor;
+        }
+
+        @Override
+        public Response<T> execute() throws IOException {
+            ResolutionProfile previous = CURRENT.get();
+            CURRENT.set(profile);
+            try {
+                return delegate.execute();
+            } finally {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            executor.execute(() -> {
+                Response<T> response;
+                try {
+                    response = execute();
+                } catch (Throwable t) {
+                    callback.onFailure(t);
+                    return;
+                }
+                callback.onResponse(response, null);
+            });
+        }
+
+        @Override
+        public void cancel() {
+            delegate.cancel();
+        }
+
+        @Override
+        @SuppressWarnings("CloneDoesntCallSuperClone")
+        public Call<T> clone() {
+            return new ProfiledCall<>(delegate.clone(), profile, executor);
+        }
+    }
+
+}
@@ -0,0 +1,769 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.squareup.okhttp.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * State shared by the {@link SessionRelationshipResolver} and the {@link ResolvingConverterFactory} while one JSON-API
+ * document is deserialized.  A session is bound to the thread performing the deserialization: it is opened before the
+ * JSON-API converter is invoked, and closed when the converter returns.  Sessions may be nested; closing a session
+ * restores the session that was current when it was opened.
+ * <p>
+ * Each JSON-API document encountered during the session is inspected before the converter sees it.  Every
+ * relationship the converter is going to resolve is classified as:
+ * </p>
+ * <ul>
+ *     <li><em>followed</em>: the relationship is taken from the document if the related resources are embedded
+ *         (OSF {@code embeds}) or included (JSON-API {@code included}); otherwise it is retrieved, and prefetched if a
+ *         prefetcher is available</li>
+ *     <li><em>deferred</em>: the {@link RelationshipIndex} resolves the relationship lazily; the converter is given an
+ *         empty document, and once deserialization completes the field is replaced with a
+ *         {@link LazyRelationshipList}</li>
+ *     <li><em>excluded</em>: the {@link ResolutionProfile} does not follow the relationship; the converter is given a
+ *         document containing no related resources (to-many) or only the identifier of the related resource
+ *         (to-one)</li>
+ * </ul>
+ * <p>
+ * The session also acts as an identity map for the resources it deserializes, keyed by JSON-API type and id.  Once a
+ * resource or relationship url has been deserialized in full, later requests for the same url are answered with the
+ * identifiers of the resources alone, so a resource graph containing cycles (e.g. {@code Comment.node} &rarr;
+ * {@code Node.files} &rarr; {@code File.comments} &rarr; {@code Comment}) terminates without further HTTP requests.
+ * Once the converter returns, {@link #deduplicate(Object)} replaces the objects deserialized from identifiers with the
+ * fully deserialized instance of the same resource, so that repeated references share a single instance.
+ * </p>
+ */
+final class ResolutionSession implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResolutionSession.class);
+
+    private static final ThreadLocal<ResolutionSession> CURRENT = new ThreadLocal<>();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Answered in place of an excluded or deferred to-many relationship
+     */
+    private static final byte[] EMPTY_COLLECTION = "{\"data\": []}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Answered in place of an excluded to-one relationship whose type is unknown
+     */
+    private static final byte[] EMPTY_RESOURCE = "{\"data\": null}".getBytes(StandardCharsets.UTF_8);
+
+    private static final UrlToIdTransform URL_TO_ID = new UrlToIdTransform();
+
+    /**
+     * Retrieves and deserializes a deferred relationship.
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * @param relationshipUrl the relationship url
+         * @param type the model class of the related resources
+         * @param depth the depth of the related resources
+         * @param toMany whether the relationship is to-many; a to-one relationship document carries a single
+         *               resource
+         * @return the related resources, at most one for a to-one relationship
+         */
+        List<?> load(String relationshipUrl, Class<?> type, int depth, boolean toMany);
+
+    }
+
+    private final RelationshipIndex index;
+
+    private final ResolutionProfile profile;
+
+    private final PrefetchingRelationshipResolver prefetcher;
+
+    private final EndpointMetrics metrics;
+
+    private final ResolutionSession previous;
+
+    /**
+     * Relationship url to how it is to be resolved
+     */
+    private final Map<String, Link> links = new HashMap<>();
+
+    /**
+     * Deferred relationships, keyed by {@link #key(String, String, String)}
+     */
+    private final Map<String, Link> deferred = new HashMap<>();
+
+    /**
+     * Followed relationships, keyed by {@link #key(String, String, String)}; only recorded when the profile answers
+     * partial results
+     */
+    private final Map<String, Link> followed = new HashMap<>();
+
+    /**
+     * Relationship url to the exception thrown when it could not be retrieved
+     */
+    private final Map<String, RuntimeException> failures = new HashMap<>();
+
+    /**
+     * Relationship url to a document containing the related resources, built from embedded or included data
+     */
+    private final Map<String, byte[]> embedded = new HashMap<>();
+
+    /**
+     * Included resources of every document inspected in this session, keyed by type and id
+     */
+    private final Map<String, JsonNode> included = new HashMap<>();
+
+    /**
+     * Url of a resource or relationship already deserialized in this session, to a document containing only the
+     * identifiers of its resources
+     */
+    private final Map<String, byte[]> references = new HashMap<>();
+
+    /**
+     * Relationship url to the number of resources in its document; only recorded when there are metrics
+     */
+    private final Map<String, Integer> documentSizes = new HashMap<>();
+
+    /**
+     * The number of requests answered from {@link #references}
+     */
+    private int referenceCount;
+
+    /**
+     * Time spent retrieving relationships during this session, in nanoseconds
+     */
+    private long resolutionNanos;
+
+    private ResolutionSession(RelationshipIndex index, ResolutionProfile profile,
+                              PrefetchingRelationshipResolver prefetcher, EndpointMetrics metrics,
+                              ResolutionSession previous) {
+        this.index = index;
+        this.profile = profile;
+        this.prefetcher = prefetcher;
+        this.metrics = metrics;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens a new session, bound to the calling thread.
+     *
+     * @param index the relationship index
+     * @param profile the relationships to follow
+     * @param prefetcher retrieves followed relationships in advance, may be {@code null}
+     * @return the new session, which must be closed by the calling thread
+     */
+    static ResolutionSession open(RelationshipIndex index, ResolutionProfile profile,
+                                  PrefetchingRelationshipResolver prefetcher) {
+        return open(index, profile, prefetcher, null);
+    }
+
+    /**
+     * Opens a new session, bound to the calling thread, which records the relationships it retrieves.
+     *
+     * @param index the relationship index
+     * @param profile the relationships to follow
+     * @param prefetcher retrieves followed relationships in advance, may be {@code null}
+     * @param metrics records each relationship document retrieved, may be {@code null}
+     * @return the new session, which must be closed by the calling thread
+     */
+    static ResolutionSession open(RelationshipIndex index, ResolutionProfile profile,
+                                  PrefetchingRelationshipResolver prefetcher, EndpointMetrics metrics) {
+        ResolutionSession session = new ResolutionSession(index, profile, prefetcher, metrics, CURRENT.get());
+        CURRENT.set(session);
+        return session;
+    }
+
+    /**
+     * Answers the session bound to the calling thread.
+     *
+     * @return the current session, or {@code null} if there is none
+     */
+    static ResolutionSession current() {
+        return CURRENT.get();
+    }
+
+    @Override
+    public void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Classifies the relationships of each resource in the supplied JSON-API document, and begins prefetching the
+     * relationships that will be followed.  Documents that cannot be parsed are ignored; the JSON-API converter will
+     * report the problem.
+     *
+     * @param document the JSON-API document
+     * @param depth the depth of the resources in the document: 0 for a response, and the depth of the relationship
+     *              for a relationship document
+     */
+    void inspect(byte[] document, int depth) {
+        inspect(null, document, depth);
+    }
+
+    /**
+     * Inspects the supplied relationship document, as {@link #inspect(byte[], int)}, and remembers the identifiers of
+     * its resources, so that later requests for {@code relationshipUrl} can be answered by {@link #referenceFor(String)}.
+     *
+     * @param relationshipUrl the url of the relationship document, may be {@code null}
+     * @param document the JSON-API document
+     * @param depth the depth of the resources in the document
+     */
+    void inspect(String relationshipUrl, byte[] document, int depth) {
+        if (document == null || document.length == 0) {
+            return;
+        }
+
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(document);
+        } catch (IOException e) {
+            LOG.debug("Unable to inspect document: {}", e.getMessage());
+            return;
+        }
+
+        JsonNode data = root.path("data");
+        if (relationshipUrl != null && (data.isArray() || data.isObject() || data.isNull())) {
+            references.putIfAbsent(relationshipUrl, identifiers(data));
+        }
+        if (relationshipUrl != null && metrics != null) {
+            documentSizes.put(relationshipUrl, data.isArray() ? data.size() : data.isObject() ? 1 : 0);
+        }
+
+        // included resources are not recorded: the converter only deserializes those that are referenced
+        (data.isArray() ? data : Collections.singletonList(data)).forEach(resource -> {
+            String self = resource.path("links").path("self").asText(null);
+            if (self != null) {
+                references.putIfAbsent(self, identifiers(resource));
+            }
+        });
+
+        root.path("included").forEach(resource ->
+                included.put(resource.path("type").asText() + '/' + resource.path("id").asText(), resource));
+
+        inspect(data, depth);
+        inspect(root.path("included"), depth);
+    }
+
+    /**
+     * Answers a document containing only the identifiers of the resources at the supplied url, if the url has
+     * already been deserialized in this session.
+     *
+     * @param url a resource or relationship url
+     * @return the document, or {@code null} if the url has not been deserialized
+     */
+    byte[] referenceFor(String url) {
+        byte[] reference = references.get(url);
+        if (reference != null) {
+            referenceCount++;
+        }
+        return reference;
+    }
+
+    /**
+     * The number of requests answered by {@link #referenceFor(String)}.
+     *
+     * @return the number of references
+     */
+    int getReferenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * Answers the depth of the supplied relationship url, as recorded when the document containing it was inspected.
+     *
+     * @param relationshipUrl the relationship url
+     * @return the depth of the relationship, or 1 if the url was not encountered in this session
+     */
+    int depthOf(String relationshipUrl) {
+        Link link = links.get(relationshipUrl);
+        return link == null ? 1 : link.depth;
+    }
+
+    /**
+     * Answers the document given to the converter in place of a relationship that is deferred or excluded.
+     *
+     * @param relationshipUrl the relationship url
+     * @return the substitute document, or {@code null} if the relationship is to be retrieved
+     */
+    byte[] substituteFor(String relationshipUrl) {
+        Link link = links.get(relationshipUrl);
+        if (link == null || link.disposition == Disposition.FOLLOW) {
+            return null;
+        }
+
+        return substitute(link);
+    }
+
+    /**
+     * Answers the document given to the converter in place of a followed relationship that could not be retrieved,
+     * if the profile answers partial results.  The failure is remembered, so that it can be recorded on the
+     * deserialized objects by {@link #recordUnresolved(Object, Loader)}.
+     *
+     * @param relationshipUrl the relationship url
+     * @param cause the exception thrown while retrieving the relationship
+     * @return the substitute document, or {@code null} if the failure must be propagated
+     */
+    byte[] substituteForFailure(String relationshipUrl, RuntimeException cause) {
+        Link link = links.get(relationshipUrl);
+        if (!profile.isPartialResults() || link == null) {
+            return null;
+        }
+
+        LOG.debug("Unable to retrieve {}, continuing with a partial result: {}", relationshipUrl, cause.getMessage());
+        failures.put(relationshipUrl, cause);
+        return substitute(link);
+    }
+
+    private byte[] substitute(Link link) {
+        String relationshipUrl = link.url;
+        if (link.relationship.isToMany()) {
+            return EMPTY_COLLECTION;
+        }
+
+        String type = index.getType(link.relationship.getTargetType());
+        if (type == null) {
+            return EMPTY_RESOURCE;
+        }
+
+        ObjectNode resource = JsonNodeFactory.instance.objectNode();
+        resource.putObject("data").put("type", type).put("id", URL_TO_ID.apply(relationshipUrl));
+        return resource.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Records the retrieval of a relationship document in the session's metrics, if any.  The document must already
+     * have been inspected.
+     *
+     * @param relationshipUrl the relationship url
+     * @param bytes the size of the document
+     * @param nanos the time spent waiting for the document, in nanoseconds
+     */
+    void recordRetrieval(String relationshipUrl, long bytes, long nanos) {
+        Link link = links.get(relationshipUrl);
+        if (metrics == null || link == null) {
+            return;
+        }
+
+        HttpUrl url = HttpUrl.parse(relationshipUrl);
+        String endpoint = url == null ? relationshipUrl : EndpointMetrics.endpointOf("GET", url);
+        metrics.recordRelationship(link.type, link.relationship.getName(), endpoint, bytes,
+                documentSizes.getOrDefault(relationshipUrl, 0), nanos);
+    }
+
+    /**
+     * Records time spent retrieving a relationship, as opposed to deserializing it.
+     *
+     * @param nanos the elapsed time, in nanoseconds
+     */
+    void addResolutionNanos(long nanos) {
+        resolutionNanos += nanos;
+    }
+
+    /**
+     * The time spent retrieving relationships during this session.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    long getResolutionNanos() {
+        return resolutionNanos;
+    }
+
+    /**
+     * Answers a document containing the related resources of a followed relationship, if they were embedded in, or
+     * included with, a document inspected in this session.
+     *
+     * @param relationshipUrl the relationship url
+     * @return the document, or {@code null} if the relationship must be retrieved
+     */
+    byte[] embeddedFor(String relationshipUrl) {
+        return embedded.get(relationshipUrl);
+    }
+
+    /**
+     * Replaces the deferred relationships of the supplied deserialized object, and the objects reachable through its
+     * resolved relationships, with {@link LazyRelationshipList}s.
+     *
+     * @param result the object returned by the JSON-API converter, may be a collection
+     * @param loader retrieves and deserializes deferred relationships
+     */
+    void attachLazyRelationships(Object result, Loader loader) {
+        if (!deferred.isEmpty()) {
+            attach(result, loader, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+    }
+
+    /**
+     * Records the relationships that could not be retrieved on the supplied deserialized graph, using
+     * {@link UnresolvedRelationships}.  Each unresolved relationship is recorded on the object owning it, and on the
+     * top of the graph (each element, if {@code result} is a collection).
+     *
+     * @param result the object returned by the JSON-API converter, may be a collection
+     * @param loader retrieves and deserializes a relationship when it is retried
+     */
+    void recordUnresolved(Object result, Loader loader) {
+        if (failures.isEmpty() || result == null) {
+            return;
+        }
+
+        Collection<?> roots = result instanceof Collection ? (Collection<?>) result : Collections.singleton(result);
+        for (Object root : roots) {
+            List<Object> resources = new ArrayList<>();
+            collect(root, Collections.newSetFromMap(new IdentityHashMap<>()), resources);
+            for (Object resource : resources) {
+                String type = index.getType(resource.getClass());
+                String id = index.getId(resource);
+                for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(resource.getClass())) {
+                    Link link = followed.get(key(type, id, rel.getName()));
+                    RuntimeException cause = link == null ? null : failures.get(link.url);
+                    if (cause == null) {
+                        continue;
+                    }
+                    UnresolvedRelationships.Unresolved unresolved = unresolved(resource, rel, link, cause, loader);
+                    UnresolvedRelationships.record(resource, unresolved);
+                    UnresolvedRelationships.record(root, unresolved);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers the record of an unresolved relationship, sharing the record if the relationship has already been
+     * recorded for another top-level object.
+     */
+    private UnresolvedRelationships.Unresolved unresolved(Object resource, RelationshipIndex.ResolvedRelationship rel,
+                                                         Link link, RuntimeException cause, Loader loader) {
+        for (UnresolvedRelationships.Unresolved existing : UnresolvedRelationships.of(resource)) {
+            if (existing.getName().equals(rel.getName()) && existing.getUrl().equals(link.url)) {
+                return existing;
+            }
+        }
+        return new UnresolvedRelationships.Unresolved(resource, rel, link.url, link.depth, cause, loader);
+    }
+
+    /**
+     * Replaces every object in the supplied deserialized graph with the most completely deserialized instance of the
+     * same resource, so that repeated references to a resource share a single instance.  Only necessary if requests
+     * were answered by {@link #referenceFor(String)}.
+     *
+     * @param result the object returned by the JSON-API converter, may be a collection
+     * @return {@code result}, or the instance that replaced it
+     */
+    Object deduplicate(Object result) {
+        if (referenceCount == 0 || result == null) {
+            return result;
+        }
+
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Object> resources = new ArrayList<>();
+        collect(result, visited, resources);
+
+        // instances of different classes may share a type and id (e.g. Registration and RegistrationId)
+        Map<String, Object> canonical = new HashMap<>();
+        for (Object resource : resources) {
+            String key = resource.getClass().getName() + '/' + index.getId(resource);
+            Object existing = canonical.get(key);
+            if (existing == null
+                    || index.getPopulatedFieldCount(resource) > index.getPopulatedFieldCount(existing)) {
+                canonical.put(key, resource);
+            }
+        }
+
+        Function<Object, Object> replacement = value -> {
+            if (value == null || index.getType(value.getClass()) == null || index.getId(value) == null) {
+                return value;
+            }
+            return canonical.getOrDefault(value.getClass().getName() + '/' + index.getId(value), value);
+        };
+
+        for (Object resource : resources) {
+            for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(resource.getClass())) {
+                Object value = RelationshipIndex.get(rel.getField(), resource);
+                if (value instanceof LazyRelationshipList) {
+                    continue;
+                }
+                if (value instanceof Collection) {
+                    RelationshipIndex.set(rel.getField(), resource, replaceElements((Collection<?>) value, replacement));
+                } else if (value != null) {
+                    RelationshipIndex.set(rel.getField(), resource, replacement.apply(value));
+                }
+            }
+        }
+
+        if (result instanceof List) {
+            return replaceElements((List<?>) result, replacement);
+        }
+        return replacement.apply(result);
+    }
+
+    private void collect(Object value, Set<Object> visited, List<Object> resources) {
+        if (value == null || value instanceof LazyRelationshipList || !visited.add(value)) {
+            return;
+        }
+
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                collect(element, visited, resources);
+            }
+            return;
+        }
+
+        if (index.getType(value.getClass()) == null || index.getId(value) == null) {
+            return;
+        }
+
+        resources.add(value);
+        for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(value.getClass())) {
+            collect(RelationshipIndex.get(rel.getField(), value), visited, resources);
+        }
+    }
+
+    /**
+     * Replaces the elements of a collection, in place if the collection is a mutable list.
+     *
+     * @return the collection containing the replacements
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<?> replaceElements(Collection<?> collection, Function<Object, Object> replacement) {
+        if (collection instanceof List) {
+            List<Object> list = (List<Object>) collection;
+            try {
+                list.replaceAll(replacement::apply);
+                return list;
+            } catch (UnsupportedOperationException e) {
+                // fall through, and answer a copy
+            }
+        }
+        return collection.stream().map(replacement).collect(Collectors.toList());
+    }
+
+    private void attach(Object value, Loader loader, Set<Object> visited) {
+        if (value == null || value instanceof LazyRelationshipList || !visited.add(value)) {
+            return;
+        }
+
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                attach(element, loader, visited);
+            }
+            return;
+        }
+
+        String type = index.getType(value.getClass());
+        if (type == null) {
+            return;
+        }
+
+        String id = index.getId(value);
+        for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(value.getClass())) {
+            // relationships may be deferred by the index, or by the profile
+            Link link = rel.isToMany() ? deferred.get(key(type, id, rel.getName())) : null;
+            if (link == null) {
+                attach(RelationshipIndex.get(rel.getField(), value), loader, visited);
+            } else {
+                Class<?> targetType = rel.getTargetType();
+                int depth = link.depth;
+                RelationshipIndex.set(rel.getField(), value,
+                        new LazyRelationshipList<>(link.url, url -> loader.load(url, targetType, depth, true)));
+            }
+        }
+    }
+
+    private void inspect(JsonNode data, int depth) {
+        if (data.isArray()) {
+            data.forEach(resource -> inspectResource(resource, depth));
+        } else if (data.isObject()) {
+            inspectResource(data, depth);
+        }
+    }
+
+    private void inspectResource(JsonNode resource, int depth) {
+        String type = resource.path("type").asText();
+        String id = resource.path("id").asText();
+        JsonNode relationships = resource.path("relationships");
+
+        for (RelationshipIndex.ResolvedRelationship rel : index.getRelationships(type).values()) {
+            JsonNode linkNode = relationships.path(rel.getName()).path("links").path(rel.getLinkName());
+            String href = linkNode.isTextual() ? linkNode.asText() : linkNode.path("href").asText(null);
+            if (href == null) {
+                continue;
+            }
+
+            Disposition disposition;
+            if (!profile.follows(rel.getName(), depth + 1)) {
+                disposition = Disposition.EXCLUDE;
+            } else if (rel.isDeferred() || (rel.isToMany() && profile.defers(rel.getName()))) {
+                disposition = Disposition.DEFER;
+            } else {
+                disposition = Disposition.FOLLOW;
+            }
+
+            Link link = new Link(href, type, rel, depth + 1, disposition);
+            Link existing = links.get(href);
+            // if the same url is reached more than once, following it takes precedence
+            if (existing == null || disposition.ordinal() < existing.disposition.ordinal()) {
+                links.put(href, link);
+            }
+
+            if (disposition == Disposition.DEFER) {
+                deferred.put(key(type, id, rel.getName()), link);
+                continue;
+            }
+
+            if (disposition == Disposition.FOLLOW && profile.isPartialResults()) {
+                followed.put(key(type, id, rel.getName()), link);
+            }
+
+            if (disposition != Disposition.FOLLOW || embedded.containsKey(href)) {
+                continue;
+            }
+
+            byte[] document = embeddedDocument(resource.path("embeds").path(rel.getName()),
+                    relationships.path(rel.getName()));
+            if (document != null) {
+                embedded.put(href, document);
+            } else if (prefetcher != null && (existing == null || existing.disposition != Disposition.FOLLOW)
+                    && !references.containsKey(href)) {
+                prefetcher.prefetch(href);
+            }
+        }
+    }
+
+    /**
+     * Builds a document containing the related resources of a relationship from the resource's embedded data, or
+     * from the resource linkage of the relationship, if every linked resource has been included.
+     *
+     * @param embed the member of the resource's {@code embeds} object named by the relationship
+     * @param relationship the member of the resource's {@code relationships} object named by the relationship
+     * @return the document, or {@code null} if the related resources are not available
+     */
+    private byte[] embeddedDocument(JsonNode embed, JsonNode relationship) {
+        // an embed that could not be satisfied (e.g. a private resource) carries errors instead of data, and an embed
+        // with a next link holds only the first page of the relationship
+        if (embed.has("data") && !embed.has("errors") && !embed.path("links").path("next").isTextual()) {
+            return embed.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        JsonNode linkage = relationship.path("data");
+        if (linkage.isMissingNode()) {
+            return null;
+        }
+
+        ObjectNode document = JsonNodeFactory.instance.objectNode();
+        if (linkage.isNull()) {
+            document.putNull("data");
+        } else if (linkage.isArray()) {
+            for (JsonNode identifier : linkage) {
+                JsonNode resource = included.get(identifier.path("type").asText() + '/' +
+                        identifier.path("id").asText());
+                if (resource == null) {
+                    return null;
+                }
+                document.withArray("data").add(resource);
+            }
+            if (linkage.size() == 0) {
+                document.putArray("data");
+            }
+        } else {
+            JsonNode resource = included.get(linkage.path("type").asText() + '/' + linkage.path("id").asText());
+            if (resource == null) {
+                return null;
+            }
+            document.set("data", resource);
+        }
+
+        return document.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Answers a document containing the resource identifiers of the supplied primary data.
+     */
+    private static byte[] identifiers(JsonNode data) {
+        ObjectNode document = JsonNodeFactory.instance.objectNode();
+        if (data.isArray()) {
+            ArrayNode identifiers = document.putArray("data");
+            data.forEach(resource -> identifiers.addObject()
+                    .put("type", resource.path("type").asText())
+                    .put("id", resource.path("id").asText()));
+        } else if (data.isObject()) {
+            document.putObject("data")
+                    .put("type", data.path("type").asText())
+                    .put("id", data.path("id").asText());
+        } else {
+            document.putNull("data");
+        }
+        return document.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String key(String type, String id, String relationship) {
+        return type + '/' + id + '/' + relationship;
+    }
+
+    /**
+     * How a relationship is resolved, in order of precedence
+     */
+    private enum Disposition {
+        FOLLOW, DEFER, EXCLUDE
+    }
+
+    private static class Link {
+
+        private final String url;
+
+        /**
+         * The JSON-API type of the resource owning the relationship
+         */
+        private final String type;
+
+        private final RelationshipIndex.ResolvedRelationship relationship;
+
+        private final int depth;
+
+        private final Disposition disposition;
+
+        private Link(String url, String type, RelationshipIndex.ResolvedRelationship relationship, int depth,
+                     Disposition disposition) {
+            this.url = url;
+            this.type = type;
+            this.relationship = relationship;
+            this.depth = depth;
+            this.disposition = disposition;
+        }
+    }
+
+}
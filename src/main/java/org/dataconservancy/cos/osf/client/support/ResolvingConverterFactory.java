@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.github.jasminb.jsonapi.ResourceConverter;
+import com.github.jasminb.jsonapi.retrofit.JSONAPIConverterFactory;
+import com.squareup.okhttp.ResponseBody;
+import retrofit.Converter;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@code JSONAPIConverterFactory} which deserializes each response within a {@link ResolutionSession}, allowing the
+ * {@link SessionRelationshipResolver} to defer relationships.  Once the JSON-API converter returns, deferred
+ * relationships of the deserialized objects are replaced with {@link LazyRelationshipList}s, which retrieve and
+ * deserialize the relationship when first accessed.
+ * <p>
+ * The supplied {@code ResourceConverter} must use the supplied {@code SessionRelationshipResolver} as its global
+ * resolver:
+ * </p>
+ * <pre>
+ *     RelationshipIndex index = new RelationshipIndex(domainClasses, true);
+ *     SessionRelationshipResolver resolver = new SessionRelationshipResolver(
+ *             new ResourceConverterGlobalResolver(httpClient), index);
+ *     resourceConverter.setGlobalResolver(resolver);
+ *     JSONAPIConverterFactory converterFactory = new ResolvingConverterFactory(resourceConverter, resolver);
+ * </pre>
+ * <p>
+ * A {@link ResolutionProfile} limits the relationships that are followed.  A profile may be supplied for every response
+ * deserialized by a factory, using {@link #withProfile(ResolutionProfile)}, or for a single call, using
+ * {@link ResolutionProfile#attach(retrofit.Call)}; the profile attached to a call takes precedence.
+ * </p>
+ * <p>
+ * Relationships whose related resources are embedded in the response (e.g. requested with {@code embed=contributors})
+ * or included in it are taken from the response rather than retrieved.
+ * </p>
+ * <p>
+ * Each response is deserialized with its own identity map: a resource referenced more than once in the response's
+ * object graph is retrieved once, and every reference shares the same instance.  Cycles in the graph are broken the
+ * same way.
+ * </p>
+ * <p>
+ * With a {@link ResolutionProfile#partialResults() partial results} profile, relationships that cannot be retrieved
+ * do not fail the call; they are recorded using {@link UnresolvedRelationships}, and may be retried.
+ * </p>
+ */
+public class ResolvingConverterFactory extends JSONAPIConverterFactory {
+
+    private final ResourceConverter converter;
+
+    private final SessionRelationshipResolver resolver;
+
+    private final ResolutionProfile profile;
+
+    private volatile EndpointMetrics metrics;
+
+    /**
+     * Constructs a converter factory which deserializes responses using {@code converter}, following every
+     * relationship.
+     *
+     * @param converter the JSON-API converter, configured with {@code resolver} as its global resolver
+     * @param resolver the resolver used by {@code converter}
+     */
+    public ResolvingConverterFactory(ResourceConverter converter, SessionRelationshipResolver resolver) {
+        this(converter, resolver, ResolutionProfile.all());
+    }
+
+    /**
+     * Constructs a converter factory which deserializes responses using {@code converter}, following the
+     * relationships allowed by {@code profile}.
+     *
+     * @param converter the JSON-API converter, configured with {@code resolver} as its global resolver
+     * @param resolver the resolver used by {@code converter}
+     * @param profile the relationships to follow
+     */
+    public ResolvingConverterFactory(ResourceConverter converter, SessionRelationshipResolver resolver,
+                                     ResolutionProfile profile) {
+        super(converter);
+        if (converter == null) {
+            throw new IllegalArgumentException("ResourceConverter must not be null.");
+        }
+        if (resolver == null) {
+            throw new IllegalArgumentException("SessionRelationshipResolver must not be null.");
+        }
+        if (profile == null) {
+            throw new IllegalArgumentException("ResolutionProfile must not be null.");
+        }
+        this.converter = converter;
+        this.resolver = resolver;
+        this.profile = profile;
+    }
+
+    /**
+     * Answers a converter factory sharing the converter and resolver of this factory, which follows the
+     * relationships allowed by {@code profile}.
+     *
+     * @param profile the relationships to follow
+     * @return the new converter factory
+     */
+    public ResolvingConverterFactory withProfile(ResolutionProfile profile) {
+        ResolvingConverterFactory factory = new ResolvingConverterFactory(converter, resolver, profile);
+        factory.setMetrics(metrics);
+        return factory;
+    }
+
+    /**
+     * The relationships followed by this factory, unless a call carries its own profile.
+     *
+     * @return the profile
+     */
+    public ResolutionProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * The metrics updated with the size and parse time of each response, if any.
+     *
+     * @return the endpoint metrics, may be {@code null}
+     */
+    public EndpointMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Records the size and parse time of each response in the supplied metrics.  The metrics must also be added to
+     * the {@code OkHttpClient} as an interceptor.
+     *
+     * @param metrics the endpoint metrics, may be {@code null} to stop recording
+     */
+    public void setMetrics(EndpointMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> fromResponseBody(Type type, Annotation[] annotations) {
+        Converter<ResponseBody, ?> delegate = super.fromResponseBody(type, annotations);
+        if (delegate == null) {
+            return null;
+        }
+
+        return body -> convert(delegate, body);
+    }
+
+    private Object convert(Converter<ResponseBody, ?> delegate, ResponseBody body) throws IOException {
+        ResolutionProfile profile = ResolutionProfile.current();
+        if (profile == null) {
+            profile = this.profile;
+        }
+
+        EndpointMetrics metrics = this.metrics;
+        String endpoint = metrics != null ? EndpointMetrics.takeCurrentEndpoint() : null;
+
+        byte[] document = body.bytes();
+        long start = System.nanoTime();
+        long allocated = endpoint != null ? EndpointMetrics.allocatedBytes() : -1;
+        try (ResolutionSession session = ResolutionSession.open(resolver.getIndex(), profile,
+                resolver.getPrefetcher(), metrics)) {
+            session.inspect(document, 0);
+            Object result = session.deduplicate(delegate.convert(ResponseBody.create(body.contentType(), document)));
+            attachLazyRelationships(session, result, profile);
+            if (endpoint != null) {
+                metrics.record(endpoint, document.length, System.nanoTime() - start - session.getResolutionNanos(),
+                        allocated < 0 ? -1 : EndpointMetrics.allocatedBytes() - allocated);
+            }
+            return result;
+        }
+    }
+
+    private void attachLazyRelationships(ResolutionSession session, Object result, ResolutionProfile profile) {
+        ResolutionSession.Loader loader = (url, type, depth, toMany) -> load(url, type, depth, toMany, profile);
+        session.attachLazyRelationships(result, loader);
+        session.recordUnresolved(result, loader);
+    }
+
+    /**
+     * Retrieves and deserializes a deferred relationship.  Invoked by a {@link LazyRelationshipList} when it is first
+     * accessed, and when an unresolved relationship is retried.
+     *
+     * @param relationshipUrl the relationship url
+     * @param type the model class of the related resources
+     * @param depth the depth of the related resources
+     * @param toMany whether the relationship is to-many
+     * @param profile the profile in effect when the relationship was deferred
+     * @return the related resources, at most one for a to-one relationship
+     */
+    private List<?> load(String relationshipUrl, Class<?> type, int depth, boolean toMany,
+                         ResolutionProfile profile) {
+        try (ResolutionSession session = ResolutionSession.open(resolver.getIndex(), profile,
+                resolver.getPrefetcher(), metrics)) {
+            byte[] document = resolver.getDelegate().resolve(relationshipUrl);
+            session.inspect(relationshipUrl, document, depth);
+            List<?> result;
+            if (toMany) {
+                result = (List<?>) session.deduplicate(converter.readObjectCollection(document, type));
+            } else {
+                Object related = session.deduplicate(converter.readObject(document, type));
+                result = related == null ? Collections.emptyList() : Collections.singletonList(related);
+            }
+            attachLazyRelationships(session, result, profile);
+            return result;
+        }
+    }
+
+}
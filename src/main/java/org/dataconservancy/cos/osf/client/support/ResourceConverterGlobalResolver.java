@@ -18,34 +18,74 @@ package org.dataconservancy.cos.osf.client.support;
 import com.github.jasminb.jsonapi.RelationshipResolver;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
 
 import java.io.IOException;
 
 /**
  * Default {@code RelationshipResolver} used by the JSON-API Converter to retrieve the contents of JSON-API
  * relationships.
+ * <p>
+ * If a {@link ResponseCache} is supplied on construction, the bodies of successful responses are cached by
+ * relationship url, and subsequent requests for the same url are answered from the cache without an HTTP request.
+ * </p>
  */
 public class ResourceConverterGlobalResolver implements RelationshipResolver {
 
     private OkHttpClient httpClient;
 
+    private ResponseCache cache;
+
     /**
      * Constructs a new resolver using the supplied {@code httpClient} to retrieve relationship urls.
      *
      * @param httpClient the configured http client
      */
     public ResourceConverterGlobalResolver(OkHttpClient httpClient) {
+        this(httpClient, null);
+    }
+
+    /**
+     * Constructs a new resolver using the supplied {@code httpClient} to retrieve relationship urls, caching
+     * successful responses in {@code cache}.
+     *
+     * @param httpClient the configured http client
+     * @param cache the relationship response cache, may be {@code null} if responses should not be cached
+     */
+    public ResourceConverterGlobalResolver(OkHttpClient httpClient, ResponseCache cache) {
         this.httpClient = httpClient;
+        this.cache = cache;
     }
 
     @Override
     public byte[] resolve(String relationshipURL) {
+        if (cache != null) {
+            byte[] cached = cache.get(relationshipURL);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         com.squareup.okhttp.Call req = httpClient.newCall(new Request.Builder().url(relationshipURL).build());
         try {
-            return req.execute().body().bytes();
+            Response res = req.execute();
+            byte[] body = res.body().bytes();
+            if (cache != null && res.isSuccessful()) {
+                cache.put(relationshipURL, body);
+            }
+            return body;
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
     }
 
+    /**
+     * The cache used by this resolver, may be {@code null}.
+     *
+     * @return the relationship response cache
+     */
+    public ResponseCache getCache() {
+        return cache;
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+/**
+ * Caches the bodies of HTTP responses retrieved when resolving JSON-API relationships, keyed by the relationship URL.
+ * <p>
+ * Implementations must be safe for use by multiple threads.  Callers must not mutate the arrays returned by, or
+ * supplied to, the cache.
+ * </p>
+ *
+ * @see ResourceConverterGlobalResolver
+ */
+public interface ResponseCache {
+
+    /**
+     * Answer the cached response body for {@code url}, or {@code null} if there is no cached body, or if the cached
+     * body has expired.
+     *
+     * @param url the relationship url
+     * @return the cached response body, or {@code null}
+     */
+    byte[] get(String url);
+
+    /**
+     * Cache the response body for {@code url}.  Implementations may decline to cache the body (for example, if the
+     * body exceeds the capacity of the cache).
+     *
+     * @param url the relationship url
+     * @param body the response body
+     */
+    void put(String url, byte[] body);
+
+    /**
+     * Remove the cached response body for {@code url}, if present.
+     *
+     * @param url the relationship url
+     */
+    void invalidate(String url);
+
+    /**
+     * Remove all cached response bodies.
+     */
+    void clear();
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.github.jasminb.jsonapi.RelationshipResolver;
+
+/**
+ * The outermost {@code RelationshipResolver} given to the JSON-API converter.  While a {@link ResolvingConverterFactory}
+ * is deserializing a response, this resolver inspects each relationship document it retrieves, and answers relationships
+ * that the {@link RelationshipIndex} defers, or that the {@link ResolutionProfile} in effect does not follow, with a
+ * substitute document instead of retrieving them.  Relationships whose related resources were embedded in, or included
+ * with, a document deserialized earlier in the session are answered from that data, without an HTTP request.  The
+ * converter factory then replaces the deferred relationships with {@link LazyRelationshipList}s.  Resources and
+ * relationships that have already been deserialized in the session are answered with resource identifiers only; the
+ * converter factory then replaces the resulting objects with the fully deserialized instances.
+ * <p>
+ * If the profile in effect answers {@link ResolutionProfile#partialResults() partial results}, a relationship that
+ * cannot be retrieved is answered with a substitute document, and the failure is recorded by the converter factory
+ * using {@link UnresolvedRelationships}.
+ * </p>
+ * <p>
+ * If the delegate is a {@link PrefetchingRelationshipResolver}, the relationships that are followed are prefetched as
+ * soon as the document containing them is inspected.
+ * </p>
+ * <p>
+ * Outside of a deserialization performed by a {@code ResolvingConverterFactory}, this resolver simply delegates.
+ * </p>
+ */
+public class SessionRelationshipResolver implements RelationshipResolver {
+
+    private final RelationshipResolver delegate;
+
+    private final RelationshipIndex index;
+
+    /**
+     * Constructs a resolver that retrieves relationships using {@code delegate}, deferring the relationships deferred
+     * by {@code index}.
+     *
+     * @param delegate the underlying resolver
+     * @param index the relationship index
+     */
+    public SessionRelationshipResolver(RelationshipResolver delegate, RelationshipIndex index) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate RelationshipResolver must not be null.");
+        }
+        if (index == null) {
+            throw new IllegalArgumentException("RelationshipIndex must not be null.");
+        }
+        this.delegate = delegate;
+        this.index = index;
+    }
+
+    @Override
+    public byte[] resolve(String relationshipURL) {
+        ResolutionSession session = ResolutionSession.current();
+        if (session == null) {
+            return delegate.resolve(relationshipURL);
+        }
+
+        byte[] substitute = session.substituteFor(relationshipURL);
+        if (substitute != null) {
+            return substitute;
+        }
+
+        // resources already deserialized in this session are answered by reference, which also terminates cycles
+        byte[] reference = session.referenceFor(relationshipURL);
+        if (reference != null) {
+            return reference;
+        }
+
+        byte[] document = session.embeddedFor(relationshipURL);
+        if (document != null) {
+            session.inspect(relationshipURL, document, session.depthOf(relationshipURL));
+            return document;
+        }
+
+        long start = System.nanoTime();
+        try {
+            document = delegate.resolve(relationshipURL);
+        } catch (RuntimeException e) {
+            byte[] substituteForFailure = session.substituteForFailure(relationshipURL, e);
+            if (substituteForFailure == null) {
+                throw e;
+            }
+            return substituteForFailure;
+        } finally {
+            session.addResolutionNanos(System.nanoTime() - start);
+        }
+        long retrievalNanos = System.nanoTime() - start;
+
+        session.inspect(relationshipURL, document, session.depthOf(relationshipURL));
+        if (document != null) {
+            session.recordRetrieval(relationshipURL, document.length, retrievalNanos);
+        }
+        return document;
+    }
+
+    /**
+     * The underlying resolver.
+     *
+     * @return the underlying resolver
+     */
+    public RelationshipResolver getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * The resolver that prefetches followed relationships, if any.
+     *
+     * @return the delegate, if it is a {@code PrefetchingRelationshipResolver}, otherwise {@code null}
+     */
+    PrefetchingRelationshipResolver getPrefetcher() {
+        // the prefetcher must be the immediate delegate, so that the relationships it retrieves are claimed from it
+        return delegate instanceof PrefetchingRelationshipResolver ? (PrefetchingRelationshipResolver) delegate : null;
+    }
+
+    /**
+     * The relationship index.
+     *
+     * @return the relationship index
+     */
+    public RelationshipIndex getIndex() {
+        return index;
+    }
+
+}
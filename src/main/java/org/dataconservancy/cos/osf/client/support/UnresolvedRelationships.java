@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Records the relationships that could not be retrieved when a response was deserialized using a
+ * {@link ResolutionProfile#partialResults() partial results} profile, and retries them:
+ * <pre>
+ *     ResolutionProfile partial = ResolutionProfile.all().partialResults();
+ *     Node node = partial.attach(osfService.node("v8x57")).execute().body();
+ *     while (!UnresolvedRelationships.isComplete(node)) {
+ *         // re-fetches only the relationships that failed
+ *         UnresolvedRelationships.retryUnresolved(node);
+ *     }
+ * </pre>
+ * <p>
+ * Unresolved relationships are recorded on the object that owns the relationship, and on the object returned by the
+ * call (each element, if the call returned a list), so that everything missing from a deserialized graph can be
+ * retried from its top.  Until it is retried successfully, an unresolved relationship is populated as if it were not
+ * followed: a to-many relationship is empty, and a to-one relationship contains an object with only its identifier
+ * set.
+ * </p>
+ * <p>
+ * Records are held weakly, and disappear with the objects they are recorded on.  This class is safe for use by
+ * multiple threads, but an object should not be retried by more than one thread at a time.
+ * </p>
+ */
+public final class UnresolvedRelationships {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnresolvedRelationships.class);
+
+    /**
+     * Deserialized object to the unresolved relationships recorded on it.  Model classes do not override
+     * {@code equals}, so the keys are compared by identity.
+     */
+    private static final Map<Object, List<Unresolved>> RECORDS = new WeakHashMap<>();
+
+    private UnresolvedRelationships() {
+        // static methods only
+    }
+
+    /**
+     * Answers the unresolved relationships recorded on the supplied object.
+     *
+     * @param object a deserialized model object
+     * @return the unresolved relationships, empty if there are none
+     */
+    public static List<Unresolved> of(Object object) {
+        synchronized (RECORDS) {
+            List<Unresolved> unresolved = RECORDS.get(object);
+            return unresolved == null ? Collections.emptyList() : new ArrayList<>(unresolved);
+        }
+    }
+
+    /**
+     * Whether every relationship of the supplied object, and of the objects deserialized with it, was resolved.
+     *
+     * @param object a deserialized model object
+     * @return true if there are no unresolved relationships
+     */
+    public static boolean isComplete(Object object) {
+        return of(object).isEmpty();
+    }
+
+    /**
+     * Retrieves the unresolved relationships recorded on the supplied object, using the profile in effect when the
+     * object was deserialized.  Relationships that are retrieved successfully are populated, and are no longer
+     * recorded; relationships that fail again remain recorded, with the new cause.
+     *
+     * @param object a deserialized model object
+     * @return the number of relationships that remain unresolved
+     */
+    public static int retryUnresolved(Object object) {
+        for (Unresolved unresolved : of(object)) {
+            Object owner = unresolved.owner.get();
+            if (owner == null) {
+                forget(unresolved);
+                continue;
+            }
+
+            List<?> related;
+            try {
+                related = unresolved.loader.load(unresolved.url, unresolved.relationship.getTargetType(),
+                        unresolved.depth, unresolved.relationship.isToMany());
+            } catch (RuntimeException e) {
+                LOG.debug("Relationship {} of {} is still unresolved: {}", unresolved.getName(), owner,
+                        e.getMessage());
+                unresolved.cause = e;
+                continue;
+            }
+
+            RelationshipIndex.set(unresolved.relationship.getField(), owner, unresolved.relationship.isToMany() ?
+                    related : related.isEmpty() ? null : related.get(0));
+            forget(unresolved);
+
+            // relationships of the retrieved objects may themselves be unresolved
+            for (Object resource : related) {
+                for (Unresolved nested : of(resource)) {
+                    record(object, nested);
+                }
+            }
+        }
+        return of(object).size();
+    }
+
+    /**
+     * Records an unresolved relationship on the supplied object.
+     *
+     * @param object the object owning the relationship, or the object returned by the call
+     * @param unresolved the unresolved relationship
+     */
+    static void record(Object object, Unresolved unresolved) {
+        synchronized (RECORDS) {
+            List<Unresolved> records = RECORDS.computeIfAbsent(object, key -> new ArrayList<>());
+            if (!records.contains(unresolved)) {
+                records.add(unresolved);
+            }
+        }
+    }
+
+    /**
+     * Removes an unresolved relationship from every object it is recorded on.
+     */
+    private static void forget(Unresolved unresolved) {
+        synchronized (RECORDS) {
+            RECORDS.values().forEach(records -> records.remove(unresolved));
+            RECORDS.values().removeIf(List::isEmpty);
+        }
+    }
+
+    /**
+     * A relationship that could not be retrieved.
+     */
+    public static class Unresolved {
+
+        /**
+         * Held weakly, so that a record does not keep the object it is recorded on alive
+         */
+        private final WeakReference<Object> owner;
+
+        private final RelationshipIndex.ResolvedRelationship relationship;
+
+        private final String url;
+
+        private final int depth;
+
+        private final ResolutionSession.Loader loader;
+
+        private volatile RuntimeException cause;
+
+        Unresolved(Object owner, RelationshipIndex.ResolvedRelationship relationship, String url, int depth,
+                   RuntimeException cause, ResolutionSession.Loader loader) {
+            this.owner = new WeakReference<>(owner);
+            this.relationship = relationship;
+            this.url = url;
+            this.depth = depth;
+            this.cause = cause;
+            this.loader = loader;
+        }
+
+        /**
+         * The object owning the relationship.
+         *
+         * @return the owner, or {@code null} if it is no longer referenced
+         */
+        public Object getOwner() {
+            return owner.get();
+        }
+
+        /**
+         * The name of the relationship, e.g. "{@code contributors}".
+         *
+         * @return the relationship name
+         */
+        public String getName() {
+            return relationship.getName();
+        }
+
+        /**
+         * The url of the relationship.
+         *
+         * @return the relationship url
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Why the relationship could not be retrieved, the most recent cause if it has been retried.
+         *
+         * @return the cause
+         */
+        public RuntimeException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Unresolved{" +
+                    "name=" + relationship.getName() +
+                    ", url=" + url +
+                    ", cause=" + cause +
+                    '}';
+        }
+    }
+
+}
@@ -15,10 +15,16 @@
  */
 package org.dataconservancy.cos.osf.client.config;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 
 /**
  * Tests for the Jackson-based configuration service.  Note that the same configuration file can contain
@@ -50,4 +56,33 @@ public class JacksonOsfConfigurationServiceTest {
         assertEquals(7777, config.getPort());
         assertEquals("/v1/", config.getBasePath());
     }
+
+    @Test
+    public void testCallersReceiveIndependentConfigurations() throws Exception {
+        JacksonOsfConfigurationService underTest = new JacksonOsfConfigurationService("org/dataconservancy/cos/osf/client/config/osf-client-jacksontest.json");
+
+        OsfClientConfiguration modified = underTest.getConfiguration();
+        modified.setAuthHeader("bar");
+
+        assertNotSame(modified, underTest.getConfiguration());
+        assertEquals("foo", underTest.getConfiguration().getAuthHeader());
+    }
+
+    @Test
+    public void testModifiedFileIsReloaded() throws Exception {
+        String json = IOUtils.toString(this.getClass().getResource("osf-client-jacksontest.json"), "UTF-8");
+        File configFile = Files.createTempFile("osf-client-", ".json").toFile();
+        configFile.deleteOnExit();
+        Files.write(configFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+
+        JacksonOsfConfigurationService underTest = new JacksonOsfConfigurationService(configFile.toURI().toString());
+        underTest.setReloadIntervalMillis(1);
+        assertEquals("foo", underTest.getConfiguration().getAuthHeader());
+
+        Files.write(configFile.toPath(), json.replace("\"foo\"", "\"bar\"").getBytes(StandardCharsets.UTF_8));
+        configFile.setLastModified(configFile.lastModified() + 2000);
+        Thread.sleep(5);
+
+        assertEquals("bar", underTest.getConfiguration().getAuthHeader());
+    }
 }
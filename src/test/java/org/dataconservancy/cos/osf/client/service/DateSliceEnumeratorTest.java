@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.dataconservancy.cos.osf.client.support.JodaSupport;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import retrofit.Call;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the DateSliceEnumerator
+ */
+public class DateSliceEnumeratorTest {
+
+    private static final String GTE = "filter[date_created][gte]";
+
+    private static final String LT = "filter[date_created][lt]";
+
+    private static final int PAGE_SIZE = 10;
+
+    private static final DateTime FROM = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    private static final DateTime TO = FROM.plusDays(10);
+
+    /**
+     * Creation times of the corpus, in millis
+     */
+    private final List<Long> created = new ArrayList<>();
+
+    /**
+     * Page urls handed out, keyed by url
+     */
+    private final Map<String, List<Long>> pageUrls = new ConcurrentHashMap<>();
+
+    @Test
+    public void testEveryResourceIsEnumeratedOnceAndDenseSlicesAreSplit() throws Exception {
+        // one resource a day, and three hundred on the fifth day
+        for (int day = 0; day < 10; day++) {
+            created.add(FROM.plusDays(day).getMillis());
+        }
+        for (int i = 0; i < 300; i++) {
+            created.add(FROM.plusDays(4).plusMinutes(i).getMillis());
+        }
+
+        DateSliceEnumerator<Long> underTest = new DateSliceEnumerator<>(this::firstPage, this::page,
+                DateSliceEnumerator.Field.DATE_CREATED, 4, PAGE_SIZE, 50);
+
+        List<Long> enumerated = Collections.synchronizedList(new ArrayList<>());
+        List<DateSliceEnumerator.Slice> slices = new ArrayList<>();
+        try {
+            underTest.enumerate(FROM, TO, null, (slice, resources) -> {
+                slices.add(slice);
+                enumerated.addAll(resources);
+            });
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(created.stream().sorted().collect(Collectors.toList()),
+                enumerated.stream().sorted().collect(Collectors.toList()));
+        assertTrue(underTest.getSplitCount() > 0);
+        assertEquals(slices.size(), underTest.getSliceCount());
+
+        // the completed slices cover the range without overlapping
+        slices.sort((a, b) -> a.getFrom().compareTo(b.getFrom()));
+        assertEquals(FROM, slices.get(0).getFrom());
+        for (int i = 1; i < slices.size(); i++) {
+            assertEquals(slices.get(i - 1).getTo(), slices.get(i).getFrom());
+        }
+        assertEquals(TO, slices.get(slices.size() - 1).getTo());
+        assertFalse(slices.stream().anyMatch(slice -> !slice.getFrom().isBefore(slice.getTo())));
+    }
+
+    private Call<ResourceList<Long>> firstPage(Map<String, String> params) {
+        long from = JodaSupport.parseDateTime(params.get(GTE)).getMillis();
+        long to = JodaSupport.parseDateTime(params.get(LT)).getMillis();
+        List<Long> matching = created.stream().filter(millis -> millis >= from && millis < to).sorted()
+                .collect(Collectors.toList());
+        return page(matching, 1);
+    }
+
+    private Call<ResourceList<Long>> page(String url) {
+        return page(pageUrls.get(url), Integer.parseInt(url.substring(url.lastIndexOf('=') + 1)));
+    }
+
+    private Call<ResourceList<Long>> page(List<Long> matching, int number) {
+        int last = Math.max(1, (matching.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        String base = "http://localhost:8000/v2/nodes/?slice=" + System.identityHashCode(matching) + "&page=";
+        pageUrls.put(base + (number + 1), matching);
+
+        ResourceList<Long> page = new ResourceList<Long>() {
+            @Override
+            public String getNext() {
+                return number < last ? base + (number + 1) : null;
+            }
+
+            @Override
+            public String getLast() {
+                return base + last;
+            }
+        };
+        page.addAll(matching.subList(Math.min(matching.size(), (number - 1) * PAGE_SIZE),
+                Math.min(matching.size(), number * PAGE_SIZE)));
+        return StubCall.success(page);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the IdEnumerator
+ */
+public class IdEnumeratorTest {
+
+    private static final String NEXT = "http://localhost:8000/v2/nodes/?page=2";
+
+    @Test
+    public void testIdentifiersOfEveryPageAreEnumerated() throws Exception {
+        Map<String, String> documents = new HashMap<>();
+        List<String> requested = new ArrayList<>();
+        documents.put("first", "{\"data\": [" +
+                "{\"id\": \"v8x57\", \"type\": \"nodes\", \"attributes\": {\"date_modified\": \"2016-05-02\"}, " +
+                "\"relationships\": {\"children\": {\"links\": {\"related\": {\"href\": \"x\"}}}}}, " +
+                "{\"type\": \"nodes\", \"id\": \"3e7rd\", \"links\": {\"next\": \"not the page link\"}}], " +
+                "\"links\": {\"first\": null, \"next\": \"" + NEXT + "\", \"meta\": {\"total\": 3}}}");
+        // links before data
+        documents.put(NEXT, "{\"links\": {\"next\": null}, \"meta\": {\"version\": \"2.0\"}, " +
+                "\"data\": [{\"id\": \"ab2cd\", \"type\": \"nodes\"}]}");
+
+        IdEnumerator underTest = new IdEnumerator(url -> {
+            requested.add(url);
+            String document = url.startsWith("nodes/") ? documents.get("first") : documents.get(url);
+            return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+        });
+
+        List<String> ids = new ArrayList<>();
+        long count = underTest.nodeIds(null, batch -> batch.forEach(ids::add));
+
+        assertEquals(Arrays.asList("v8x57", "3e7rd", "ab2cd"), ids);
+        assertEquals(3, count);
+        assertEquals(2, underTest.getPageCount());
+        assertTrue(requested.get(0).contains("page%5Bsize%5D=100"));
+        assertTrue(requested.get(0).contains("fields%5Bnodes%5D=date_modified"));
+        assertEquals(NEXT, requested.get(1));
+    }
+
+    @Test
+    public void testBatchHoldsIdentifiersCompactly() throws Exception {
+        IdBatch.Builder builder = new IdBatch.Builder(2);
+        for (String id : Arrays.asList("v8x57", "3e7rd", "ab2cd", "identifier-ø")) {
+            builder.add(id);
+        }
+        IdBatch batch = builder.build();
+
+        assertEquals(4, batch.size());
+        assertEquals(Arrays.asList("v8x57", "3e7rd", "ab2cd", "identifier-ø"), batch.asList());
+        assertEquals("ab2cd", batch.get(2));
+    }
+}
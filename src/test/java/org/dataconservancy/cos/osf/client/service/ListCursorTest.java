@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit.Call;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the ListCursor
+ */
+public class ListCursorTest {
+
+    private static final String PAGE_URL = "http://localhost:8000/v2/nodes/?filter%5Bpublic%5D=true&page=";
+
+    private static final Map<String, String> PARAMS = Collections.singletonMap("filter[public]", "true");
+
+    private final List<String> requested = new ArrayList<>();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("cursors");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCursorResumesWhereItStopped() throws Exception {
+        List<String> read = new ArrayList<>();
+        try (ListCursor<String> underTest = open(new CursorStore(directory), "nodes")) {
+            for (int i = 0; i < 3; i++) {
+                read.add(underTest.next());
+            }
+            underTest.checkpoint();
+        }
+        assertEquals(Arrays.asList("1a", "1b", "2a"), read);
+        assertEquals(PAGE_URL + 2, new CursorStore(directory).get("nodes").getPageUrl());
+
+        // a new store, as after a restart
+        requested.clear();
+        try (ListCursor<String> underTest = open(new CursorStore(directory), "nodes")) {
+            underTest.forEachRemaining(read::add);
+            assertTrue(underTest.isComplete());
+            assertEquals(6, underTest.getCount());
+        }
+        assertEquals(Arrays.asList("1a", "1b", "2a", "2b", "3a", "3b"), read);
+        assertEquals(Arrays.asList(PAGE_URL + 2, PAGE_URL + 3), requested);
+
+        // a complete cursor reads nothing more until it is reset
+        CursorStore store = new CursorStore(directory);
+        try (ListCursor<String> underTest = open(store, "nodes")) {
+            assertFalse(underTest.hasNext());
+        }
+        store.reset("nodes");
+        try (ListCursor<String> underTest = open(store, "nodes")) {
+            assertEquals("1a", underTest.next());
+        }
+    }
+
+    @Test
+    public void testNamedCursorsAreIndependent() throws Exception {
+        CursorStore store = new CursorStore(directory);
+        try (ListCursor<String> nodes = open(store, "nodes");
+             ListCursor<String> registrations = open(store, "registrations")) {
+            nodes.next();
+            registrations.next();
+            registrations.next();
+            try {
+                open(store, "nodes");
+                fail("Expected an open cursor not to be opened again.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        // the resource last returned by each cursor had not been processed when it was closed
+        assertEquals(0, store.get("nodes").getOffset());
+        assertEquals(1, store.get("registrations").getOffset());
+        assertEquals(new TreeSet<>(Arrays.asList("nodes", "registrations")), store.getNames());
+
+        try {
+            store.open("nodes", Collections.emptyMap(), params -> page(1), this::page);
+            fail("Expected a cursor saved with other parameters not to be resumed.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testResourceWhoseProcessingFailedIsReadAgain() throws Exception {
+        List<String> processed = new ArrayList<>();
+        try (ListCursor<String> underTest = open(new CursorStore(directory), "nodes")) {
+            while (underTest.hasNext()) {
+                String resource = underTest.next();
+                if (resource.equals("2b")) {
+                    throw new IllegalStateException("Unable to process " + resource);
+                }
+                processed.add(resource);
+            }
+            fail("Expected the processing of 2b to fail.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList("1a", "1b", "2a"), processed);
+
+        try (ListCursor<String> underTest = open(new CursorStore(directory), "nodes")) {
+            underTest.forEachRemaining(processed::add);
+            assertEquals(6, underTest.getCount());
+        }
+        assertEquals(Arrays.asList("1a", "1b", "2a", "2b", "3a", "3b"), processed);
+    }
+
+    private ListCursor<String> open(CursorStore store, String name) {
+        return store.open(name, PARAMS, params -> page(1), this::page);
+    }
+
+    private Call<ResourceList<String>> page(String url) {
+        requested.add(url);
+        return page(Integer.parseInt(url.substring(PAGE_URL.length())));
+    }
+
+    private Call<ResourceList<String>> page(int number) {
+        return StubCall.success(StubCall.page(PAGE_URL, number, 3));
+    }
+}
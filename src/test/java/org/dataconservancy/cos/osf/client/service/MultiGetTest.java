@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.support.BatchingLoader;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the MultiGet
+ */
+public class MultiGetTest {
+
+    private final MultiGet underTest = new MultiGet((OsfService) Proxy.newProxyInstance(
+            OsfService.class.getClassLoader(), new Class[] {OsfService.class}, (proxy, method, args) -> null), 2, 2);
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.shutdown();
+    }
+
+    @Test
+    public void testFailuresAreReportedPerIdentifier() throws Exception {
+        BatchingLoader<String> loader = underTest.loader(
+                batch -> {
+                    if (batch.contains("c")) {
+                        throw new RuntimeException("Connection reset");
+                    }
+                    // e is not visible to the list endpoint
+                    return batch.stream().filter(id -> !id.equals("e")).map(String::toUpperCase)
+                            .collect(Collectors.toList());
+                },
+                id -> {
+                    switch (id) {
+                        case "c":
+                            return "C";
+                        case "d":
+                            throw new RuntimeException("Request failed: 500");
+                        default:
+                            return null;
+                    }
+                },
+                String::toLowerCase);
+        MultiGet.Result<String> result = underTest.get(
+                Arrays.asList("a", "http://localhost:8000/v2/nodes/b/", "c", "d", "e", "f", "a"), loader);
+
+        assertEquals(Arrays.asList("a", "b", "c", "f"), new ArrayList<>(result.getResources().keySet()));
+        assertEquals("B", result.get("http://localhost:8000/v2/nodes/b/"));
+        assertEquals(Collections.singleton("e"), result.getMissing());
+        assertEquals(Collections.singleton("d"), result.getErrors().keySet());
+        assertTrue(result.getErrors().get("d").getMessage().contains("500"));
+        assertFalse(result.isComplete());
+
+        // three list requests, and c, d and e individually
+        assertEquals(6, underTest.getRequestCount());
+    }
+
+    @Test
+    public void testIdentifiersAnsweredByListRequestsAreNotRetrievedIndividually() throws Exception {
+        List<String> ids = Arrays.asList("a", "b", "c", "d", "e");
+        MultiGet.Result<String> result = underTest.get(ids, underTest.loader(batch -> batch, id -> {
+            throw new AssertionError("Unexpected lookup of " + id);
+        }, id -> id));
+
+        assertEquals(ids, new ArrayList<>(result.getResources().keySet()));
+        assertTrue(result.isComplete());
+        assertEquals(3, underTest.getRequestCount());
+    }
+
+    @Test
+    public void testPublisherRetrievesBatchesOnDemand() throws Exception {
+        BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        BatchingLoader<String> loader = underTest.loader(batch -> batch, id -> null, id -> id);
+        underTest.publish(Arrays.asList("a", "b", "c", "d", "e"), loader)
+                .subscribe(new Flow.Subscriber<MultiGet.Result<String>>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription s) {
+                        subscription.set(s);
+                        s.request(1);
+                    }
+
+                    @Override
+                    public void onNext(MultiGet.Result<String> item) {
+                        signals.add(new ArrayList<>(item.getResources().keySet()));
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        signals.add(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        signals.add("complete");
+                    }
+                });
+
+        assertEquals(Arrays.asList("a", "b"), signals.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, underTest.getRequestCount());
+
+        subscription.get().request(5);
+        assertEquals(Arrays.asList("c", "d"), signals.poll(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("e"), signals.poll(5, TimeUnit.SECONDS));
+        assertEquals("complete", signals.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, underTest.getRequestCount());
+    }
+}
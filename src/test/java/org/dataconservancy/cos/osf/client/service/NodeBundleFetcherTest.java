@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.junit.After;
+import org.junit.Test;
+import retrofit.Call;
+import retrofit.Callback;
+import retrofit.Response;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the NodeBundleFetcher
+ */
+public class NodeBundleFetcherTest {
+
+    private static final String PAGE_URL = "http://localhost:8000/v2/nodes/v8x57/contributors/?page=";
+
+    private final NodeBundleFetcher underTest = new NodeBundleFetcher((OsfService) Proxy.newProxyInstance(
+            OsfService.class.getClassLoader(), new Class[] {OsfService.class}, (proxy, method, args) -> null));
+
+    @After
+    public void tearDown() throws Exception {
+        underTest.shutdown();
+    }
+
+    @Test
+    public void testPartsAreRetrievedConcurrently() throws Exception {
+        Map<String, NodeBundleFetcher.Part<?>> parts = new LinkedHashMap<>();
+        for (String name : new String[] {"a", "b", "c"}) {
+            parts.put(name, scope -> {
+                sleep(200);
+                return name.toUpperCase();
+            });
+        }
+
+        Map<String, Long> timings = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        Map<String, Object> results = underTest.fetchAll(parts, 5, TimeUnit.SECONDS, timings);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertEquals("B", results.get("b"));
+        assertEquals(3, timings.size());
+        assertTrue(timings.get("a") >= 200);
+    }
+
+    @Test
+    public void testFailureCancelsOutstandingCalls() throws Exception {
+        BlockingCall slow = new BlockingCall();
+        Map<String, NodeBundleFetcher.Part<?>> parts = new LinkedHashMap<>();
+        parts.put("slow", scope -> scope.execute(slow));
+        parts.put("failing", scope -> {
+            await(slow.started);
+            throw new IOException("Connection reset");
+        });
+
+        try {
+            underTest.fetchAll(parts, 5, TimeUnit.SECONDS, new ConcurrentHashMap<>());
+            fail("Expected the bundle to fail.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Unable to retrieve failing"));
+        }
+
+        assertTrue(slow.cancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTimeoutCancelsOutstandingCalls() throws Exception {
+        BlockingCall slow = new BlockingCall();
+        Map<String, NodeBundleFetcher.Part<?>> parts = new LinkedHashMap<>();
+        parts.put("fast", scope -> "done");
+        parts.put("slow", scope -> scope.execute(slow));
+
+        try {
+            underTest.fetchAll(parts, 200, TimeUnit.MILLISECONDS, new ConcurrentHashMap<>());
+            fail("Expected the bundle to time out.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+            assertTrue(e.getMessage().contains("fast"));
+        }
+
+        assertTrue(slow.cancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testNodeIsRequestedOncePerBundle() throws Exception {
+        Node node = new Node();
+        node.setId("v8x57");
+        List<String> requested = new CopyOnWriteArrayList<>();
+        NodeBundleFetcher fetcher = new NodeBundleFetcher((OsfService) Proxy.newProxyInstance(
+                OsfService.class.getClassLoader(), new Class[] {OsfService.class}, (proxy, method, args) -> {
+                    requested.add(method.getName() + " " + args[0]);
+                    return method.getName().equals("node") ?
+                            StubCall.success(node) : StubCall.success(StubCall.page(PAGE_URL, 1, 1));
+                }));
+        try {
+            NodeBundle bundle = fetcher.fetch("v8x57", 5, TimeUnit.SECONDS);
+            assertEquals("v8x57", bundle.getNode().getId());
+            assertEquals(2, bundle.getContributors().size());
+        } finally {
+            fetcher.shutdown();
+        }
+
+        assertEquals(new TreeSet<>(Arrays.asList("node v8x57", "paginatedFiles nodes/v8x57/files/",
+                "paginatedContributors nodes/v8x57/contributors/", "paginatedWikis nodes/v8x57/wikis/",
+                "getComments nodes/v8x57/comments/", "getLogs nodes/v8x57/logs/")), new TreeSet<>(requested));
+        assertEquals(6, requested.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A call which blocks until it is cancelled.
+     */
+    private static class BlockingCall implements Call<String> {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+
+        @Override
+        public Response<String> execute() throws IOException {
+            started.countDown();
+            try {
+                cancelled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Canceled");
+        }
+
+        @Override
+        public void enqueue(Callback<String> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.countDown();
+        }
+
+        @Override
+        public Call<String> clone() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Registration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the OsfFilter
+ */
+public class OsfFilterTest {
+
+    private static final DateTime SINCE = new DateTime(2016, 5, 1, 0, 0, DateTimeZone.UTC);
+
+    @Test
+    public void testServerConditionsBecomeFilterParameters() throws Exception {
+        OsfFilter<Node> underTest = OsfFilter.nodes()
+                .eq("category", "project")
+                .eq("public", true)
+                .gte("date_modified", SINCE)
+                .lt("date_modified", SINCE.plusDays(1))
+                .contains("title", "climate")
+                .in("parent", Arrays.asList("http://localhost:8000/v2/nodes/v8x57/", "3e7rd"));
+
+        Map<String, String> params = underTest.toQueryMap(Collections.singletonMap("page[size]", "100"));
+
+        assertEquals("project", params.get("filter[category]"));
+        assertEquals("true", params.get("filter[public]"));
+        assertEquals("2016-05-01T00:00:00.000000", params.get("filter[date_modified][gte]"));
+        assertEquals("2016-05-02T00:00:00.000000", params.get("filter[date_modified][lt]"));
+        assertEquals("climate", params.get("filter[title]"));
+        assertEquals("v8x57,3e7rd", params.get("filter[parent]"));
+        assertEquals("100", params.get("page[size]"));
+        assertEquals(7, params.size());
+        assertTrue(underTest.getClientConditions().isEmpty());
+    }
+
+    @Test
+    public void testUnfilterableConditionsAreEvaluatedOnTheClient() throws Exception {
+        OsfFilter<Registration> underTest = OsfFilter.registrations()
+                .eq("public", true)
+                .eq("withdrawn", false)
+                .gte("date_registered", SINCE);
+
+        assertEquals(Collections.singletonMap("filter[public]", "true"), underTest.toQueryMap());
+        assertEquals(2, underTest.getClientConditions().size());
+
+        Registration registration = new Registration();
+        registration.setWithdrawn(false);
+        registration.setDate_registered("2016-05-03T10:00:00.000000");
+        Predicate<Registration> predicate = underTest.toPredicate();
+        assertTrue(predicate.test(registration));
+
+        registration.setDate_registered("2016-04-30T10:00:00.000000");
+        assertFalse(predicate.test(registration));
+    }
+
+    @Test
+    public void testInapplicableOperatorsAreRejected() throws Exception {
+        try {
+            OsfFilter.nodes().gte("title", SINCE);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            OsfFilter.users().eq("category", "project");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
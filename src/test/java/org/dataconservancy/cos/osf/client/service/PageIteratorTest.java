@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.junit.Test;
+import retrofit.Call;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the PageIterator
+ */
+public class PageIteratorTest {
+
+    private static final String PAGE_URL = "http://localhost:8000/v2/nodes/?page=";
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Test
+    public void testEveryPageIsIterated() throws Exception {
+        try (Stream<String> resources = PageIterator.stream(page(1, 3, 0), url -> page(url, 3, 0))) {
+            assertEquals(Arrays.asList("1a", "1b", "2a", "2b", "3a", "3b"), resources.collect(Collectors.toList()));
+        }
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testPagesAreRetrievedOnDemandWhenExecutorRejects() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        PageIterator<String> underTest = new PageIterator<>(page(1, 3, 0), url -> page(url, 3, 0), 1, executor);
+        assertEquals(0, requests.get());
+        assertEquals("1a", underTest.next());
+        assertEquals("1b", underTest.next());
+        assertEquals(1, requests.get());
+        assertEquals("2a", underTest.next());
+        assertEquals(2, requests.get());
+        assertEquals(Arrays.asList("2b", "3a", "3b"), Arrays.asList(underTest.next(), underTest.next(),
+                underTest.next()));
+        assertFalse(underTest.hasNext());
+        assertEquals(3, underTest.getPageCount());
+    }
+
+    @Test
+    public void testPagesArePrefetchedUpToDepth() throws Exception {
+        PageIterator<String> underTest = new PageIterator<>(page(1, 10, 0), url -> page(url, 10, 0), 2);
+        try {
+            assertEquals("1a", underTest.next());
+
+            // the page being consumed, two waiting pages, and one page blocked waiting for room
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requests.get() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertEquals(4, requests.get());
+        } finally {
+            underTest.close();
+        }
+
+        assertFalse(underTest.hasNext());
+    }
+
+    @Test
+    public void testFailureIsThrownAfterEarlierPages() throws Exception {
+        PageIterator<String> underTest = new PageIterator<>(page(1, 3, 0), url -> {
+            if (url.endsWith("3")) {
+                return StubCall.answering(() -> {
+                    throw new IOException("Connection reset");
+                });
+            }
+            return page(url, 3, 0);
+        });
+
+        assertEquals(Arrays.asList("1a", "1b", "2a", "2b"), Arrays.asList(underTest.next(), underTest.next(),
+                underTest.next(), underTest.next()));
+        try {
+            underTest.hasNext();
+            fail("Expected the failure to retrieve page 3 to be thrown.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Connection reset"));
+        }
+    }
+
+    private Call<ResourceList<String>> page(String url, int lastPage, long latencyMillis) {
+        return page(Integer.parseInt(url.substring(PAGE_URL.length())), lastPage, latencyMillis);
+    }
+
+    private Call<ResourceList<String>> page(int page, int lastPage, long latencyMillis) {
+        return StubCall.answering(() -> {
+            requests.incrementAndGet();
+            Thread.sleep(latencyMillis);
+            return StubCall.page(PAGE_URL, page, lastPage);
+        });
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import org.junit.Test;
+import retrofit.Call;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the PagePublisher
+ */
+public class PagePublisherTest {
+
+    private static final String PAGE_URL = "http://localhost:8000/v2/nodes/?page=";
+
+    private static final String COMPLETE = "complete";
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final PagePublisher<String> underTest = new PagePublisher<>(() -> page(1),
+            url -> page(Integer.parseInt(url.substring(PAGE_URL.length()))));
+
+    @Test
+    public void testPagesAreRetrievedOnDemand() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        underTest.subscribe(subscriber);
+        Thread.sleep(100);
+        assertEquals(0, requests.get());
+
+        subscriber.subscription.request(1);
+        assertEquals("1a", subscriber.take());
+        Thread.sleep(100);
+        assertEquals(1, requests.get());
+
+        subscriber.subscription.request(2);
+        assertEquals(Arrays.asList("1b", "2a"), Arrays.asList(subscriber.take(), subscriber.take()));
+        assertEquals(2, requests.get());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("2b", "3a", "3b", COMPLETE), Arrays.asList(subscriber.take(), subscriber.take(),
+                subscriber.take(), subscriber.take()));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testItemsRequestedDuringOnSubscribeFollowIt() throws Exception {
+        String subscribed = "subscribed";
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(Long.MAX_VALUE);
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                onNext(subscribed);
+            }
+        };
+        underTest.subscribe(subscriber);
+
+        assertEquals(Arrays.asList(subscribed, "1a", "1b"), Arrays.asList(subscriber.take(), subscriber.take(),
+                subscriber.take()));
+    }
+
+    @Test
+    public void testCancelStopsRetrieval() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        underTest.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals("1a", subscriber.take());
+
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testNonPositiveRequestIsSignalledAsError() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        underTest.subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.take().startsWith(IllegalArgumentException.class.getName()));
+        assertEquals(0, requests.get());
+    }
+
+    private Call<ResourceList<String>> page(int page) {
+        return StubCall.answering(() -> {
+            requests.incrementAndGet();
+            return StubCall.page(PAGE_URL, page, 3);
+        });
+    }
+
+    /**
+     * Records each signal as a string
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<String> {
+
+        private final BlockingQueue<String> signals = new LinkedBlockingQueue<>();
+
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(String item) {
+            signals.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable.toString());
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        private String take() throws InterruptedException {
+            String signal = signals.poll(5, TimeUnit.SECONDS);
+            if (signal == null) {
+                throw new AssertionError("Timed out waiting for a signal.");
+            }
+            return signal;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.ResponseBody;
+import org.junit.After;
+import org.junit.Test;
+import retrofit.Call;
+import retrofit.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the ParallelPageFetcher
+ */
+public class ParallelPageFetcherTest {
+
+    private static final String LAST_URL = "http://localhost:8000/v2/registrations/?page=";
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private ParallelPageFetcher<String> underTest;
+
+    @After
+    public void shutdown() {
+        if (underTest != null) {
+            underTest.shutdown();
+        }
+    }
+
+    @Test
+    public void testPagesAreRetrievedConcurrentlyAndAnsweredInOrder() throws Exception {
+        underTest = new ParallelPageFetcher<>(params -> first(6), (page, params) -> page(page, 6), 3);
+
+        List<String> resources = underTest.fetch(null);
+
+        List<String> expected = new ArrayList<>();
+        for (int page = 1; page <= 6; page++) {
+            expected.addAll(Arrays.asList(page + "a", page + "b"));
+        }
+        assertEquals(expected, resources);
+        assertEquals(3, maxActive.get());
+        // the last page is full, so the page after it is requested, and does not exist
+        assertEquals(7, underTest.getPageCount());
+    }
+
+    @Test
+    public void testPagesAreAnsweredAsCompleted() throws Exception {
+        underTest = new ParallelPageFetcher<>(params -> first(4), (page, params) -> page(page, 5), 4);
+
+        List<Integer> pages = new ArrayList<>();
+        List<String> resources = new ArrayList<>();
+        underTest.fetch(null, (page, list) -> {
+            pages.add(page);
+            resources.addAll(list);
+        });
+
+        // page 5 was added after the first page was retrieved
+        assertEquals(5, pages.size());
+        assertTrue(pages.containsAll(Arrays.asList(1, 2, 3, 4, 5)));
+        assertEquals(Integer.valueOf(5), pages.get(4));
+        assertEquals(10, resources.size());
+    }
+
+    @Test
+    public void testNoMoreThanConcurrencyPagesAreOutstanding() throws Exception {
+        AtomicInteger requested = new AtomicInteger();
+        underTest = new ParallelPageFetcher<>(params -> first(8), (page, params) -> {
+            if (page <= 8) {
+                requested.incrementAndGet();
+            }
+            return page(page, 8);
+        }, 2);
+
+        List<Integer> outstanding = new ArrayList<>();
+        AtomicInteger consumed = new AtomicInteger();
+        underTest.fetch(null, (page, list) -> {
+            if (page > 1) {
+                // pages requested, less those consumed before this one
+                outstanding.add(requested.get() - consumed.getAndIncrement());
+                sleep(50);
+            }
+        });
+
+        assertEquals(7, outstanding.size());
+        outstanding.forEach(pages -> assertTrue("Outstanding pages: " + pages, pages <= 3));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Call<ResourceList<String>> first(int lastPage) {
+        return StubCall.responding(() -> {
+            ResourceList<String> resources = new ResourceList<String>() {
+                @Override
+                public String getLast() {
+                    return LAST_URL + lastPage;
+                }
+            };
+            resources.addAll(Arrays.asList("1a", "1b"));
+            return Response.success(resources);
+        });
+    }
+
+    private Call<List<String>> page(int page, int lastPage) {
+        return StubCall.responding(() -> {
+            if (page > lastPage) {
+                return Response.error(404, ResponseBody.create(MediaType.parse("application/json"), ""));
+            }
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                // later pages take less time, so pages complete out of order
+                Thread.sleep(20 * (lastPage - page + 1));
+            } finally {
+                active.decrementAndGet();
+            }
+            return Response.success(Arrays.asList(page + "a", page + "b"));
+        });
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Contributor;
+import org.dataconservancy.cos.osf.client.model.File;
+import org.dataconservancy.cos.osf.client.model.License;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.Wiki;
+import org.dataconservancy.cos.osf.client.support.EndpointMetrics;
+import org.dataconservancy.cos.osf.client.support.RelationshipIndex;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.dataconservancy.cos.osf.client.service.QueryPlanner.Strategy.DEFER;
+import static org.dataconservancy.cos.osf.client.service.QueryPlanner.Strategy.EMBED;
+import static org.dataconservancy.cos.osf.client.service.QueryPlanner.Strategy.FAN_OUT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the QueryPlanner
+ */
+public class QueryPlannerTest {
+
+    private static final String CONTRIBUTORS = "GET /v2/nodes/{id}/contributors/";
+
+    private static final String FILES = "GET /v2/nodes/{id}/files/";
+
+    private final EndpointMetrics metrics = new EndpointMetrics();
+
+    private final RelationshipIndex index = new RelationshipIndex(
+            Arrays.asList(Node.class, Contributor.class, File.class, License.class, Wiki.class));
+
+    private final QueryPlanner underTest = new QueryPlanner(metrics, index);
+
+    @Test
+    public void testUnobservedRelationshipsFanOut() throws Exception {
+        QueryPlanner.Plan plan = underTest.plan(Node.class, ResolutionProfile.none().include("contributors"), 1);
+
+        assertEquals(Collections.singleton("contributors"), plan.getDecisions().keySet());
+        assertEquals(FAN_OUT, plan.getDecisions().get("contributors").getStrategy());
+        assertFalse(plan.getDecisions().get("contributors").isObserved());
+        assertTrue(plan.getEmbeds().isEmpty());
+    }
+
+    @Test
+    public void testStrategiesFollowObservedCosts() throws Exception {
+        // small, slow relationship: cheaper to embed
+        metrics.recordRelationship("nodes", "contributors", CONTRIBUTORS, 2000, 3, 0);
+        metrics.recordLatency(CONTRIBUTORS, TimeUnit.MILLISECONDS.toNanos(300));
+
+        // large, slow relationship: too many resources to embed, too slow to fan out eagerly
+        metrics.recordRelationship("nodes", "files", FILES, 80000, 50, 0);
+        metrics.recordLatency(FILES, TimeUnit.MILLISECONDS.toNanos(2000));
+
+        ResolutionProfile profile = ResolutionProfile.none().include("contributors").include("files");
+        QueryPlanner.Plan plan = underTest.plan(Node.class, profile, 10);
+
+        assertEquals(EMBED, plan.getDecisions().get("contributors").getStrategy());
+        assertEquals(20.0, plan.getDecisions().get("contributors").getEmbedMillis(), 0.01);
+        assertEquals(3000.0, plan.getDecisions().get("contributors").getFanOutMillis(), 0.01);
+        assertEquals(DEFER, plan.getDecisions().get("files").getStrategy());
+        assertTrue(Double.isNaN(plan.getDecisions().get("files").getEmbedMillis()));
+
+        assertEquals(Collections.singletonList("contributors"), plan.getEmbeds());
+        assertTrue(plan.getProfile().defers("files"));
+        assertTrue(plan.getProfile().follows("contributors", 1));
+        assertEquals(20.0, plan.getEstimatedMillis(), 0.01);
+        assertEquals(1, underTest.getPlans().size());
+
+        // for a single resource, fanning out the files is cheap enough to do eagerly
+        assertEquals(FAN_OUT, underTest.plan(Node.class, profile, 1).getDecisions().get("files").getStrategy());
+    }
+}
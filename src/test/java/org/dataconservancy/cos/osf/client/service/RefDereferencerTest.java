@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.dataconservancy.cos.osf.client.model.NodeBase;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the RefDereferencer
+ */
+public class RefDereferencerTest {
+
+    private static final String BASE = "http://localhost:8000/v2/nodes/";
+
+    private final Map<String, Node> remote = new HashMap<>();
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private final RefDereferencer underTest = new RefDereferencer(id -> {
+        lookups.incrementAndGet();
+        return CompletableFuture.completedFuture(remote.get(id));
+    }, id -> CompletableFuture.completedFuture(null), id -> CompletableFuture.completedFuture(null));
+
+    @Test
+    public void testDereferencedNodesAreCached() throws Exception {
+        node("root", null);
+
+        Node first = underTest.node(BASE + "root/");
+        assertSame(first, underTest.node("root"));
+        assertNull(underTest.node(BASE + "missing/"));
+        assertNull(underTest.node(null));
+
+        assertEquals(2, lookups.get());
+        assertEquals(1, underTest.getHitCount());
+    }
+
+    @Test(timeout = 5000)
+    public void testSequentialWalkDoesNotWaitForTheBatchingWindow() throws Exception {
+        node("root", null);
+        node("a", "root");
+        Node b = node("b", "a");
+        OsfService osfService = (OsfService) Proxy.newProxyInstance(OsfService.class.getClassLoader(),
+                new Class[] {OsfService.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("nodeList") && args.length == 1) {
+                        String ids = (String) ((Map<?, ?>) args[0]).get("filter[id]");
+                        return StubCall.success(Arrays.stream(ids.split(",")).map(remote::get)
+                                .collect(Collectors.toList()));
+                    }
+                    return StubCall.success(remote.get((String) args[0]));
+                });
+        BatchedLookups batched = new BatchedLookups(osfService, BatchedLookups.DEFAULT_MAX_BATCH_SIZE, 1,
+                TimeUnit.HOURS, ResolutionProfile.none());
+        RefDereferencer dereferencer = new RefDereferencer(batched);
+        try {
+            assertEquals(Arrays.asList("a", "root"), ids(dereferencer.ancestors(b)));
+            assertEquals(2, batched.getNodeLoader().getBatchCount());
+        } finally {
+            dereferencer.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharedAncestorsAreRetrievedOnce() throws Exception {
+        node("root", null);
+        node("a", "root");
+        node("b", "a");
+        Node c1 = node("c1", "b");
+        Node c2 = node("c2", "b");
+
+        assertEquals(Arrays.asList("b", "a", "root"), ids(underTest.ancestors(c1)));
+        assertEquals(3, lookups.get());
+
+        assertEquals(Arrays.asList("b", "a", "root"), ids(underTest.ancestors(c2)));
+        assertEquals(Arrays.asList("a", "root"), ids(underTest.ancestors(remote.get("b"))));
+        assertTrue(underTest.ancestors(remote.get("root")).isEmpty());
+        assertEquals(3, lookups.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCyclicParentsAreDetected() throws Exception {
+        node("a", "b");
+        node("b", "a");
+        underTest.ancestors(remote.get("a"));
+    }
+
+    private Node node(String id, String parent) {
+        Node node = new Node();
+        node.setId(id);
+        node.setParent(parent == null ? null : BASE + parent + "/");
+        remote.put(id, node);
+        return node;
+    }
+
+    private static List<String> ids(List<NodeBase> nodes) {
+        return nodes.stream().map(NodeBase::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Contributor;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Insures proper behavior of the SparseFieldset
+ */
+public class SparseFieldsetTest {
+
+    @Test
+    public void testFieldsetQueryParameters() throws Exception {
+        Map<String, String> params = SparseFieldset.of(Node.class, "title", "date_modified")
+                .and(Node.class, "category")
+                .and(Contributor.class, "bibliographic")
+                .toQueryMap(Collections.singletonMap("filter[public]", "true"));
+
+        assertEquals(3, params.size());
+        assertEquals("title,date_modified,category", params.get("fields[nodes]"));
+        assertEquals("bibliographic", params.get("fields[contributors]"));
+        assertEquals("true", params.get("filter[public]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testModelClassMustHaveType() throws Exception {
+        SparseFieldset.of(String.class, "title");
+    }
+}
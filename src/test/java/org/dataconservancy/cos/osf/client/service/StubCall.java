@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import com.github.jasminb.jsonapi.ResourceList;
+import retrofit.Call;
+import retrofit.Callback;
+import retrofit.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * A {@code Call} answering a canned response when executed, shared by the tests of classes which page through
+ * {@code OsfService} calls.  Calls may not be enqueued, and cloning a call answers the same call.
+ *
+ * @param <T> the type of the response body
+ */
+class StubCall<T> implements Call<T> {
+
+    /**
+     * Produces the body of a successful response; an interrupted body is reported as a canceled call
+     *
+     * @param <T> the type of the response body
+     */
+    @FunctionalInterface
+    interface Body<T> {
+        T get() throws IOException, InterruptedException;
+    }
+
+    private final Callable<Response<T>> response;
+
+    private StubCall(Callable<Response<T>> response) {
+        this.response = response;
+    }
+
+    /**
+     * Answers a call which successfully responds with {@code body}.
+     *
+     * @param body the response body
+     * @param <T> the type of the response body
+     * @return the call
+     */
+    static <T> StubCall<T> success(T body) {
+        return new StubCall<>(() -> Response.success(body));
+    }
+
+    /**
+     * Answers a call which successfully responds with the body obtained from {@code body} each time it is executed.
+     *
+     * @param body supplies the response body
+     * @param <T> the type of the response body
+     * @return the call
+     */
+    static <T> StubCall<T> answering(Body<T> body) {
+        return new StubCall<>(() -> Response.success(body.get()));
+    }
+
+    /**
+     * Answers a call which responds with the response obtained from {@code response} each time it is executed,
+     * allowing unsuccessful responses.
+     *
+     * @param response supplies the response
+     * @param <T> the type of the response body
+     * @return the call
+     */
+    static <T> StubCall<T> responding(Callable<Response<T>> response) {
+        return new StubCall<>(response);
+    }
+
+    /**
+     * Answers page {@code page} of a list of strings, containing {@code page + "a"} and {@code page + "b"}, and linking
+     * to the next page at {@code pageUrl + (page + 1)} until {@code lastPage}.
+     *
+     * @param pageUrl the url of the list, which the page number is appended to
+     * @param page the page number, starting at 1
+     * @param lastPage the number of the last page
+     * @return the page
+     */
+    static ResourceList<String> page(String pageUrl, int page, int lastPage) {
+        ResourceList<String> resources = new ResourceList<String>() {
+            @Override
+            public String getNext() {
+                return page < lastPage ? pageUrl + (page + 1) : null;
+            }
+        };
+        resources.addAll(Arrays.asList(page + "a", page + "b"));
+        return resources;
+    }
+
+    @Override
+    public Response<T> execute() throws IOException {
+        try {
+            return response.call();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Canceled", e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void enqueue(Callback<T> callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void cancel() {
+        // a body in flight is interrupted instead
+    }
+
+    @Override
+    public Call<T> clone() {
+        return this;
+    }
+}
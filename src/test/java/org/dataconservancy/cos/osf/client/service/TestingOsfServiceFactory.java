@@ -21,16 +21,20 @@ import com.github.jasminb.jsonapi.annotations.Type;
 import com.github.jasminb.jsonapi.retrofit.JSONAPIConverterFactory;
 import com.squareup.okhttp.Interceptor;
 import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.Request;
 import io.github.lukehutch.fastclasspathscanner.FastClasspathScanner;
 import org.dataconservancy.cos.osf.client.config.JacksonOsfConfigurationService;
 import org.dataconservancy.cos.osf.client.config.JacksonWbConfigurationService;
 import org.dataconservancy.cos.osf.client.config.OsfConfigurationService;
 import org.dataconservancy.cos.osf.client.config.WbConfigurationService;
 import org.dataconservancy.cos.osf.client.support.AuthInterceptor;
+import org.dataconservancy.cos.osf.client.support.CoalescingRelationshipResolver;
 import org.dataconservancy.cos.osf.client.support.LoggingInterceptor;
+import org.dataconservancy.cos.osf.client.support.RelationshipIndex;
+import org.dataconservancy.cos.osf.client.support.ResolutionProfile;
+import org.dataconservancy.cos.osf.client.support.ResolvingConverterFactory;
+import org.dataconservancy.cos.osf.client.support.ResourceConverterGlobalResolver;
+import org.dataconservancy.cos.osf.client.support.SessionRelationshipResolver;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -44,6 +48,11 @@ import java.util.List;
  * configures an instance of {@link AuthInterceptor} on the client.
  * </p>
  * <p>
+ * Relationships are resolved by the same {@link ResolvingConverterFactory} and {@link SessionRelationshipResolver}
+ * wiring used by {@link RetrofitOsfServiceFactory}, so tests exercise the production resolution path, including
+ * {@link ResolutionProfile resolution profiles}.
+ * </p>
+ * <p>
  * Sample usage:
  * <pre>
  * // create an instance of the factory, referencing a configuration for the client formatted as JSON
@@ -97,16 +106,14 @@ public class TestingOsfServiceFactory {
         ResourceConverter resourceConverter = new ResourceConverter(new ObjectMapper(),
                 domainClasses.toArray(new Class[]{}));
 
-        resourceConverter.setGlobalResolver(relUrl -> {
-            com.squareup.okhttp.Call req = httpClient.newCall(new Request.Builder().url(relUrl).build());
-            try {
-                return req.execute().body().bytes();
-            } catch (IOException e) {
-                throw new RuntimeException(e.getMessage(), e);
-            }
-        });
+        // ... relationships are resolved as they are in production, within a resolution session per response
+        SessionRelationshipResolver sessionResolver = new SessionRelationshipResolver(
+                new CoalescingRelationshipResolver(new ResourceConverterGlobalResolver(httpClient)),
+                new RelationshipIndex(domainClasses));
+        resourceConverter.setGlobalResolver(sessionResolver);
 
-        JSONAPIConverterFactory jsonApiConverterFactory = new JSONAPIConverterFactory(resourceConverter);
+        JSONAPIConverterFactory jsonApiConverterFactory = new ResolvingConverterFactory(resourceConverter,
+                sessionResolver);
 
         factory = new RetrofitOsfServiceFactory(osfConfigurationService, wbConfigurationService, httpClient,
                 jsonApiConverterFactory);
@@ -165,4 +172,18 @@ public class TestingOsfServiceFactory {
     public <T> T getOsfService(Class<T> osfService) {
         return factory.getOsfService(osfService);
     }
+
+    /**
+     * Answers a configured Retrofit-based OSF client, as {@link #getOsfService(Class)}, whose calls resolve only the
+     * relationships selected by the supplied profile.
+     *
+     * @param osfService the Retrofit interface that contains the methods used by the developer to communicate with the
+     *                   OSF API.
+     * @param profile    selects the relationships resolved by each call
+     * @param <T>        the Retrofit interface type
+     * @return a configured Retrofit interface, ready to service requests.
+     */
+    public <T> T getOsfService(Class<T> osfService, ResolutionProfile profile) {
+        return factory.getOsfService(osfService, profile);
+    }
 }
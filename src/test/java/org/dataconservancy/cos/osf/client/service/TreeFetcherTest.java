@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.service;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the TreeFetcher
+ */
+public class TreeFetcherTest {
+
+    private static final String BASE = "http://localhost:8000/v2/nodes/";
+
+    private final Map<String, Node> remote = new HashMap<>();
+
+    private final List<List<String>> lookups = new CopyOnWriteArrayList<>();
+
+    private final Function<List<String>, List<Node>> childLookup = parentIds -> {
+        lookups.add(new ArrayList<>(parentIds));
+        return remote.values().stream()
+                .filter(n -> n.getParent() != null && parentIds.contains(n.getParent().split("/")[5]))
+                .collect(Collectors.toList());
+    };
+
+    @Test
+    public void testTreeIsRetrievedLevelByLevel() throws Exception {
+        buildTree();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        TreeFetcher underTest = new TreeFetcher(remote::get, childLookup, executor, 1);
+        NodeTree tree;
+        try {
+            tree = underTest.fetch("root");
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(7, tree.size());
+        assertEquals(3, tree.getLevelCount());
+        assertEquals(Arrays.asList("a", "b"), ids(tree.getChildren("root")));
+        assertEquals(Arrays.asList("a1", "a2", "a3"), ids(tree.getChildren("a")));
+        assertEquals("b", tree.getParent("b1").getId());
+        assertNull(tree.getParent("root"));
+        assertEquals(2, tree.getDepth("a2"));
+        assertEquals(4, tree.getLevel(2).size());
+
+        // one lookup per node, except the leaves whose level is empty
+        assertEquals(7, underTest.getLookupCount());
+    }
+
+    @Test
+    public void testParentsAreGroupedPerLookup() throws Exception {
+        buildTree();
+        TreeFetcher underTest = new TreeFetcher(remote::get, childLookup, null, 10);
+
+        NodeTree tree = underTest.fetch(BASE + "root/");
+
+        assertEquals(7, tree.size());
+        // one lookup per level: root; a and b; the four leaves
+        assertEquals(3, lookups.size());
+        assertEquals(4, lookups.get(2).size());
+    }
+
+    @Test
+    public void testMissingRoot() throws Exception {
+        TreeFetcher underTest = new TreeFetcher(remote::get, childLookup, null, 1);
+        assertNull(underTest.fetch("missing"));
+        assertTrue(lookups.isEmpty());
+    }
+
+    private void buildTree() {
+        node("root", null);
+        node("a", "root");
+        node("b", "root");
+        node("a1", "a");
+        node("a2", "a");
+        node("a3", "a");
+        node("b1", "b");
+    }
+
+    private void node(String id, String parent) {
+        Node node = new Node();
+        node.setId(id);
+        node.setParent(parent == null ? null : BASE + parent + "/");
+        remote.put(id, node);
+    }
+
+    private static List<String> ids(List<Node> nodes) {
+        return nodes.stream().map(Node::getId).sorted().collect(Collectors.toList());
+    }
+}
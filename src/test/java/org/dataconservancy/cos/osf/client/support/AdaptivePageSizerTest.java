@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Insures proper behavior of the AdaptivePageSizer
+ */
+public class AdaptivePageSizerTest {
+
+    private static final String ENDPOINT = "GET /v2/nodes/";
+
+    @Test
+    public void testPageSizeFollowsLatencyAndThroughput() throws Exception {
+        AdaptivePageSizer underTest = new AdaptivePageSizer(null, null, 1, 100, 2000, Long.MAX_VALUE);
+        assertEquals(50, underTest.getPageSize(ENDPOINT));
+
+        // round trips dominate: larger pages, up to the maximum
+        underTest.observe(ENDPOINT, 50, millis(200), millis(5), 50_000);
+        assertEquals(100, underTest.getPageSize(ENDPOINT));
+        underTest.observe(ENDPOINT, 100, millis(200), millis(10), 100_000);
+        assertEquals(100, underTest.getPageSize(ENDPOINT));
+
+        // one second to first byte and 50 ms per resource: pages of more than 20 resources take over two seconds
+        String slow = "GET /v2/nodes/{id}/logs/";
+        underTest.observe(slow, 50, millis(1000), millis(2500), 50_000);
+        assertEquals(25, underTest.getPageSize(slow));
+        underTest.observe(slow, 25, millis(1000), millis(1250), 25_000);
+        assertEquals(20, underTest.getPageSize(slow));
+
+        // transfer dominates: pages of 4 resources already spend four fifths of their time transferring
+        String small = "GET /v2/nodes/{id}/comments/";
+        underTest.observe(small, 50, millis(100), millis(5000), 50_000);
+        assertEquals(25, underTest.getPageSize(small));
+        underTest.observe(small, 25, millis(100), millis(2500), 25_000);
+        assertEquals(12, underTest.getPageSize(small));
+
+        assertEquals(100, (int) underTest.getPageSizes().get(ENDPOINT));
+        assertEquals(20, (int) underTest.getPageSizes().get(slow));
+    }
+
+    @Test
+    public void testPageSizeIsLimitedByHeap() throws Exception {
+        EndpointMetrics metrics = new EndpointMetrics();
+        // ten bytes of heap per byte of document
+        metrics.record(ENDPOINT, 10_000, 0, 100_000);
+        AdaptivePageSizer underTest = new AdaptivePageSizer(null, metrics, 1, 100, 2000, 20_000);
+
+        // 200 bytes per resource, so 2000 bytes of heap per resource
+        underTest.observe(ENDPOINT, 50, millis(200), millis(5), 10_000);
+        assertEquals(25, underTest.getPageSize(ENDPOINT));
+        underTest.observe(ENDPOINT, 25, millis(200), millis(5), 5_000);
+        assertEquals(12, underTest.getPageSize(ENDPOINT));
+        underTest.observe(ENDPOINT, 12, millis(200), millis(5), 2_400);
+        assertEquals(10, underTest.getPageSize(ENDPOINT));
+    }
+
+    @Test
+    public void testOnlyRequestsWithoutPageOrPageSizeAreChanged() throws Exception {
+        AdaptivePageSizer underTest = new AdaptivePageSizer(null, null, 1, 100, 2000, Long.MAX_VALUE);
+        String nodes = "http://localhost:8000/v2/nodes/";
+
+        assertEquals("50", forwarded(underTest, nodes + "?filter[public]=true").httpUrl().queryParameter("page[size]"));
+        assertNull(forwarded(underTest, nodes + "?page=1").httpUrl().queryParameter("page[size]"));
+        assertNull(forwarded(underTest, nodes + "?page=3").httpUrl().queryParameter("page[size]"));
+        assertEquals("25", forwarded(underTest, nodes + "?page[size]=25").httpUrl().queryParameter("page[size]"));
+        assertNull(forwarded(underTest, nodes + "v8x57/").httpUrl().queryParameter("page[size]"));
+    }
+
+    @Test
+    public void testResourcesReturnedAreCounted() throws Exception {
+        assertEquals(3, AdaptivePageSizer.resourceCount(("{\"data\": [{\"id\": \"a\", \"attributes\": {\"tags\": " +
+                "[\"x\"]}}, {\"id\": \"b\"}, {\"id\": \"c\"}], \"links\": {\"next\": null}}").getBytes("UTF-8")));
+        assertEquals(0, AdaptivePageSizer.resourceCount("{\"meta\": {}, \"data\": []}".getBytes("UTF-8")));
+        assertEquals(-1, AdaptivePageSizer.resourceCount("{\"data\": {\"id\": \"a\"}}".getBytes("UTF-8")));
+        assertEquals(-1, AdaptivePageSizer.resourceCount("<html>".getBytes("UTF-8")));
+    }
+
+    /**
+     * Answers the request the page sizer forwards for {@code url}.
+     */
+    private static Request forwarded(AdaptivePageSizer underTest, String url) {
+        Request[] forwarded = new Request[1];
+        try {
+            underTest.intercept(new Interceptor.Chain() {
+                @Override
+                public Request request() {
+                    return new Request.Builder().url(url).build();
+                }
+
+                @Override
+                public Response proceed(Request request) throws IOException {
+                    forwarded[0] = request;
+                    throw new IOException("Not sent");
+                }
+
+                @Override
+                public Connection connection() {
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            // the request is not sent
+        }
+        return forwarded[0];
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
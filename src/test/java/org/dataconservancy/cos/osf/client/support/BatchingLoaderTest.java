@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the BatchingLoader
+ */
+public class BatchingLoaderTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testLookupsWithinWindowAreBatched() throws Exception {
+        BatchingLoader<String> underTest = new BatchingLoader<>(this::echo, s -> s, 100, 50, TimeUnit.MILLISECONDS);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                results.add(underTest.load("id" + i));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals("id" + i, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(1, batches.size());
+        assertEquals(10, batches.get(0).size());
+        assertEquals(1, underTest.getBatchCount());
+        assertEquals(10.0, underTest.getMeanBatchSize(), 0.01);
+    }
+
+    @Test
+    public void testFullBatchIsSentImmediately() throws Exception {
+        BatchingLoader<String> underTest = new BatchingLoader<>(this::echo, s -> s, 3, 1, TimeUnit.HOURS);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                results.add(underTest.load("id" + i));
+            }
+            for (int i = 0; i < 6; i++) {
+                assertEquals("id" + i, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(2, batches.size());
+
+            // the last lookup waits for the window, unless flushed
+            underTest.flush();
+            assertEquals("id6", results.get(6).get(5, TimeUnit.SECONDS));
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(3, underTest.getBatchCount());
+        assertEquals(3, underTest.getLargestBatchSize());
+    }
+
+    @Test
+    public void testRepeatedIdentifierSharesResult() throws Exception {
+        BatchingLoader<String> underTest = new BatchingLoader<>(this::echo, s -> s, 100, 20, TimeUnit.MILLISECONDS);
+        try {
+            CompletableFuture<String> first = underTest.load("a");
+            assertSame(first, underTest.load("a"));
+            assertEquals("a", first.get(5, TimeUnit.SECONDS));
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(Collections.singletonList("a"), batches.get(0));
+        assertEquals(2, underTest.getLookupCount());
+    }
+
+    @Test
+    public void testMissingIdentifiersUseFallback() throws Exception {
+        BatchingLoader<String> underTest = new BatchingLoader<>(
+                ids -> ids.stream().filter(id -> !id.startsWith("private")).collect(Collectors.toList()),
+                s -> s, id -> id.equals("private") ? "fallback" : null, 100, 20, TimeUnit.MILLISECONDS);
+        try {
+            CompletableFuture<String> found = underTest.load("a");
+            CompletableFuture<String> fallback = underTest.load("private");
+            CompletableFuture<String> missing = underTest.load("private-missing");
+
+            assertEquals("a", found.get(5, TimeUnit.SECONDS));
+            assertEquals("fallback", fallback.get(5, TimeUnit.SECONDS));
+            assertNull(missing.get(5, TimeUnit.SECONDS));
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(2, underTest.getFallbackCount());
+    }
+
+    @Test
+    public void testFallbacksAreSentConcurrently() throws Exception {
+        // each fallback waits until all three are being sent; sequential fallbacks would time out
+        CountDownLatch allStarted = new CountDownLatch(3);
+        BatchingLoader<String> underTest = new BatchingLoader<>(ids -> Collections.emptyList(), s -> s, id -> {
+            allStarted.countDown();
+            try {
+                return allStarted.await(5, TimeUnit.SECONDS) ? id : null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }, 3, 1, TimeUnit.HOURS);
+        try {
+            List<CompletableFuture<String>> results = Arrays.asList(
+                    underTest.load("a"), underTest.load("b"), underTest.load("c"));
+            assertEquals("a", results.get(0).get(5, TimeUnit.SECONDS));
+            assertEquals("b", results.get(1).get(5, TimeUnit.SECONDS));
+            assertEquals("c", results.get(2).get(5, TimeUnit.SECONDS));
+        } finally {
+            underTest.shutdown();
+        }
+
+        assertEquals(3, underTest.getFallbackCount());
+    }
+
+    @Test
+    public void testBatchFailureFailsEveryLookup() throws Exception {
+        BatchingLoader<String> underTest = new BatchingLoader<>(ids -> {
+            throw new RuntimeException("Connection reset");
+        }, s -> s, 100, 20, TimeUnit.MILLISECONDS);
+        try {
+            CompletableFuture<String> a = underTest.load("a");
+            CompletableFuture<String> b = underTest.load("b");
+            assertFailed(a);
+            assertFailed(b);
+        } finally {
+            underTest.shutdown();
+        }
+    }
+
+    private List<String> echo(List<String> ids) {
+        batches.add(new ArrayList<>(ids));
+        List<String> result = new ArrayList<>(ids);
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static void assertFailed(CompletableFuture<String> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected the lookup to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Connection reset"));
+        }
+    }
+}
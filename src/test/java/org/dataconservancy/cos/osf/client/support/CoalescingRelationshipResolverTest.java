@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the CoalescingRelationshipResolver
+ */
+public class CoalescingRelationshipResolverTest {
+
+    private static final String URL = "http://localhost:8000/v2/nodes/v8x57/contributors/";
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        final int threads = 8;
+        final byte[] body = "{\"data\": []}".getBytes("UTF-8");
+        final AtomicInteger invocations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        CoalescingRelationshipResolver underTest = new CoalescingRelationshipResolver(url -> {
+            invocations.incrementAndGet();
+            await(release);
+            return body;
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> underTest.resolve(URL)));
+            }
+
+            // wait for every thread to be waiting on the in-flight resolution
+            long deadline = System.currentTimeMillis() + 5000;
+            while (underTest.getCoalescedCount() < threads - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<byte[]> result : results) {
+                assertSame(body, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, invocations.get());
+        assertEquals(threads - 1, underTest.getCoalescedCount());
+    }
+
+    @Test
+    public void testCompletedRequestsAreNotCached() throws Exception {
+        AtomicInteger invocations = new AtomicInteger();
+        CoalescingRelationshipResolver underTest = new CoalescingRelationshipResolver(url -> {
+            invocations.incrementAndGet();
+            return new byte[0];
+        });
+
+        underTest.resolve(URL);
+        underTest.resolve(URL);
+
+        assertEquals(2, invocations.get());
+        assertEquals(0, underTest.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailureIsSharedWithWaitingCallers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CoalescingRelationshipResolver underTest = new CoalescingRelationshipResolver(url -> {
+            await(release);
+            throw new RuntimeException("Connection reset");
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> underTest.resolve(URL));
+            Future<byte[]> second = executor.submit(() -> underTest.resolve(URL));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (underTest.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            for (Future<byte[]> result : Arrays.asList(first, second)) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("Expected the resolution to fail.");
+                } catch (Exception e) {
+                    assertTrue(e.getCause().getMessage().contains("Connection reset"));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
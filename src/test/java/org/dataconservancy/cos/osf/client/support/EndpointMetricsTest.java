@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Insures proper behavior of the EndpointMetrics
+ */
+public class EndpointMetricsTest {
+
+    private static final String FULL = "GET /v2/nodes/";
+
+    private static final String SPARSE = "GET /v2/nodes/?fields[nodes]=category,date_modified,title";
+
+    @Test
+    public void testMetricsArePerEndpoint() throws Exception {
+        EndpointMetrics underTest = new EndpointMetrics();
+        underTest.record(FULL, 40000, TimeUnit.MILLISECONDS.toNanos(8));
+        underTest.record(FULL, 60000, TimeUnit.MILLISECONDS.toNanos(12));
+        underTest.record(SPARSE, 3000, TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertEquals(2, underTest.getEndpoint(FULL).getPageCount());
+        assertEquals(50000, underTest.getEndpoint(FULL).getBytesPerPage());
+        assertEquals(10.0, underTest.getEndpoint(FULL).getParseMillisPerPage(), 0.001);
+        assertEquals(3000, underTest.getEndpoint(SPARSE).getBytesPerPage());
+        assertEquals(2, underTest.getEndpoints().size());
+
+        underTest.clear();
+        assertNull(underTest.getEndpoint(FULL));
+    }
+}
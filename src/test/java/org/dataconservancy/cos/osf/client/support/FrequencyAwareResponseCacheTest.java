@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Insures proper behavior of the FrequencyAwareResponseCache
+ */
+public class FrequencyAwareResponseCacheTest {
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        FrequencyAwareResponseCache underTest = new FrequencyAwareResponseCache(100, 1, TimeUnit.MINUTES, now::get);
+        byte[] body = new byte[10];
+
+        assertNull(underTest.get("http://example.org/a"));
+        underTest.put("http://example.org/a", body);
+        assertSame(body, underTest.get("http://example.org/a"));
+
+        assertEquals(1, underTest.getHitCount());
+        assertEquals(1, underTest.getMissCount());
+        assertEquals(10, underTest.getWeight());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        FrequencyAwareResponseCache underTest = new FrequencyAwareResponseCache(100, 1, TimeUnit.MINUTES, now::get);
+        underTest.put("http://example.org/a", new byte[10]);
+        underTest.put("http://example.org/b", new byte[10], 5, TimeUnit.MINUTES);
+
+        now.set(TimeUnit.MINUTES.toMillis(2));
+
+        assertNull(underTest.get("http://example.org/a"));
+        assertNotNull(underTest.get("http://example.org/b"));
+        assertEquals(1, underTest.getExpirationCount());
+        assertEquals(10, underTest.getWeight());
+    }
+
+    @Test
+    public void testLeastFrequentlyUsedIsEvicted() throws Exception {
+        FrequencyAwareResponseCache underTest = new FrequencyAwareResponseCache(30, 1, TimeUnit.MINUTES, now::get);
+        underTest.put("http://example.org/a", new byte[10]);
+        underTest.put("http://example.org/b", new byte[10]);
+        underTest.put("http://example.org/c", new byte[10]);
+
+        // 'a' is the oldest entry, but it is used more frequently than 'b'
+        underTest.get("http://example.org/a");
+        underTest.get("http://example.org/a");
+        underTest.get("http://example.org/c");
+
+        underTest.put("http://example.org/d", new byte[10]);
+
+        assertNull(underTest.get("http://example.org/b"));
+        assertNotNull(underTest.get("http://example.org/a"));
+        assertNotNull(underTest.get("http://example.org/c"));
+        assertNotNull(underTest.get("http://example.org/d"));
+        assertEquals(1, underTest.getEvictionCount());
+        assertEquals(30, underTest.getWeight());
+    }
+
+    @Test
+    public void testExpiredEntriesAreRemovedBeforeLiveEntriesAreEvicted() throws Exception {
+        FrequencyAwareResponseCache underTest = new FrequencyAwareResponseCache(20, 1, TimeUnit.MINUTES, now::get);
+        underTest.put("http://example.org/a", new byte[10], 10, TimeUnit.MINUTES);
+        underTest.put("http://example.org/b", new byte[10]);
+
+        now.set(TimeUnit.MINUTES.toMillis(2));
+        underTest.put("http://example.org/c", new byte[10]);
+
+        assertNotNull(underTest.get("http://example.org/a"));
+        assertNotNull(underTest.get("http://example.org/c"));
+        assertEquals(0, underTest.getEvictionCount());
+        assertEquals(1, underTest.getExpirationCount());
+    }
+
+    @Test
+    public void testOversizedBodyIsNotCached() throws Exception {
+        FrequencyAwareResponseCache underTest = new FrequencyAwareResponseCache(10, 1, TimeUnit.MINUTES, now::get);
+        underTest.put("http://example.org/a", new byte[5]);
+        underTest.put("http://example.org/b", new byte[11]);
+
+        assertNull(underTest.get("http://example.org/b"));
+        assertNotNull(underTest.get("http://example.org/a"));
+        assertEquals(0, underTest.getEvictionCount());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.squareup.okhttp.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Delay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Measures the time taken to resolve a to-many relationship with many pages, served by a local stand-in for the OSF
+ * with a fixed latency per page, when pages are retrieved sequentially and concurrently.  Not run as part of the
+ * build; run it with:
+ * <pre>
+ *     mvn test -Dtest=PaginatingRelationshipResolverBenchmark
+ * </pre>
+ */
+public class PaginatingRelationshipResolverBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PaginatingRelationshipResolverBenchmark.class);
+
+    private static final String PATH = "/v2/nodes/v8x57/children/";
+
+    private static final int PAGES = 40;
+
+    private static final int PAGE_SIZE = 10;
+
+    private static final long LATENCY_MILLIS = 100;
+
+    private ClientAndServer server;
+
+    private String url;
+
+    @Before
+    public void startServer() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = ClientAndServer.startClientAndServer(port);
+        url = "http://localhost:" + port + PATH;
+
+        // expectations are matched in the order they are created, so the first page (which has no page parameter)
+        // is added last
+        for (int page = PAGES; page > 0; page--) {
+            server.when(page > 1 ?
+                    request().withPath(PATH).withQueryStringParameter("page", String.valueOf(page)) :
+                    request().withPath(PATH))
+                    .respond(response()
+                            .withHeader("Content-Type", "application/vnd.api+json")
+                            .withBody(page(page))
+                            .withDelay(new Delay(TimeUnit.MILLISECONDS, LATENCY_MILLIS)));
+        }
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        long sequential = time(1);
+        long concurrent = time(8);
+
+        LOG.info("Resolved {} pages with {} ms latency: sequential {} ms, 8 concurrent {} ms", PAGES, LATENCY_MILLIS,
+                sequential, concurrent);
+        assertTrue(concurrent < sequential);
+    }
+
+    /**
+     * Resolves the relationship, answering the elapsed time in milliseconds.
+     */
+    private long time(int concurrency) throws Exception {
+        PaginatingRelationshipResolver underTest = new PaginatingRelationshipResolver(
+                new ResourceConverterGlobalResolver(new OkHttpClient()), concurrency);
+        try {
+            long start = System.nanoTime();
+            byte[] document = underTest.resolve(url);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(PAGES * PAGE_SIZE, new ObjectMapper().readTree(document).path("data").size());
+            return elapsed;
+        } finally {
+            underTest.shutdown();
+        }
+    }
+
+    private String page(int page) {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            data.append(i > 0 ? ", " : "").append("{\"type\": \"nodes\", \"id\": \"n").append(page).append('-')
+                    .append(i).append("\", \"attributes\": {\"title\": \"Component ").append(i).append("\"}}");
+        }
+        String next = page < PAGES ? "\"" + url + "?page=" + (page + 1) + "\"" : "null";
+        return "{\"data\": [" + data + "], \"links\": {\"first\": null, \"next\": " + next + ", " +
+                "\"last\": \"" + url + "?page=" + PAGES + "\", \"meta\": {\"total\": " + PAGES * PAGE_SIZE +
+                ", \"per_page\": " + PAGE_SIZE + "}}}";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the PaginatingRelationshipResolver
+ */
+public class PaginatingRelationshipResolverTest {
+
+    private static final String URL = "http://localhost:8000/v2/nodes/v8x57/children/";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PaginatingRelationshipResolver underTest;
+
+    @After
+    public void tearDown() throws Exception {
+        if (underTest != null) {
+            underTest.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnpaginatedDocumentIsUnchanged() throws Exception {
+        byte[] document = "{\"data\": [], \"links\": {\"next\": null}}".getBytes();
+        underTest = new PaginatingRelationshipResolver(url -> document, 4);
+
+        assertSame(document, underTest.resolve(URL));
+        assertEquals(0, underTest.getPageCount());
+    }
+
+    @Test
+    public void testPagesAreRetrievedConcurrentlyAndConcatenatedInOrder() throws Exception {
+        // each of pages 2 - 4 waits until all three are being retrieved; sequential retrieval would time out
+        CountDownLatch allStarted = new CountDownLatch(3);
+        underTest = new PaginatingRelationshipResolver(url -> {
+            int page = PaginatingRelationshipResolver.pageNumber(url);
+            if (page > 1) {
+                allStarted.countDown();
+                await(allStarted);
+            }
+            return page(Math.max(page, 1), 4, true).getBytes();
+        }, 4);
+
+        JsonNode result = MAPPER.readTree(underTest.resolve(URL));
+
+        assertEquals(0, allStarted.getCount());
+        assertEquals(4, result.path("data").size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("n" + (i + 1), result.path("data").get(i).path("id").asText());
+        }
+        assertTrue(result.path("links").path("next").isNull());
+        assertEquals(3, underTest.getPageCount());
+    }
+
+    @Test
+    public void testZeroConcurrencyRetrievesTheFirstPageOnly() throws Exception {
+        byte[] document = page(1, 4, true).getBytes();
+        List<String> requested = new CopyOnWriteArrayList<>();
+        underTest = new PaginatingRelationshipResolver(url -> {
+            requested.add(url);
+            return document;
+        }, PaginatingRelationshipResolver.DEFAULT_CONCURRENCY);
+
+        assertSame(document, underTest.resolve(URL));
+        assertEquals(1, requested.size());
+        assertEquals(0, underTest.getPageCount());
+    }
+
+    @Test
+    public void testNextLinksAreFollowedWithoutLastLink() throws Exception {
+        List<String> requested = new CopyOnWriteArrayList<>();
+        underTest = new PaginatingRelationshipResolver(url -> {
+            requested.add(url);
+            return page(Math.max(PaginatingRelationshipResolver.pageNumber(url), 1), 3, false).getBytes();
+        }, 4);
+
+        JsonNode result = MAPPER.readTree(underTest.resolve(URL));
+
+        assertEquals(3, result.path("data").size());
+        assertEquals(3, requested.size());
+        assertEquals(URL + "?page=3&embed=contributors", requested.get(2));
+    }
+
+    @Test
+    public void testDuplicateResourcesAreIncludedOnce() throws Exception {
+        Map<Integer, String> pages = new ConcurrentHashMap<>();
+        pages.put(1, "{\"data\": [{\"type\": \"nodes\", \"id\": \"n1\"}], " +
+                "\"links\": {\"next\": \"" + URL + "?page=2\", \"last\": \"" + URL + "?page=2\"}}");
+        pages.put(2, "{\"data\": [{\"type\": \"nodes\", \"id\": \"n1\"}, {\"type\": \"nodes\", \"id\": \"n2\"}], " +
+                "\"links\": {\"next\": null}}");
+        underTest = new PaginatingRelationshipResolver(
+                url -> pages.get(Math.max(PaginatingRelationshipResolver.pageNumber(url), 1)).getBytes(), 1);
+
+        assertEquals(2, MAPPER.readTree(underTest.resolve(URL)).path("data").size());
+    }
+
+    @Test
+    public void testMaxPagesIsEnforcedAcrossConcurrentAndSequentialRetrieval() throws Exception {
+        // links.last says 2 pages, but the collection grew to 5 while it was being paged
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<String> requested = new CopyOnWriteArrayList<>();
+        underTest = new PaginatingRelationshipResolver(url -> {
+            requested.add(url);
+            int page = Math.max(PaginatingRelationshipResolver.pageNumber(url), 1);
+            return (page == 1 ? page(1, 2, true) : page(page, 5, false)).getBytes();
+        }, executor, 3);
+
+        assertEquals(3, MAPPER.readTree(underTest.resolve(URL)).path("data").size());
+        assertEquals(3, requested.size());
+
+        // the concurrent range is cut short by the maximum as well
+        requested.clear();
+        underTest = new PaginatingRelationshipResolver(url -> {
+            requested.add(url);
+            return page(Math.max(PaginatingRelationshipResolver.pageNumber(url), 1), 5, true).getBytes();
+        }, executor, 3);
+
+        assertEquals(3, MAPPER.readTree(underTest.resolve(URL)).path("data").size());
+        assertEquals(3, requested.size());
+    }
+
+    @Test
+    public void testPageUrl() throws Exception {
+        assertEquals(URL + "?embed=files&page=7",
+                PaginatingRelationshipResolver.pageUrl(URL + "?embed=files&page=2", 7));
+        assertEquals(2, PaginatingRelationshipResolver.pageNumber(URL + "?embed=files&page=2"));
+        assertEquals(-1, PaginatingRelationshipResolver.pageNumber(URL));
+    }
+
+    /**
+     * Answers page {@code page} of {@code lastPage}, containing a single node.
+     */
+    private static String page(int page, int lastPage, boolean withLast) {
+        String next = page < lastPage ? "\"" + URL + "?page=" + (page + 1) + "&embed=contributors\"" : "null";
+        String last = withLast ? ", \"last\": \"" + URL + "?page=" + lastPage + "&embed=contributors\"" : "";
+        return "{\"data\": [{\"type\": \"nodes\", \"id\": \"n" + page + "\"}], " +
+                "\"links\": {\"next\": " + next + last + "}}";
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
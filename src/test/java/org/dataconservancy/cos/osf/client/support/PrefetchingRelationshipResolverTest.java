@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the PrefetchingRelationshipResolver
+ */
+public class PrefetchingRelationshipResolverTest {
+
+    private static final String BASE = "http://localhost:8000/v2/nodes/";
+
+    private static final String EMPTY = "{\"data\": []}";
+
+    private final RelationshipIndex index = new RelationshipIndex(Collections.singletonList(Node.class));
+
+    private PrefetchingRelationshipResolver underTest;
+
+    @After
+    public void tearDown() throws Exception {
+        if (underTest != null) {
+            underTest.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndexIncludesOnlyResolvedObjectRelationships() throws Exception {
+        Map<String, RelationshipIndex.ResolvedRelationship> relationships = index.getRelationships("nodes");
+
+        assertTrue(relationships.containsKey("children"));
+        assertTrue(relationships.containsKey("contributors"));
+        assertTrue(relationships.containsKey("files"));
+        assertTrue(relationships.containsKey("wikis"));
+        assertEquals("related", relationships.get("contributors").getLinkName());
+
+        // REF relationships are not resolved by the converter
+        assertFalse(relationships.containsKey("root"));
+        assertFalse(relationships.containsKey("parent"));
+
+        assertTrue(index.getRelationships("unknown").isEmpty());
+    }
+
+    @Test
+    public void testSiblingRelationshipsAreResolvedConcurrently() throws Exception {
+        // each retrieval waits until all three siblings are being retrieved; sequential resolution would time out
+        CountDownLatch allStarted = new CountDownLatch(3);
+        underTest = new PrefetchingRelationshipResolver(url -> {
+            allStarted.countDown();
+            await(allStarted);
+            return EMPTY.getBytes();
+        }, 4);
+
+        underTest.prefetch(BASE + "v8x57/contributors/");
+        underTest.prefetch(BASE + "v8x57/files/");
+        underTest.prefetch(BASE + "v8x57/wikis/");
+
+        long start = System.nanoTime();
+        underTest.resolve(BASE + "v8x57/contributors/");
+        underTest.resolve(BASE + "v8x57/files/");
+        underTest.resolve(BASE + "v8x57/wikis/");
+
+        assertEquals(0, allStarted.getCount());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(3, underTest.getPrefetchCount());
+        assertEquals(3, underTest.getHitCount());
+    }
+
+    @Test
+    public void testRelationshipsOfRetrievedDocumentsArePrefetched() throws Exception {
+        Map<String, String> documents = new HashMap<>();
+        documents.put(BASE + "v8x57/children/", "{\"data\": [" + node("xy123", "contributors") + "]}");
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+        underTest = new PrefetchingRelationshipResolver(url -> {
+            requests.computeIfAbsent(url, u -> new AtomicInteger()).incrementAndGet();
+            return documents.getOrDefault(url, EMPTY).getBytes();
+        }, 2);
+        SessionRelationshipResolver resolver = new SessionRelationshipResolver(underTest, index);
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all(), underTest)) {
+            session.inspect(document(node("v8x57", "children")), 0);
+            resolver.resolve(BASE + "v8x57/children/");
+            resolver.resolve(BASE + "xy123/contributors/");
+        }
+
+        assertEquals(2, underTest.getPrefetchCount());
+        assertEquals(2, underTest.getHitCount());
+        assertEquals(1, requests.get(BASE + "xy123/contributors/").get());
+    }
+
+    @Test
+    public void testExcludedRelationshipsAreNotPrefetched() throws Exception {
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        underTest = new PrefetchingRelationshipResolver(url -> {
+            requests.computeIfAbsent(url, u -> new AtomicInteger()).incrementAndGet();
+            return EMPTY.getBytes();
+        }, 2);
+        SessionRelationshipResolver resolver = new SessionRelationshipResolver(underTest, index);
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.none().include("files"),
+                underTest)) {
+            session.inspect(document(node("v8x57", "contributors", "files")), 0);
+            assertEquals(EMPTY, new String(resolver.resolve(BASE + "v8x57/contributors/")));
+            resolver.resolve(BASE + "v8x57/files/");
+        }
+
+        assertEquals(1, underTest.getPrefetchCount());
+        assertFalse(requests.containsKey(BASE + "v8x57/contributors/"));
+    }
+
+    @Test
+    public void testZeroConcurrencyResolvesOnCallingThread() throws Exception {
+        Thread caller = Thread.currentThread();
+        underTest = new PrefetchingRelationshipResolver(url -> {
+            assertEquals(caller, Thread.currentThread());
+            return EMPTY.getBytes();
+        }, 0);
+
+        underTest.prefetch(BASE + "v8x57/contributors/");
+        underTest.resolve(BASE + "v8x57/contributors/");
+
+        assertEquals(0, underTest.getPrefetchCount());
+        assertEquals(0, underTest.getHitCount());
+    }
+
+    /**
+     * Answers a JSON-API document with the supplied primary data.
+     */
+    private static byte[] document(String data) {
+        return ("{\"data\": " + data + "}").getBytes();
+    }
+
+    /**
+     * Answers a JSON-API node resource with the named relationships.
+     */
+    private static String node(String id, String... relationships) {
+        StringBuilder json = new StringBuilder("{\"type\": \"nodes\", \"id\": \"" + id + "\", \"relationships\": {");
+        for (int i = 0; i < relationships.length; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append("\"").append(relationships[i]).append("\": {\"links\": {\"related\": {\"href\": \"")
+                    .append(BASE).append(id).append("/").append(relationships[i]).append("/\"}}}");
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Insures proper behavior of the ResolutionProfile
+ */
+public class ResolutionProfileTest {
+
+    @Test
+    public void testAllFollowsEverything() throws Exception {
+        assertTrue(ResolutionProfile.all().follows("contributors", 1));
+        assertTrue(ResolutionProfile.all().follows("children", 100));
+        assertTrue(ResolutionProfile.all().isUnlimited());
+    }
+
+    @Test
+    public void testNoneFollowsOnlyIncludedRelationships() throws Exception {
+        ResolutionProfile underTest = ResolutionProfile.none().include("contributors").include("files", 2);
+
+        assertTrue(underTest.follows("contributors", 5));
+        assertTrue(underTest.follows("files", 2));
+        assertFalse(underTest.follows("files", 3));
+        assertFalse(underTest.follows("wikis", 1));
+        assertFalse(underTest.isUnlimited());
+    }
+
+    @Test
+    public void testExclusionAndMaxDepth() throws Exception {
+        ResolutionProfile underTest = ResolutionProfile.all().exclude("wikis").maxDepth(2);
+
+        assertFalse(underTest.follows("wikis", 1));
+        assertTrue(underTest.follows("children", 2));
+        assertFalse(underTest.follows("children", 3));
+
+        // a later inclusion overrides an exclusion, but not the maximum depth
+        assertTrue(underTest.include("wikis").follows("wikis", 1));
+        assertFalse(underTest.include("wikis").follows("wikis", 3));
+    }
+}
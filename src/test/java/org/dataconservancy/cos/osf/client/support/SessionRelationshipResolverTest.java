@@ -0,0 +1,307 @@
+/*
+ * Copyright 2016 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dataconservancy.cos.osf.client.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jasminb.jsonapi.ResourceConverter;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.ResponseBody;
+import org.dataconservancy.cos.osf.client.model.Comment;
+import org.dataconservancy.cos.osf.client.model.File;
+import org.dataconservancy.cos.osf.client.model.License;
+import org.dataconservancy.cos.osf.client.model.Node;
+import org.junit.Test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Insures proper behavior of the SessionRelationshipResolver, and the deferral of to-many relationships.
+ */
+public class SessionRelationshipResolverTest {
+
+    private static final String FILES_URL = "http://localhost:8000/v2/nodes/v8x57/files/";
+
+    private static final String LICENSE_URL = "http://localhost:8000/v2/licenses/563c1cf88c5e4a3877f9e96a/";
+
+    private static final String NODE_DOCUMENT = "{\"data\": {\"type\": \"nodes\", \"id\": \"v8x57\", " +
+            "\"relationships\": {" +
+            "\"files\": {\"links\": {\"related\": {\"href\": \"" + FILES_URL + "\"}}}, " +
+            "\"license\": {\"links\": {\"related\": {\"href\": \"" + LICENSE_URL + "\"}}}}}}";
+
+    private final RelationshipIndex lazyIndex = new RelationshipIndex(Arrays.asList(Node.class, File.class), true);
+
+    @Test
+    public void testDeferredRelationshipsAreNotRetrieved() throws Exception {
+        List<String> requested = new ArrayList<>();
+        SessionRelationshipResolver underTest = new SessionRelationshipResolver(url -> {
+            requested.add(url);
+            return "{\"data\": null}".getBytes();
+        }, lazyIndex);
+
+        try (ResolutionSession session = ResolutionSession.open(lazyIndex, ResolutionProfile.all(), null)) {
+            session.inspect(NODE_DOCUMENT.getBytes(), 0);
+            assertEquals("{\"data\": []}", new String(underTest.resolve(FILES_URL)));
+            underTest.resolve(LICENSE_URL);
+        }
+
+        // outside of a session, nothing is deferred
+        underTest.resolve(FILES_URL);
+
+        assertEquals(Arrays.asList(LICENSE_URL, FILES_URL), requested);
+        assertFalse(lazyIndex.getRelationships("nodes").get("license").isDeferred());
+        assertTrue(lazyIndex.getRelationships("nodes").get("files").isDeferred());
+    }
+
+    @Test
+    public void testDeferredRelationshipsAreReplacedWithLazyLists() throws Exception {
+        Node node = new Node();
+        node.setId("v8x57");
+        File file = new File();
+        AtomicInteger loads = new AtomicInteger();
+
+        try (ResolutionSession session = ResolutionSession.open(lazyIndex, ResolutionProfile.all(), null)) {
+            session.inspect(NODE_DOCUMENT.getBytes(), 0);
+            session.attachLazyRelationships(Collections.singletonList(node), (url, type, depth, toMany) -> {
+                assertEquals(FILES_URL, url);
+                assertEquals(File.class, type);
+                assertEquals(1, depth);
+                loads.incrementAndGet();
+                return new ArrayList<>(Collections.singletonList(file));
+            });
+        }
+
+        assertTrue(node.getFiles() instanceof LazyRelationshipList);
+        assertFalse(((LazyRelationshipList<File>) node.getFiles()).isResolved());
+        assertEquals(0, loads.get());
+
+        assertEquals(1, node.getFiles().size());
+        assertEquals(file, node.getFiles().get(0));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testExcludedRelationshipsAreSubstituted() throws Exception {
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, License.class));
+        List<String> requested = new ArrayList<>();
+        SessionRelationshipResolver underTest = new SessionRelationshipResolver(url -> {
+            requested.add(url);
+            return "{\"data\": []}".getBytes();
+        }, index);
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.none(), null)) {
+            session.inspect(NODE_DOCUMENT.getBytes(), 0);
+            assertEquals("{\"data\": []}", new String(underTest.resolve(FILES_URL)));
+            assertEquals("{\"data\":{\"type\":\"licenses\",\"id\":\"563c1cf88c5e4a3877f9e96a\"}}",
+                    new String(underTest.resolve(LICENSE_URL)));
+        }
+
+        assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testEmbeddedAndIncludedRelationshipsAreNotRetrieved() throws Exception {
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, License.class));
+        String document = "{\"data\": {\"type\": \"nodes\", \"id\": \"v8x57\", " +
+                "\"relationships\": {" +
+                "\"files\": {\"links\": {\"related\": {\"href\": \"" + FILES_URL + "\"}}}, " +
+                "\"license\": {\"links\": {\"related\": {\"href\": \"" + LICENSE_URL + "\"}}, " +
+                "\"data\": {\"type\": \"licenses\", \"id\": \"563c1cf88c5e4a3877f9e96a\"}}}, " +
+                "\"embeds\": {\"files\": {\"data\": [], \"links\": {\"next\": null}}}}, " +
+                "\"included\": [{\"type\": \"licenses\", \"id\": \"563c1cf88c5e4a3877f9e96a\", " +
+                "\"attributes\": {\"name\": \"CC0 1.0 Universal\"}}]}";
+        List<String> requested = new ArrayList<>();
+        SessionRelationshipResolver underTest = new SessionRelationshipResolver(url -> {
+            requested.add(url);
+            return "{\"data\": null}".getBytes();
+        }, index);
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all(), null)) {
+            session.inspect(document.getBytes(), 0);
+            assertEquals("{\"data\":[],\"links\":{\"next\":null}}", new String(underTest.resolve(FILES_URL)));
+            assertTrue(new String(underTest.resolve(LICENSE_URL)).contains("CC0 1.0 Universal"));
+        }
+
+        assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testCyclesTerminateWithoutRetrieval() throws Exception {
+        String base = "http://localhost:8000/v2/";
+        Map<String, String> documents = new HashMap<>();
+        documents.put(base + "nodes/v8x57/", "{\"data\": {\"type\": \"nodes\", \"id\": \"v8x57\", " +
+                "\"relationships\": {\"files\": {\"links\": {\"related\": {\"href\": \"" + FILES_URL + "\"}}}}, " +
+                "\"links\": {\"self\": \"" + base + "nodes/v8x57/\"}}}");
+        documents.put(FILES_URL, "{\"data\": [{\"type\": \"files\", \"id\": \"f1\", " +
+                "\"relationships\": {\"comments\": {\"links\": {\"related\": {\"href\": \"" + base +
+                "files/f1/comments/\"}}}}}]}");
+        documents.put(base + "files/f1/comments/", "{\"data\": [{\"type\": \"comments\", \"id\": \"c1\", " +
+                "\"relationships\": {\"node\": {\"links\": {\"related\": {\"href\": \"" + base +
+                "nodes/v8x57/\"}}}}}]}");
+
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, Comment.class));
+        List<String> requested = new ArrayList<>();
+        SessionRelationshipResolver underTest = new SessionRelationshipResolver(url -> {
+            requested.add(url);
+            return documents.get(url).getBytes();
+        }, index);
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all(), null)) {
+            session.inspect(documents.get(base + "nodes/v8x57/").getBytes(), 0);
+            underTest.resolve(FILES_URL);
+            underTest.resolve(base + "files/f1/comments/");
+
+            // the comment refers back to the node being deserialized, and the files are requested again
+            assertEquals("{\"data\":{\"type\":\"nodes\",\"id\":\"v8x57\"}}",
+                    new String(underTest.resolve(base + "nodes/v8x57/")));
+            assertEquals("{\"data\":[{\"type\":\"files\",\"id\":\"f1\"}]}",
+                    new String(underTest.resolve(FILES_URL)));
+            assertEquals(2, session.getReferenceCount());
+        }
+
+        assertEquals(Arrays.asList(FILES_URL, base + "files/f1/comments/"), requested);
+    }
+
+    @Test
+    public void testRepeatedReferencesShareInstance() throws Exception {
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, Comment.class));
+        Node node = new Node();
+        node.setId("v8x57");
+        node.setTitle("Project");
+        Node reference = new Node();
+        reference.setId("v8x57");
+        Comment comment = new Comment();
+        comment.setId("c1");
+        comment.setNode(reference);
+        File file = new File();
+        file.setId("f1");
+        file.setComments(new ArrayList<>(Collections.singletonList(comment)));
+        node.setFiles(new ArrayList<>(Collections.singletonList(file)));
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all(), null)) {
+            // the comment's node was answered by reference
+            session.inspect(("{\"data\": {\"type\": \"nodes\", \"id\": \"v8x57\", \"links\": {\"self\": " +
+                    "\"http://localhost:8000/v2/nodes/v8x57/\"}}}").getBytes(), 0);
+            assertNotNull(session.referenceFor("http://localhost:8000/v2/nodes/v8x57/"));
+
+            assertSame(node, session.deduplicate(node));
+        }
+
+        assertSame(node, comment.getNode());
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyRelationshipList<String> underTest = new LazyRelationshipList<>(FILES_URL, url -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new RuntimeException("Connection reset");
+            }
+            return new ArrayList<>(Collections.singletonList("file"));
+        });
+
+        try {
+            underTest.size();
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(1, underTest.size());
+        assertEquals("file", underTest.get(0));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testFailedRelationshipsAreRecordedAndRetried() throws Exception {
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, License.class));
+        SessionRelationshipResolver underTest = new SessionRelationshipResolver(url -> {
+            throw new RuntimeException("Connection reset");
+        }, index);
+        Node node = new Node();
+        node.setId("v8x57");
+        File file = new File();
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all(), null)) {
+            session.inspect(NODE_DOCUMENT.getBytes(), 0);
+            underTest.resolve(FILES_URL);
+            fail("Expected the failure to be propagated without a partial results profile.");
+        } catch (RuntimeException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+
+        try (ResolutionSession session = ResolutionSession.open(index, ResolutionProfile.all().partialResults(),
+                null)) {
+            session.inspect(NODE_DOCUMENT.getBytes(), 0);
+            assertEquals("{\"data\": []}", new String(underTest.resolve(FILES_URL)));
+            session.recordUnresolved(node, (url, type, depth, toMany) -> {
+                assertEquals(FILES_URL, url);
+                assertEquals(File.class, type);
+                return new ArrayList<>(Collections.singletonList(file));
+            });
+        }
+
+        assertFalse(UnresolvedRelationships.isComplete(node));
+        UnresolvedRelationships.Unresolved unresolved = UnresolvedRelationships.of(node).get(0);
+        assertEquals("files", unresolved.getName());
+        assertEquals("Connection reset", unresolved.getCause().getMessage());
+
+        assertEquals(0, UnresolvedRelationships.retryUnresolved(node));
+        assertTrue(UnresolvedRelationships.isComplete(node));
+        assertSame(file, node.getFiles().get(0));
+    }
+
+    @Test
+    public void testFailedToOneRelationshipIsRetriedByTheConverterFactory() throws Exception {
+        RelationshipIndex index = new RelationshipIndex(Arrays.asList(Node.class, File.class, License.class));
+        AtomicInteger licenseAttempts = new AtomicInteger();
+        SessionRelationshipResolver resolver = new SessionRelationshipResolver(url -> {
+            if (!url.equals(LICENSE_URL)) {
+                return "{\"data\": []}".getBytes();
+            }
+            if (licenseAttempts.getAndIncrement() == 0) {
+                throw new RuntimeException("Connection reset");
+            }
+            return ("{\"data\": {\"type\": \"licenses\", \"id\": \"563c1cf88c5e4a3877f9e96a\", " +
+                    "\"attributes\": {\"name\": \"CC0 1.0 Universal\"}}}").getBytes();
+        }, index);
+        ResourceConverter converter = new ResourceConverter(new ObjectMapper(), Node.class, File.class,
+                License.class);
+        converter.setGlobalResolver(resolver);
+        ResolvingConverterFactory underTest = new ResolvingConverterFactory(converter, resolver,
+                ResolutionProfile.all().partialResults());
+
+        Node node = (Node) underTest.fromResponseBody(Node.class, new Annotation[0])
+                .convert(ResponseBody.create(MediaType.parse("application/vnd.api+json"), NODE_DOCUMENT));
+
+        assertEquals("license", UnresolvedRelationships.of(node).get(0).getName());
+        assertEquals(0, UnresolvedRelationships.retryUnresolved(node));
+        assertEquals("CC0 1.0 Universal", node.getLicense().getName());
+        assertEquals(2, licenseAttempts.get());
+    }
+}